@@ -35,6 +35,11 @@ public final class ColorDodgeComposite extends RGBComposite {
             super(alpha, srcColorModel, dstColorModel);
         }
 
+        @Override
+        protected boolean isSeparable() {
+            return true;
+        }
+
         public void composeRGB(int[] src, int[] dst, float alpha) {
             int w = src.length;
 
@@ -16,11 +16,20 @@ limitations under the License.
 
 package com.jhlabs.composite;
 
+import pixelitor.ThreadPool;
+
 import java.awt.Composite;
 import java.awt.CompositeContext;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
 
 public abstract class RGBComposite implements Composite {
 
@@ -59,6 +68,11 @@ public abstract class RGBComposite implements Composite {
     }
 
     public abstract static class RGBCompositeContext implements CompositeContext {
+        // below this number of pixels the rows are not split between threads
+        private static final int MIN_PARALLEL_PIXELS = 16 * 1024;
+
+        // the blend tables of the separable modes, calculated on first use
+        private static final Map<Class<?>, int[]> blendTables = new ConcurrentHashMap<>();
 
         private float alpha;
         private ColorModel srcColorModel;
@@ -83,9 +97,30 @@ public abstract class RGBComposite implements Composite {
             return a < 0 ? 0 : a > 255 ? 255 : a;
         }
 
+        /**
+         * Blends the pixels of a row given as R, G, B, A samples.
+         * It can be called concurrently for different rows,
+         * therefore the implementations must not modify any fields.
+         */
         public abstract void composeRGB(int[] src, int[] dst, float alpha);
 
+        /**
+         * Returns true if each color channel of the result depends only on the
+         * same channel of the source and destination, and the result
+         * is mixed with the destination according to the source alpha
+         * like in the built-in modes. The blending can then be replaced
+         * by a lookup in a 256x256 table calculated by composeRGB.
+         */
+        protected boolean isSeparable() {
+            return false;
+        }
+
         public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+            if (isPackedARGB(src) && isPackedARGB(dstIn) && isPackedARGB(dstOut)) {
+                composePacked(src, dstIn, dstOut);
+                return;
+            }
+
             float alpha = this.alpha;
 
             int[] srcPix = null;
@@ -110,5 +145,156 @@ public abstract class RGBComposite implements Composite {
             }
         }
 
+        private static boolean isPackedARGB(Raster raster) {
+            SampleModel sm = raster.getSampleModel();
+            if (!(sm instanceof SinglePixelPackedSampleModel)
+                    || sm.getTransferType() != DataBuffer.TYPE_INT) {
+                return false;
+            }
+            int[] masks = ((SinglePixelPackedSampleModel) sm).getBitMasks();
+            return masks.length == 4
+                    && masks[0] == 0xFF0000
+                    && masks[1] == 0xFF00
+                    && masks[2] == 0xFF
+                    && masks[3] == 0xFF000000;
+        }
+
+        /**
+         * Blends rasters with packed ARGB int pixels, working on whole rows
+         * of ints, and splitting the rows between threads for large areas.
+         * The results are the same as with the generic per-sample path.
+         */
+        private void composePacked(Raster src, Raster dstIn, WritableRaster dstOut) {
+            int x = dstOut.getMinX();
+            int w = dstOut.getWidth();
+            int y0 = dstOut.getMinY();
+            int h = dstOut.getHeight();
+            int[] table = isSeparable() ? getBlendTable() : null;
+
+            if ((long) w * h < MIN_PARALLEL_PIXELS) {
+                composePackedRows(src, dstIn, dstOut, x, w, y0, y0 + h, table);
+            } else {
+                ThreadPool.parallelForStrips(h, NULL_TRACKER, (start, end) ->
+                        composePackedRows(src, dstIn, dstOut, x, w,
+                                y0 + start, y0 + end, table));
+            }
+        }
+
+        private void composePackedRows(Raster src, Raster dstIn, WritableRaster dstOut,
+                                       int x, int w, int startY, int endY, int[] table) {
+            int[] srcRow = new int[w];
+            int[] dstRow = new int[w];
+            int[] srcPix = table == null ? new int[4 * w] : null;
+            int[] dstPix = table == null ? new int[4 * w] : null;
+
+            for (int y = startY; y < endY; y++) {
+                src.getDataElements(x, y, w, 1, srcRow);
+                dstIn.getDataElements(x, y, w, 1, dstRow);
+                if (table != null) {
+                    blendWithTable(srcRow, dstRow, w, table);
+                } else {
+                    unpack(srcRow, srcPix, w);
+                    unpack(dstRow, dstPix, w);
+                    composeRGB(srcPix, dstPix, alpha);
+                    pack(dstPix, dstRow, w);
+                }
+                dstOut.setDataElements(x, y, w, 1, dstRow);
+            }
+        }
+
+        // the same calculation as in the composeRGB methods of the separable modes
+        private void blendWithTable(int[] srcRow, int[] dstRow, int w, int[] table) {
+            float alpha = this.alpha;
+            for (int i = 0; i < w; i++) {
+                int s = srcRow[i];
+                int sa = s >>> 24;
+                if (sa == 0) {
+                    continue; // the destination doesn't change
+                }
+                int d = dstRow[i];
+                int sr = (s >>> 16) & 0xFF;
+                int sg = (s >>> 8) & 0xFF;
+                int sb = s & 0xFF;
+                int dir = (d >>> 16) & 0xFF;
+                int dig = (d >>> 8) & 0xFF;
+                int dib = d & 0xFF;
+                int dor = table[sr << 8 | dir];
+                int dog = table[sg << 8 | dig];
+                int dob = table[sb << 8 | dib];
+
+                if (sa == 255 && alpha == 1.0f) {
+                    dstRow[i] = 0xFF000000
+                            | (dor & 0xFF) << 16
+                            | (dog & 0xFF) << 8
+                            | (dob & 0xFF);
+                    continue;
+                }
+
+                int dia = d >>> 24;
+                float a = alpha * sa / 255f;
+                float ac = 1 - a;
+                int newRed = (int) (a * dor + ac * dir);
+                int newGreen = (int) (a * dog + ac * dig);
+                int newBlue = (int) (a * dob + ac * dib);
+                int newAlpha = (int) (sa * alpha + dia * ac);
+                dstRow[i] = (newAlpha & 0xFF) << 24
+                        | (newRed & 0xFF) << 16
+                        | (newGreen & 0xFF) << 8
+                        | (newBlue & 0xFF);
+            }
+        }
+
+        private int[] getBlendTable() {
+            return blendTables.computeIfAbsent(getClass(), c -> calcBlendTable());
+        }
+
+        // with full alpha, composeRGB returns the blended channel values
+        private int[] calcBlendTable() {
+            int[] table = new int[256 * 256];
+            int[] src = new int[4 * 256];
+            int[] dst = new int[4 * 256];
+            for (int s = 0; s < 256; s++) {
+                for (int d = 0; d < 256; d++) {
+                    int i = 4 * d;
+                    src[i] = s;
+                    src[i + 1] = s;
+                    src[i + 2] = s;
+                    src[i + 3] = 255;
+                    dst[i] = d;
+                    dst[i + 1] = d;
+                    dst[i + 2] = d;
+                    dst[i + 3] = 255;
+                }
+                composeRGB(src, dst, 1.0f);
+                for (int d = 0; d < 256; d++) {
+                    table[s << 8 | d] = dst[4 * d];
+                }
+            }
+            return table;
+        }
+
+        // converts packed ARGB ints to the R, G, B, A samples of Raster.getPixels
+        private static void unpack(int[] packed, int[] samples, int w) {
+            for (int i = 0; i < w; i++) {
+                int p = packed[i];
+                int si = 4 * i;
+                samples[si] = (p >>> 16) & 0xFF;
+                samples[si + 1] = (p >>> 8) & 0xFF;
+                samples[si + 2] = p & 0xFF;
+                samples[si + 3] = p >>> 24;
+            }
+        }
+
+        // the samples are masked like in Raster.setPixels
+        private static void pack(int[] samples, int[] packed, int w) {
+            for (int i = 0; i < w; i++) {
+                int si = 4 * i;
+                packed[i] = (samples[si + 3] & 0xFF) << 24
+                        | (samples[si] & 0xFF) << 16
+                        | (samples[si + 1] & 0xFF) << 8
+                        | (samples[si + 2] & 0xFF);
+            }
+        }
+
     }
 }
@@ -32,14 +32,14 @@ public final class SaturationComposite extends RGBComposite {
     }
 
     static class Context extends RGBCompositeContext {
-        private float[] sHSB = new float[3];
-        private float[] dHSB = new float[3];
-
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         public void composeRGB(int[] src, int[] dst, float alpha) {
+            // local arrays, because the rows can be blended concurrently
+            float[] sHSB = new float[3];
+            float[] dHSB = new float[3];
             int w = src.length;
 
             for (int i = 0; i < w; i += 4) {
@@ -23,7 +23,6 @@ import pixelitor.ThreadPool;
 import pixelitor.utils.CachedFloatRandom;
 
 import java.awt.Rectangle;
-import java.util.concurrent.Future;
 
 /**
  * A filter which produces an image with a cellular texture.
@@ -518,7 +517,7 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
             d = localGridType.checkCube(fx, fy - 1, ix, iy + 1, results, randomness);
         }
         if (d > fx) {
-            localGridType.checkCube(fx + 1, fy, ix - 1, iy, results, randomness);
+            d = localGridType.checkCube(fx + 1, fy, ix - 1, iy, results, randomness);
             if (d > fy) {
                 d = localGridType.checkCube(fx + 1, fy + 1, ix - 1, iy - 1, results, randomness);
             }
@@ -611,18 +610,12 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
         pt = createProgressTracker(height);
         int[] outPixels = new int[width * height];
 
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                int index = width * finalY;
-                for (int x = 0; x < width; x++) {
-                    outPixels[index++] = getPixel(x, finalY, inPixels, width, height);
-                }
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-        ThreadPool.waitForFutures(futures, pt);
+        ThreadPool.parallelFor(height, pt, y -> {
+            int index = width * y;
+            for (int x = 0; x < width; x++) {
+                outPixels[index++] = getPixel(x, y, inPixels, width, height);
+            }
+        });
 
         finishProgressTracker();
 
@@ -21,7 +21,6 @@ import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
-import java.util.concurrent.Future;
 
 /**
  * A filter which applies Gaussian blur to an image. This is a subclass of ConvolveFilter
@@ -31,6 +30,16 @@ import java.util.concurrent.Future;
  */
 public class GaussianFilter extends ConvolveFilter {
 
+    /**
+     * Above this radius the blur is approximated with box blurs.
+     */
+    static final float MIN_BOX_BLUR_RADIUS = 32;
+
+    /**
+     * The number of box blurs that approximate the Gaussian.
+     */
+    static final int NUM_BOX_PASSES = 4;
+
     /**
      * The blur radius.
      */
@@ -100,8 +109,8 @@ public class GaussianFilter extends ConvolveFilter {
         getRGB(src, 0, 0, width, height, inPixels);
 
         if (radius > 0) {
-            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES, pt);
-            convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES, pt);
+            blurAndTranspose(inPixels, outPixels, width, height, alpha && premultiplyAlpha, false, pt);
+            blurAndTranspose(outPixels, inPixels, height, width, false, alpha && premultiplyAlpha, pt);
         }
 
 //        dst.setRGB(0, 0, width, height, inPixels, 0, width);
@@ -112,6 +121,20 @@ public class GaussianFilter extends ConvolveFilter {
         return dst;
     }
 
+    /**
+     * Blur and transpose a block of ARGB pixels with the current radius,
+     * with clamped edges. Above a radius threshold the kernel is approximated
+     * with repeated box blurs, whose cost doesn't depend on the radius.
+     */
+    protected void blurAndTranspose(int[] inPixels, int[] outPixels, int width, int height,
+                                    boolean premultiply, boolean unpremultiply, ProgressTracker pt) {
+        if (radius >= MIN_BOX_BLUR_RADIUS) {
+            boxBlurAndTranspose(kernel, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, pt);
+        } else {
+            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, CLAMP_EDGES, pt);
+        }
+    }
+
     /**
      * Blur and transpose a block of ARGB pixels.
      *
@@ -129,14 +152,8 @@ public class GaussianFilter extends ConvolveFilter {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        Future<?>[] resultLines = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, finalY);
-            resultLines[y] = ThreadPool.submit(lineTask);
-        }
-
-        ThreadPool.waitForFutures(resultLines, pt);
+        ThreadPool.parallelFor(height, pt, y ->
+                convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, y));
     }
 
     private static void convolveAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction, float[] matrix, int cols2, int y) {
@@ -196,6 +213,163 @@ public class GaussianFilter extends ConvolveFilter {
         }
     }
 
+    /**
+     * Blur and transpose a block of ARGB pixels with clamped edges, like
+     * {@link #convolveAndTranspose}, but instead of the given kernel,
+     * {@link #NUM_BOX_PASSES} box blurs are applied, whose combined variance
+     * is the same as the variance of the kernel.
+     * The box blurs use running sums, therefore the cost
+     * per pixel is constant, independent of the radius.
+     */
+    static void boxBlurAndTranspose(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha,
+                                    boolean premultiply, boolean unpremultiply, ProgressTracker pt) {
+        int[] boxRadii = calcBoxRadii(calcVariance(kernel), NUM_BOX_PASSES);
+        int pad = 0;
+        for (int boxRadius : boxRadii) {
+            pad += boxRadius;
+        }
+
+        // the lines are extended with the edge pixels by the sum of the
+        // box radii, so that the edges are handled as if the kernel
+        // of the combined passes was applied to an infinitely clamped line
+        int extendedWidth = width + 2 * pad;
+        int finalPad = pad;
+        ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+            float[][] channels = new float[4][extendedWidth];
+            float[] tmp = new float[extendedWidth];
+            for (int y = start; y < end; y++) {
+                boxBlurAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply,
+                        boxRadii, finalPad, channels, tmp, y);
+            }
+        });
+    }
+
+    private static void boxBlurAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, boolean alpha,
+                                                boolean premultiply, boolean unpremultiply, int[] boxRadii, int pad,
+                                                float[][] channels, float[] tmp, int y) {
+        float[] as = channels[0];
+        float[] rs = channels[1];
+        float[] gs = channels[2];
+        float[] bs = channels[3];
+        int extendedWidth = width + 2 * pad;
+        int ioffset = y * width;
+        for (int ex = 0; ex < extendedWidth; ex++) {
+            int x = ImageMath.clamp(ex - pad, 0, width - 1);
+            int rgb = inPixels[ioffset + x];
+            int pa = (rgb >> 24) & 0xff;
+            int pr = (rgb >> 16) & 0xff;
+            int pg = (rgb >> 8) & 0xff;
+            int pb = rgb & 0xff;
+            if (premultiply) {
+                float a255 = pa * (1.0f / 255.0f);
+                pr *= a255;
+                pg *= a255;
+                pb *= a255;
+            }
+            as[ex] = pa;
+            rs[ex] = pr;
+            gs[ex] = pg;
+            bs[ex] = pb;
+        }
+
+        for (float[] channel : channels) {
+            if (channel == as && !alpha) {
+                continue;
+            }
+            for (int boxRadius : boxRadii) {
+                boxBlurLine(channel, tmp, extendedWidth, boxRadius);
+            }
+        }
+
+        int index = y;
+        for (int x = 0; x < width; x++) {
+            int ex = x + pad;
+            float a = as[ex];
+            float r = rs[ex];
+            float g = gs[ex];
+            float b = bs[ex];
+            if (unpremultiply && a != 0 && a != 255) {
+                float f = 255.0f / a;
+                r *= f;
+                g *= f;
+                b *= f;
+            }
+            int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+
+            int ir = PixelUtils.clamp((int) (r + 0.5));
+            int ig = PixelUtils.clamp((int) (g + 0.5));
+            int ib = PixelUtils.clamp((int) (b + 0.5));
+            outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+            index += height;
+        }
+    }
+
+    /**
+     * Box blurs the values in place with a running sum. The values
+     * outside the line are considered equal to the edge values,
+     * but thanks to the padding they don't influence the used values.
+     */
+    private static void boxBlurLine(float[] values, float[] tmp, int length, int boxRadius) {
+        System.arraycopy(values, 0, tmp, 0, length);
+        float scale = 1.0f / (2 * boxRadius + 1);
+        int last = length - 1;
+
+        // the sum is in double, because a float sum
+        // would accumulate rounding errors along the line
+        double sum = 0;
+        for (int i = -boxRadius; i <= boxRadius; i++) {
+            sum += tmp[ImageMath.clamp(i, 0, last)];
+        }
+        for (int i = 0; i < length; i++) {
+            values[i] = (float) (sum * scale);
+            sum += tmp[Math.min(i + boxRadius + 1, last)];
+            sum -= tmp[Math.max(i - boxRadius, 0)];
+        }
+    }
+
+    /**
+     * Returns the variance of a symmetric, normalized 1D kernel
+     */
+    static double calcVariance(Kernel kernel) {
+        float[] matrix = kernel.getKernelData(null);
+        int center = matrix.length / 2;
+        double variance = 0;
+        for (int i = 0; i < matrix.length; i++) {
+            int d = i - center;
+            variance += matrix[i] * d * d;
+        }
+        return variance;
+    }
+
+    /**
+     * Returns the radii of the given number of box blurs whose combined
+     * variance is the closest to the given variance. The box widths
+     * differ by at most two, as in "Fast Almost-Gaussian Filtering"
+     * by Peter Kovesi.
+     */
+    static int[] calcBoxRadii(double variance, int numPasses) {
+        // a box of width w has the variance (w * w - 1) / 12
+        double idealWidth = Math.sqrt(12 * variance / numPasses + 1);
+        int lowerWidth = (int) Math.floor(idealWidth);
+        if (lowerWidth % 2 == 0) {
+            lowerWidth--;
+        }
+        lowerWidth = Math.max(1, lowerWidth);
+        int upperWidth = lowerWidth + 2;
+
+        // the number of passes with the lower width
+        double numLower = (12 * variance - numPasses * lowerWidth * lowerWidth
+                - 4 * numPasses * lowerWidth - 3 * numPasses) / (-4 * lowerWidth - 4);
+        int m = ImageMath.clamp((int) Math.round(numLower), 0, numPasses);
+
+        int[] radii = new int[numPasses];
+        for (int i = 0; i < numPasses; i++) {
+            int width = i < m ? lowerWidth : upperWidth;
+            radii[i] = width / 2;
+        }
+        return radii;
+    }
+
     /**
      * Make a Gaussian blur kernel.
      *
@@ -19,7 +19,6 @@ package com.jhlabs.image;
 import pixelitor.ThreadPool;
 
 import java.awt.Rectangle;
-import java.util.concurrent.Future;
 
 /**
  * A filter which produces a "oil-painting" effect.
@@ -71,86 +70,121 @@ public class OilFilter extends WholeImageFilter {
         int[] outPixels = new int[width * height];
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> calculateLine(width, height, inPixels, outPixels, finalY);
-            futures[y] = ThreadPool.submit(lineTask);
-        }
-
-        ThreadPool.waitForFutures(futures, pt);
+        ThreadPool.parallelForStrips(height, pt, (startY, endY) -> {
+            // the histogram arrays are reused for all the lines of the strip
+            Histogram histogram = new Histogram(levels);
+            for (int y = startY; y < endY; y++) {
+                calculateLine(width, height, inPixels, outPixels, y, histogram);
+            }
+        });
         finishProgressTracker();
 
         return outPixels;
     }
 
-    private void calculateLine(int width, int height, int[] inPixels, int[] outPixels, int y) {
+    // The idea is that for each pixel the most frequently occuring
+    // intensity value in its neighborhood is found, and this will determine
+    // new value of the pixel.
+    // The histogram of the neighborhood is not rebuilt for each pixel:
+    // when moving to the right, the column entering the brush is added,
+    // and the column leaving it is removed, so the cost depends only
+    // linearly on the brush height, and not on the brush area.
+    private void calculateLine(int width, int height, int[] inPixels, int[] outPixels, int y, Histogram histogram) {
+        int minY = Math.max(0, y - rangeY);
+        int maxY = Math.min(height - 1, y + rangeY);
+
+        histogram.clear();
+        int lastCol = Math.min(width - 1, rangeX);
+        for (int col = 0; col <= lastCol; col++) {
+            histogram.addColumn(inPixels, width, col, minY, maxY, 1);
+        }
+
         int index = y * width;
-        int[] rTotal = new int[levels];
-        int[] gTotal = new int[levels];
-        int[] bTotal = new int[levels];
-        int[] histogram = new int[levels];
         for (int x = 0; x < width; x++) {
-            // The idea is that for each pixel the most frequently occuring
-            // intensity value in its neighborhood is found, and this will determine
-            // new value of the pixel
+            if (x > 0) {
+                int leaving = x - rangeX - 1;
+                if (leaving >= 0) {
+                    histogram.addColumn(inPixels, width, leaving, minY, maxY, -1);
+                }
+                int entering = x + rangeX;
+                if (entering < width) {
+                    histogram.addColumn(inPixels, width, entering, minY, maxY, 1);
+                }
+            }
+
+            outPixels[index] = (inPixels[index] & 0xff000000) | histogram.getMostFrequentColor();
+            index++;
+        }
+    }
+
+    /**
+     * An intensity histogram, which also keeps the total
+     * red, green and blue values for each bin
+     */
+    private static class Histogram {
+        private final int levels;
+        private final int[] counts;
+        private final int[] rTotal;
+        private final int[] gTotal;
+        private final int[] bTotal;
+
+        Histogram(int levels) {
+            this.levels = levels;
+            counts = new int[levels];
+            rTotal = new int[levels];
+            gTotal = new int[levels];
+            bTotal = new int[levels];
+        }
+
+        void clear() {
             for (int i = 0; i < levels; i++) {
-                histogram[i] = rTotal[i] = gTotal[i] = bTotal[i] = 0;
+                counts[i] = rTotal[i] = gTotal[i] = bTotal[i] = 0;
             }
+        }
 
-            // For each pixel, all pixels within the brush size will have to be examined.
-            for (int row = -rangeY; row <= rangeY; row++) {
-                int iy = y + row;
-                int ioffset;
-                if (0 <= iy && iy < height) {
-                    ioffset = iy * width;
-                    for (int col = -rangeX; col <= rangeX; col++) {
-                        int ix = x + col;
-                        if (0 <= ix && ix < width) {
-                            // examining each neighbor pixel which is within brush size
-                            int rgb = inPixels[ioffset + ix];
-                            int r = (rgb >> 16) & 0xff;
-                            int g = (rgb >> 8) & 0xff;
-
-                            int b = rgb & 0xff;
-                            int intensity = (r + g + b) / 3;
-                            // For each sub-pixel, calculate the intensity, and determine
-                            // which intensity bin that intensity number falls into
-                            int intensityI = intensity * levels / 256;
-                            histogram[intensityI]++;
-
-                            // Also maintain the total red, green, and blue values for each bin,
-                            // later these may be used to determine the final value of the pixel.
-                            rTotal[intensityI] += r;
-                            gTotal[intensityI] += g;
-                            bTotal[intensityI] += b;
-                        }
-                    }
-                }
+        /**
+         * Adds (sign = 1) or removes (sign = -1) the pixels
+         * of a column between minY and maxY (inclusive)
+         */
+        void addColumn(int[] inPixels, int width, int x, int minY, int maxY, int sign) {
+            for (int iy = minY; iy <= maxY; iy++) {
+                int rgb = inPixels[iy * width + x];
+                int r = (rgb >> 16) & 0xff;
+                int g = (rgb >> 8) & 0xff;
+                int b = rgb & 0xff;
+
+                // For each sub-pixel, calculate the intensity, and determine
+                // which intensity bin that intensity number falls into
+                int intensity = (r + g + b) / 3;
+                int intensityI = intensity * levels / 256;
+                counts[intensityI] += sign;
+
+                // Also maintain the total red, green, and blue values for each bin,
+                // later these may be used to determine the final value of the pixel.
+                rTotal[intensityI] += sign * r;
+                gTotal[intensityI] += sign * g;
+                bTotal[intensityI] += sign * b;
             }
+        }
 
-            // Determine which intensity bin has the most number of pixels in it.
+        /**
+         * Returns the average of the colors in the bin
+         * with the highest number of pixels, without alpha
+         */
+        int getMostFrequentColor() {
             int maxIndex = 0;
             int curMax = 0;
             for (int i = 0; i < levels; i++) {
-                if (histogram[i] > curMax) {
-                    curMax = histogram[i];
+                if (counts[i] > curMax) {
+                    curMax = counts[i];
                     maxIndex = i;
                 }
             }
 
-            // The final color of the pixel is the average of the colors
-            // in the bin with the highest number of pixels
             int r = rTotal[maxIndex] / curMax;
             int g = gTotal[maxIndex] / curMax;
             int b = bTotal[maxIndex] / curMax;
-
-//                r = PixelUtils.clamp(r);
-//                g = PixelUtils.clamp(g);
-//                b = PixelUtils.clamp(b);
-
-            outPixels[index] = (inPixels[index] & 0xff000000) | (r << 16) | (g << 8) | b;
-            index++;
+            return (r << 16) | (g << 8) | b;
         }
     }
 
@@ -20,7 +20,6 @@ import pixelitor.ThreadPool;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
-import java.util.concurrent.Future;
 
 /**
  * An abstract superclass for point filters. The interface is the same as the old RGBImageFilter.
@@ -48,19 +47,12 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int[] outPixels = ImageUtils.getPixelsAsArray(dst);
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                for (int x = 0; x < width; x++) {
-                    int index = finalY * width + x;
-                    outPixels[index] = filterRGB(x, finalY, inPixels[index]);
-                }
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-
-        ThreadPool.waitForFutures(futures, pt);
+        ThreadPool.parallelFor(height, pt, y -> {
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                outPixels[index] = filterRGB(x, y, inPixels[index]);
+            }
+        });
         finishProgressTracker();
 
         return dst;
@@ -71,20 +63,16 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int height = src.getHeight();
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                int[] inPixels = new int[width];
-                src.getRGB(0, finalY, width, 1, inPixels, 0, width);
+        ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+            int[] linePixels = new int[width];
+            for (int y = start; y < end; y++) {
+                src.getRGB(0, y, width, 1, linePixels, 0, width);
                 for (int x = 0; x < width; x++) {
-                    inPixels[x] = filterRGB(x, finalY, inPixels[x]);
+                    linePixels[x] = filterRGB(x, y, linePixels[x]);
                 }
-                dst.setRGB(0, finalY, width, 1, inPixels, 0, width);
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-        ThreadPool.waitForFutures(futures, pt);
+                dst.setRGB(0, y, width, 1, linePixels, 0, width);
+            }
+        });
         finishProgressTracker();
 
         return dst;
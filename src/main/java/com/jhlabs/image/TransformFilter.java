@@ -22,8 +22,6 @@ import pixelitor.ThreadPool;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
 
 /**
  * An abstract superclass for filters which distort images in some way. The subclass only needs to override
@@ -263,29 +261,22 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
         int outHeight = height;
 
         pt = createProgressTracker(outHeight);
-        Future<int[]>[] resultLines = new Future[outHeight];
+        int[] outPixels = new int[outWidth * outHeight];
 
-        for (int y = 0; y < outHeight; y++) {
+        ThreadPool.parallelForStrips(outHeight, pt, (start, end) -> {
             float[] out = new float[2];
-            int finalY = y;
-            Callable<int[]> calculateLineTask = () -> {
-                int srcX, srcY;
-                int[] outPixels = new int[outWidth];
-
+            for (int y = start; y < end; y++) {
+                int index = y * outWidth;
                 for (int x = 0; x < outWidth; x++) {
-                    transformInverse(x, finalY, out);
-                    srcX = (int) out[0];
-                    srcY = (int) out[1];
+                    transformInverse(x, y, out);
+                    int srcX = (int) out[0];
+                    int srcY = (int) out[1];
                     // int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
-                    outPixels[x] = getPixelNN(inPixels, srcWidth, srcHeight, srcX, srcY, out);
+                    outPixels[index++] = getPixelNN(inPixels, srcWidth, srcHeight, srcX, srcY, out);
                 }
-
-                return outPixels;
-
-            };
-            resultLines[finalY] = ThreadPool.submit2(calculateLineTask);
-        }
-        ThreadPool.waitForFutures2(resultLines, dst, width, pt);
+            }
+        });
+        setRGB(dst, 0, 0, outWidth, outHeight, outPixels);
         finishProgressTracker();
 
         return dst;
@@ -302,15 +293,14 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
 //		int index = 0;
 
         pt = createProgressTracker(outHeight);
-        Future<int[]>[] resultLines = new Future[outHeight];
+        int[] outPixels = new int[outWidth * outHeight];
 
-        for (int y = 0; y < outHeight; y++) {
+        ThreadPool.parallelForStrips(outHeight, pt, (start, end) -> {
             float[] out = new float[2];
-            int finalY = y;
-            Callable<int[]> calculateLineTask = () -> {
-                int[] outPixels = new int[outWidth];
+            for (int y = start; y < end; y++) {
+                int index = y * outWidth;
                 for (int x = 0; x < outWidth; x++) {
-                    transformInverse(x, finalY, out);
+                    transformInverse(x, y, out);
                     int srcX = (int) FastMath.floor(out[0]);
                     int srcY = (int) FastMath.floor(out[1]);
                     float xWeight = out[0] - srcX;
@@ -331,14 +321,11 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
                         sw = getPixelBL(inPixels, srcX, srcY + 1, srcWidth, srcHeight);
                         se = getPixelBL(inPixels, srcX + 1, srcY + 1, srcWidth, srcHeight);
                     }
-                    outPixels[x] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
+                    outPixels[index++] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
                 }
-                return outPixels;
-            };
-
-            resultLines[finalY] = ThreadPool.submit2(calculateLineTask);
-        }
-        ThreadPool.waitForFutures2(resultLines, dst, width, pt);
+            }
+        });
+        setRGB(dst, 0, 0, outWidth, outHeight, outPixels);
         finishProgressTracker();
 
         return dst;
@@ -92,8 +92,8 @@ public class UnsharpFilter extends GaussianFilter {
         getRGB(src, 0, 0, width, height, inPixels);
 
         if (radius > 0) {
-            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES, pt);
-            convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES, pt);
+            blurAndTranspose(inPixels, outPixels, width, height, alpha && premultiplyAlpha, false, pt);
+            blurAndTranspose(outPixels, inPixels, height, width, false, alpha && premultiplyAlpha, pt);
         }
 
         // src.getRGB(0, 0, width, height, outPixels, 0, width);
@@ -1,8 +1,17 @@
 package pd;
 
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
 import java.io.*;
 import java.awt.*;
 import java.awt.image.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * Class AnimatedGifEncoder - Encodes a GIF file consisting of one or more
@@ -18,6 +27,10 @@ import java.awt.image.*;
  *     e.finish();
  * </pre>
  *
+ * The frames are quantized, mapped and LZW-encoded in parallel on the
+ * {@link ThreadPool}, while the already encoded frames are written
+ * in order on a separate writer thread.
+ *
  * No copyright asserted on the source code of this class. May be used for any
  * purpose, however, refer to the Unisys LZW patent for restrictions on use of
  * the associated LZWEncoder class. Please forward any corrections to
@@ -30,14 +43,15 @@ import java.awt.image.*;
 
 public class AnimatedGifEncoder {
 
+    // the maximum number of frames that are encoded or waiting to be written
+    private static final int MAX_FRAMES_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
     protected int width; // image size
 
     protected int height;
 
     protected Color transparent = null; // transparent color if given
 
-    protected int transIndex; // transparent index in color table
-
     protected int repeat = -1; // no repeat
 
     protected int delay = 0; // frame delay (hundredths)
@@ -46,18 +60,6 @@ public class AnimatedGifEncoder {
 
     protected OutputStream out;
 
-    protected BufferedImage image; // current frame
-
-    protected byte[] pixels; // BGR byte array from frame
-
-    protected byte[] indexedPixels; // converted frame indexed to palette
-
-    protected int colorDepth; // number of bit planes
-
-    protected byte[] colorTab; // RGB palette
-
-    protected boolean[] usedEntry = new boolean[256]; // active palette entries
-
     protected int palSize = 7; // color table size (bits-1)
 
     protected int dispose = -1; // disposal code (-1 = use default)
@@ -69,8 +71,24 @@ public class AnimatedGifEncoder {
     protected boolean sizeSet = false; // if false, get size from first frame
 
     protected int sample = 10; // default sample interval for quantizer
+
+    protected boolean globalPalette = false; // one palette for all frames
+
+    protected boolean cropToChanges = false; // encode only the changed rectangles
+
     private File file;
 
+    // the BGR pixels of the previous frame, used for the cropping
+    private byte[] prevPixels;
+
+    // the palette trained on the first frame in global palette mode
+    private CompletableFuture<Palette> globalPaletteFuture;
+
+    // completes when all the frames added so far are written
+    private CompletableFuture<Void> writing;
+    private ExecutorService writerThread;
+    private final Semaphore frameSlots = new Semaphore(MAX_FRAMES_IN_FLIGHT);
+
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
      * (applies to last frame added).
@@ -126,49 +144,94 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Adds next GIF frame. The frame is not written immediately, but is actually
-     * deferred until the next frame is received so that timing data can be
-     * inserted. Invoking <code>finish()</code> flushes all frames. If
-     * <code>setSize</code> was not invoked, the size of the first image is used
-     * for all subsequent frames.
+     * Sets whether all frames use the palette trained on the first frame
+     * (written as the global color table), instead of training a
+     * local palette for each frame. This is faster, and suitable for
+     * animations whose colors don't change much. Must be invoked
+     * before the first image is added.
+     *
+     * @param global
+     *          true for a single palette.
+     */
+    public void setGlobalPalette(boolean global) {
+        if (started && !firstFrame)
+            return;
+        globalPalette = global;
+    }
+
+    /**
+     * Sets whether only the rectangle that changed since the previous frame
+     * is encoded for each frame. The rest of the previous frame stays
+     * visible, therefore this is used only after frames that are
+     * not disposed (no transparent color and a disposal code below 2).
+     *
+     * @param crop
+     *          true for encoding only the changed rectangles.
+     */
+    public void setCropToChanges(boolean crop) {
+        cropToChanges = crop;
+    }
+
+    /**
+     * Adds next GIF frame. The frame is encoded on other threads,
+     * and written after the previous frames. Invoking <code>finish()</code>
+     * flushes all frames. If <code>setSize</code> was not invoked,
+     * the size of the first image is used for all subsequent frames.
      *
      * @param im
      *          BufferedImage containing frame to write.
-     * @return true if successful.
+     * @return true if successful (so far).
      */
     public boolean addFrame(BufferedImage im) {
         if ((im == null) || !started) {
             return false;
         }
-        boolean ok = true;
+        if (writing.isCompletedExceptionally()) {
+            return false;
+        }
+        if (!sizeSet) {
+            // use first frame's size
+            setSize(im.getWidth(), im.getHeight());
+        }
+
+        byte[] pixels = getImagePixels(im); // convert to correct format
+        Frame frame = new Frame(pixels);
+        if (cropToChanges && prevPixels != null) {
+            frame.setBounds(findChangedRect(prevPixels, pixels));
+        }
+        // the next frame can be cropped only if this one is left in place
+        prevPixels = frame.disposal < 2 ? pixels : null;
+
         try {
-            if (!sizeSet) {
-                // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
-            }
-            image = im;
-            getImagePixels(); // convert to correct format if necessary
-            analyzePixels(); // build color table & map pixels
-            if (firstFrame) {
-                writeLSD(); // logical screen descriptior
-                writePalette(); // global color table
-                if (repeat >= 0) {
-                    // use NS app extension to indicate reps
-                    writeNetscapeExt();
-                }
-            }
-            writeGraphicCtrlExt(); // write graphic control extension
-            writeImageDesc(); // image descriptor
-            if (!firstFrame) {
-                writePalette(); // local color table
+            frameSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        Executor executor = ThreadPool.getExecutor();
+        CompletableFuture<EncodedFrame> encoded;
+        if (globalPalette) {
+            if (globalPaletteFuture == null) {
+                globalPaletteFuture = CompletableFuture.supplyAsync(
+                        () -> new Palette(pixels, pixels.length, sample), executor);
             }
-            writePixels(); // encode and write pixel data
-            firstFrame = false;
-        } catch (IOException e) {
-            ok = false;
+            encoded = globalPaletteFuture.thenApplyAsync(frame::encode, executor);
+        } else {
+            encoded = CompletableFuture.supplyAsync(
+                    () -> frame.encode(frame.createPalette()), executor);
         }
 
-        return ok;
+        // the frames are written in the order they were added
+        writing = writing
+                .thenCombineAsync(encoded, (ignored, ef) -> {
+                    write(ef);
+                    return (Void) null;
+                }, writerThread)
+                .whenComplete((v, e) -> frameSlots.release());
+
+        firstFrame = false;
+        return true;
     }
 
     /**
@@ -180,6 +243,12 @@ public class AnimatedGifEncoder {
             return false;
         boolean ok = true;
         started = false;
+        try {
+            writing.join();
+        } catch (CompletionException e) {
+            ok = false;
+        }
+        writerThread.shutdown();
         try {
             out.write(0x3b); // gif trailer
             out.flush();
@@ -191,12 +260,11 @@ public class AnimatedGifEncoder {
         }
 
         // reset for subsequent use
-        transIndex = 0;
         out = null;
-        image = null;
-        pixels = null;
-        indexedPixels = null;
-        colorTab = null;
+        prevPixels = null;
+        globalPaletteFuture = null;
+        writing = null;
+        writerThread = null;
         closeStream = false;
         firstFrame = true;
 
@@ -204,7 +272,8 @@ public class AnimatedGifEncoder {
     }
 
     public void cancel() {
-        if (finish()) {
+        finish();
+        if (file != null) {
             file.delete();
         }
     }
@@ -279,6 +348,12 @@ public class AnimatedGifEncoder {
         } catch (IOException e) {
             ok = false;
         }
+        writing = CompletableFuture.completedFuture(null);
+        writerThread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "[GIF writer]");
+            t.setDaemon(true);
+            return t;
+        });
         return started = ok;
     }
 
@@ -293,8 +368,7 @@ public class AnimatedGifEncoder {
         this.file = file;
         boolean ok = true;
         try {
-            out = new BufferedOutputStream(new FileOutputStream(file));
-            ok = start(out);
+            ok = start(new BufferedOutputStream(new FileOutputStream(file)));
             closeStream = true;
         } catch (IOException e) {
             ok = false;
@@ -303,70 +377,41 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Analyzes image colors and creates color map.
-     */
-    protected void analyzePixels() {
-        int len = pixels.length;
-        int nPix = len / 3;
-        indexedPixels = new byte[nPix];
-        NeuQuant nq = new NeuQuant(pixels, len, sample);
-        // initialize quantizer
-        colorTab = nq.process(); // create reduced palette
-        // convert map from BGR to RGB
-        for (int i = 0; i < colorTab.length; i += 3) {
-            byte temp = colorTab[i];
-            colorTab[i] = colorTab[i + 2];
-            colorTab[i + 2] = temp;
-            usedEntry[i / 3] = false;
-        }
-        // map image pixels to new palette
-        int k = 0;
-        for (int i = 0; i < nPix; i++) {
-            int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
-            usedEntry[index] = true;
-            indexedPixels[i] = (byte) index;
-        }
-        pixels = null;
-        colorDepth = 8;
-        palSize = 7;
-        // get closest match to transparent color if specified
-        if (transparent != null) {
-            transIndex = findClosest(transparent);
-        }
-    }
-
-    /**
-     * Returns index of palette color closest to c
-     *
+     * Returns the bounds of the pixels that differ in the two
+     * BGR arrays, or a 1x1 rectangle if they are equal.
      */
-    protected int findClosest(Color c) {
-        if (colorTab == null)
-            return -1;
-        int r = c.getRed();
-        int g = c.getGreen();
-        int b = c.getBlue();
-        int minpos = 0;
-        int dmin = 256 * 256 * 256;
-        int len = colorTab.length;
-        for (int i = 0; i < len;) {
-            int dr = r - (colorTab[i++] & 0xff);
-            int dg = g - (colorTab[i++] & 0xff);
-            int db = b - (colorTab[i] & 0xff);
-            int d = dr * dr + dg * dg + db * db;
-            int index = i / 3;
-            if (usedEntry[index] && (d < dmin)) {
-                dmin = d;
-                minpos = index;
+    protected Rectangle findChangedRect(byte[] prev, byte[] current) {
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int rowStart = 3 * y * width;
+            for (int x = 0; x < width; x++) {
+                int k = rowStart + 3 * x;
+                if (prev[k] != current[k] || prev[k + 1] != current[k + 1]
+                        || prev[k + 2] != current[k + 2]) {
+                    if (x < minX)
+                        minX = x;
+                    if (x > maxX)
+                        maxX = x;
+                    if (y < minY)
+                        minY = y;
+                    maxY = y;
+                }
             }
-            i++;
         }
-        return minpos;
+        if (maxX < 0) {
+            // nothing changed, but the frame still has to be written
+            return new Rectangle(0, 0, 1, 1);
+        }
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
     }
 
     /**
-     * Extracts image pixels into byte array "pixels"
+     * Extracts image pixels into a new BGR byte array
      */
-    protected void getImagePixels() {
+    protected byte[] getImagePixels(BufferedImage image) {
         int w = image.getWidth();
         int h = image.getHeight();
         int type = image.getType();
@@ -375,30 +420,46 @@ public class AnimatedGifEncoder {
             BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
             Graphics2D g = temp.createGraphics();
             g.drawImage(image, 0, 0, null);
-            image = temp;
+            g.dispose();
+            return ((DataBufferByte) temp.getRaster().getDataBuffer()).getData();
+        }
+        // copied, because the frame is encoded later
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData().clone();
+    }
+
+    /**
+     * Writes an encoded frame (called on the writer thread)
+     */
+    private void write(EncodedFrame ef) {
+        try {
+            if (ef.first) {
+                writeLSD(); // logical screen descriptior
+                writePalette(ef.palette.colorTab); // global color table
+                if (repeat >= 0) {
+                    // use NS app extension to indicate reps
+                    writeNetscapeExt();
+                }
+            }
+            writeGraphicCtrlExt(ef); // write graphic control extension
+            writeImageDesc(ef); // image descriptor
+            if (ef.localPalette) {
+                writePalette(ef.palette.colorTab); // local color table
+            }
+            out.write(ef.pixelData); // the LZW-encoded pixel data
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
     }
 
     /**
      * Writes Graphic Control Extension
      */
-    protected void writeGraphicCtrlExt() throws IOException {
+    protected void writeGraphicCtrlExt(EncodedFrame ef) throws IOException {
         out.write(0x21); // extension introducer
         out.write(0xf9); // GCE label
         out.write(4); // data block size
-        int transp, disp;
-        if (transparent == null) {
-            transp = 0;
-            disp = 0; // dispose = no action
-        } else {
-            transp = 1;
-            disp = 2; // force clear if using transparent color
-        }
-        if (dispose >= 0) {
-            disp = dispose & 7; // user override
-        }
-        disp <<= 2;
+        int transp = ef.transIndex >= 0 ? 1 : 0;
+        int disp = ef.disposal << 2;
 
         // packed fields
         out.write(0 | // 1:3 reserved
@@ -406,23 +467,23 @@ public class AnimatedGifEncoder {
                 0 | // 7 user input - 0 = none
                 transp); // 8 transparency flag
 
-        writeShort(delay); // delay x 1/100 sec
-        out.write(transIndex); // transparent color index
+        writeShort(ef.delay); // delay x 1/100 sec
+        out.write(Math.max(0, ef.transIndex)); // transparent color index
         out.write(0); // block terminator
     }
 
     /**
      * Writes Image Descriptor
      */
-    protected void writeImageDesc() throws IOException {
+    protected void writeImageDesc(EncodedFrame ef) throws IOException {
         out.write(0x2c); // image separator
-        writeShort(0); // image position x,y = 0,0
-        writeShort(0);
-        writeShort(width); // image size
-        writeShort(height);
+        writeShort(ef.bounds.x); // image position x,y
+        writeShort(ef.bounds.y);
+        writeShort(ef.bounds.width); // image size
+        writeShort(ef.bounds.height);
         // packed fields
-        if (firstFrame) {
-            // no LCT - GCT is used for first (or only) frame
+        if (!ef.localPalette) {
+            // no LCT - GCT is used
             out.write(0);
         } else {
             // specify normal LCT
@@ -468,7 +529,7 @@ public class AnimatedGifEncoder {
     /**
      * Writes color table
      */
-    protected void writePalette() throws IOException {
+    protected void writePalette(byte[] colorTab) throws IOException {
         out.write(colorTab, 0, colorTab.length);
         int n = (3 * 256) - colorTab.length;
         for (int i = 0; i < n; i++) {
@@ -476,14 +537,6 @@ public class AnimatedGifEncoder {
         }
     }
 
-    /**
-     * Encodes and writes pixel data
-     */
-    protected void writePixels() throws IOException {
-        LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
-        encoder.encode(out);
-    }
-
     /**
      * Write 16-bit value to output stream, LSB first
      */
@@ -500,6 +553,161 @@ public class AnimatedGifEncoder {
             out.write((byte) s.charAt(i));
         }
     }
+
+    /**
+     * A color palette created by the NeuQuant quantizer
+     */
+    private static class Palette {
+        private final NeuQuant nq;
+        private final byte[] colorTab; // RGB palette
+
+        Palette(byte[] pixels, int len, int sample) {
+            nq = new NeuQuant(pixels, len, sample);
+            colorTab = nq.process(); // create reduced palette
+            // convert map from BGR to RGB
+            for (int i = 0; i < colorTab.length; i += 3) {
+                byte temp = colorTab[i];
+                colorTab[i] = colorTab[i + 2];
+                colorTab[i + 2] = temp;
+            }
+        }
+    }
+
+    /**
+     * A frame waiting to be encoded, with the settings at the time it was added
+     */
+    private class Frame {
+        private final byte[] pixels; // BGR byte array from frame
+        private final boolean first = firstFrame;
+        private final int frameDelay = delay;
+        private final Color transparentColor = transparent;
+        private final int disposal;
+        private Rectangle bounds = new Rectangle(0, 0, width, height);
+
+        Frame(byte[] pixels) {
+            this.pixels = pixels;
+            int disp = transparent == null ? 0 : 2; // force clear if using transparent color
+            if (dispose >= 0) {
+                disp = dispose & 7; // user override
+            }
+            disposal = disp;
+        }
+
+        void setBounds(Rectangle bounds) {
+            this.bounds = bounds;
+        }
+
+        // the BGR pixels within the bounds
+        private byte[] getBoundsPixels() {
+            if (bounds.width == width && bounds.height == height) {
+                return pixels;
+            }
+            int rowLength = 3 * bounds.width;
+            byte[] cropped = new byte[rowLength * bounds.height];
+            for (int y = 0; y < bounds.height; y++) {
+                System.arraycopy(pixels, 3 * ((bounds.y + y) * width + bounds.x),
+                        cropped, y * rowLength, rowLength);
+            }
+            return cropped;
+        }
+
+        Palette createPalette() {
+            byte[] boundsPixels = getBoundsPixels();
+            return new Palette(boundsPixels, boundsPixels.length, sample);
+        }
+
+        /**
+         * Maps the pixels to the given palette and LZW-encodes them
+         */
+        EncodedFrame encode(Palette palette) {
+            byte[] boundsPixels = getBoundsPixels();
+            int nPix = bounds.width * bounds.height;
+            byte[] indexedPixels = new byte[nPix]; // converted frame indexed to palette
+            boolean[] usedEntry = new boolean[256]; // active palette entries
+
+            // map image pixels to the palette, in parallel for big frames
+            int rowWidth = bounds.width;
+            ThreadPool.parallelForStrips(bounds.height, ProgressTracker.NULL_TRACKER,
+                    (startY, endY) -> {
+                        for (int i = startY * rowWidth; i < endY * rowWidth; i++) {
+                            int k = 3 * i;
+                            int index = palette.nq.map(boundsPixels[k] & 0xff,
+                                    boundsPixels[k + 1] & 0xff, boundsPixels[k + 2] & 0xff);
+                            usedEntry[index] = true;
+                            indexedPixels[i] = (byte) index;
+                        }
+                    });
+
+            // get closest match to transparent color if specified
+            int transIndex = -1;
+            if (transparentColor != null) {
+                transIndex = findClosest(palette.colorTab, usedEntry, transparentColor);
+            }
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(nPix / 2 + 16);
+            LZWEncoder encoder = new LZWEncoder(bounds.width, bounds.height, indexedPixels, 8);
+            try {
+                encoder.encode(encoded);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // can't happen
+            }
+
+            return new EncodedFrame(this, palette, !first && !globalPalette,
+                    transIndex, encoded.toByteArray());
+        }
+    }
+
+    /**
+     * A frame ready to be written
+     */
+    private static class EncodedFrame {
+        private final boolean first;
+        private final Rectangle bounds;
+        private final int delay;
+        private final int disposal;
+        private final Palette palette;
+        private final boolean localPalette;
+        private final int transIndex; // transparent index in color table, or -1
+        private final byte[] pixelData;
+
+        EncodedFrame(Frame frame, Palette palette, boolean localPalette,
+                     int transIndex, byte[] pixelData) {
+            this.first = frame.first;
+            this.bounds = frame.bounds;
+            this.delay = frame.frameDelay;
+            this.disposal = frame.disposal;
+            this.palette = palette;
+            this.localPalette = localPalette;
+            this.transIndex = transIndex;
+            this.pixelData = pixelData;
+        }
+    }
+
+    /**
+     * Returns index of the used palette color closest to c
+     *
+     */
+    protected static int findClosest(byte[] colorTab, boolean[] usedEntry, Color c) {
+        int r = c.getRed();
+        int g = c.getGreen();
+        int b = c.getBlue();
+        int minpos = 0;
+        int dmin = 256 * 256 * 256;
+        int len = colorTab.length;
+        for (int i = 0; i < len;) {
+            int dr = r - (colorTab[i++] & 0xff);
+            int dg = g - (colorTab[i++] & 0xff);
+            int db = b - (colorTab[i] & 0xff);
+            int d = dr * dr + dg * dg + db * db;
+            int index = i / 3;
+            if (usedEntry[index] && (d < dmin)) {
+                dmin = d;
+                minpos = index;
+            }
+            i++;
+        }
+        return minpos;
+    }
 }
 
 /*
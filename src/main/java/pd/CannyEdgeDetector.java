@@ -1,10 +1,11 @@
 package pd;
 
 import net.jafama.FastMath;
+import pixelitor.ThreadPool;
 import pixelitor.utils.ProgressTracker;
-import pixelitor.utils.StatusBarProgressTracker;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.util.Arrays;
 
 /**
@@ -15,7 +16,8 @@ import java.util.Arrays;
  * <p>This class provides a configurable implementation of the Canny edge
  * detection algorithm. This classic algorithm has a number of shortcomings,
  * but remains an effective tool in many scenarios. <em>This class is designed
- * for single threaded use only.</em></p>
+ * for single threaded use only</em>, although the passes over the rows of the
+ * image are internally distributed over the threads of the {@link ThreadPool}.</p>
  *
  * <p>Sample usage:</p>
  *
@@ -44,6 +46,10 @@ public class CannyEdgeDetector {
 	private final static float MAGNITUDE_SCALE = 100F;
 	private final static float MAGNITUDE_LIMIT = 1000F;
 	private final static int MAGNITUDE_MAX = (int) (MAGNITUDE_SCALE * MAGNITUDE_LIMIT);
+	// marks the edge pixels during the hysteresis, also the white ARGB color
+	private final static int EDGE = -1;
+	// the luminance, convolution, gradient, suppression, hysteresis and threshold passes
+	private final static int NUM_PASSES = 6;
 
 	// fields
 
@@ -51,7 +57,6 @@ public class CannyEdgeDetector {
 	private int width;
 	private int picsize;
 	private int[] data;
-	private int[] magnitude;
 	private BufferedImage sourceImage;
 	private BufferedImage edgesImage;
 
@@ -63,10 +68,10 @@ public class CannyEdgeDetector {
 
 	private float[] xConv;
 	private float[] yConv;
-	private float[] xGradient;
 	private float[] yGradient;
 
-    private ProgressTracker pt;
+	private ProgressTracker progressTracker;
+	private ProgressTracker pt;
 
 	// constructors
 
@@ -252,51 +257,64 @@ public class CannyEdgeDetector {
 
 	// methods
 
+	/**
+	 * Sets the progress tracker used by the process method.
+	 * If it is not set, the progress is not tracked.
+	 *
+	 * @param pt a progress tracker, or null
+	 * @see #getNumProgressUnits
+	 */
+	public void setProgressTracker(ProgressTracker pt) {
+		progressTracker = pt;
+	}
+
+	/**
+	 * The number of units that the process method reports to the
+	 * progress tracker for the current source image.
+	 *
+	 * @return the number of progress units
+	 */
+	public int getNumProgressUnits() {
+		// every pass over the rows counts as height units
+		return NUM_PASSES * sourceImage.getHeight();
+	}
+
 	public void process() {
 		width = sourceImage.getWidth();
 		height = sourceImage.getHeight();
+		picsize = width * height;
 
-        // the number of computational units are experimental values
-        // that seem to work pretty well
-        pt = new StatusBarProgressTracker("Canny", width + 450);
+		pt = progressTracker != null ? progressTracker : ProgressTracker.NULL_TRACKER;
 
-        picsize = width * height;
 		initArrays();
 
-        pt.unitsDone(10);
-
 		readLuminance();
 
-        pt.unitsDone(50);
-
-        if (contrastNormalized) {
-            normalizeContrast();
-            pt.unitsDone(10);
-        }
+		if (contrastNormalized) {
+			normalizeContrast();
+		}
 
 		computeGradients(gaussianKernelRadius, gaussianKernelWidth);
 		int low = Math.round(lowThreshold * MAGNITUDE_SCALE);
-		int high = Math.round( highThreshold * MAGNITUDE_SCALE);
+		int high = Math.round(highThreshold * MAGNITUDE_SCALE);
 		performHysteresis(low, high);
-        pt.unitDone();
-
-        thresholdEdges();
-        pt.unitDone();
+		pt.unitsDone(height);
 
-        writeEdges(data);
-        pt.finish();
+		thresholdEdges();
+		writeEdges(data);
+		pt.finish();
+		pt = null;
 	}
 
 	// private utility methods
 
 	private void initArrays() {
+		// the arrays are reused if the size didn't change,
+		// every pass writes all the elements of its output
 		if (data == null || picsize != data.length) {
 			data = new int[picsize];
-			magnitude = new int[picsize];
-
 			xConv = new float[picsize];
 			yConv = new float[picsize];
-			xGradient = new float[picsize];
 			yGradient = new float[picsize];
 		}
 	}
@@ -326,148 +344,181 @@ public class CannyEdgeDetector {
 			kernel[kwidth] = (g1 + g2 + g3) / 3f / (2f * (float) Math.PI * kernelRadius * kernelRadius);
 			diffKernel[kwidth] = g3 - g2;
 		}
-
-        pt.unitDone();
+		int kw = kwidth;
 
 		int initX = kwidth - 1;
 		int maxX = width - (kwidth - 1);
-		int initY = width * (kwidth - 1);
-		int maxY = width * (height - (kwidth - 1));
+		int initY = kwidth - 1;
+		int maxY = height - (kwidth - 1);
 
 		//perform convolution in x and y directions
-		for (int x = initX; x < maxX; x++) {
-			for (int y = initY; y < maxY; y += width) {
-				int index = x + y;
-				float sumX = data[index] * kernel[0];
-				float sumY = sumX;
-				int xOffset = 1;
-				int yOffset = width;
-				for(; xOffset < kwidth ;) {
-					sumY += kernel[xOffset] * (data[index - yOffset] + data[index + yOffset]);
-					sumX += kernel[xOffset] * (data[index - xOffset] + data[index + xOffset]);
-					yOffset += width;
-					xOffset++;
+		ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+			for (int y = start; y < end; y++) {
+				int rowStart = y * width;
+				if (y < initY || y >= maxY) {
+					clearRowOutside(xConv, rowStart, width, width);
+					clearRowOutside(yConv, rowStart, width, width);
+					continue;
+				}
+				clearRowOutside(xConv, rowStart, initX, maxX);
+				clearRowOutside(yConv, rowStart, initX, maxX);
+				for (int x = initX; x < maxX; x++) {
+					int index = rowStart + x;
+					float sumX = data[index] * kernel[0];
+					float sumY = sumX;
+					int xOffset = 1;
+					int yOffset = width;
+					for(; xOffset < kw ;) {
+						sumY += kernel[xOffset] * (data[index - yOffset] + data[index + yOffset]);
+						sumX += kernel[xOffset] * (data[index - xOffset] + data[index + xOffset]);
+						yOffset += width;
+						xOffset++;
+					}
+
+					yConv[index] = sumY;
+					xConv[index] = sumX;
 				}
-
-				yConv[index] = sumY;
-				xConv[index] = sumX;
-			}
-
-		}
-
-        pt.unitsDone(200);
-
-		for (int x = initX; x < maxX; x++) {
-			for (int y = initY; y < maxY; y += width) {
-				float sum = 0f;
-				int index = x + y;
-				for (int i = 1; i < kwidth; i++)
-					sum += diffKernel[i] * (yConv[index - i] - yConv[index + i]);
-
-				xGradient[index] = sum;
 			}
+		});
+
+		//compute the gradients: the x gradient of a row depends only on
+		//the same row of yConv, so it replaces yConv row by row
+		float[] xGradient = yConv;
+		ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+			float[] gradRow = new float[width];
+			for (int y = start; y < end; y++) {
+				int rowStart = y * width;
+				if (y < initY || y >= maxY) {
+					// the convolution rows are already zero here
+					clearRowOutside(yGradient, rowStart, width, width);
+					continue;
+				}
 
-		}
-
-        pt.unitsDone(100);
+				for (int x = initX; x < maxX; x++) {
+					float sum = 0f;
+					int index = rowStart + x;
+					for (int i = 1; i < kw; i++)
+						sum += diffKernel[i] * (yConv[index - i] - yConv[index + i]);
 
-		for (int x = kwidth; x < width - kwidth; x++) {
-			for (int y = initY; y < maxY; y += width) {
-				float sum = 0.0f;
-				int index = x + y;
-				int yOffset = width;
-				for (int i = 1; i < kwidth; i++) {
-					sum += diffKernel[i] * (xConv[index - yOffset] - xConv[index + yOffset]);
-					yOffset += width;
+					gradRow[x] = sum;
+				}
+				if (maxX > initX) {
+					System.arraycopy(gradRow, initX, xGradient, rowStart + initX, maxX - initX);
 				}
 
-				yGradient[index] = sum;
+				clearRowOutside(yGradient, rowStart, kw, width - kw);
+				for (int x = kw; x < width - kw; x++) {
+					float sum = 0.0f;
+					int index = rowStart + x;
+					int yOffset = width;
+					for (int i = 1; i < kw; i++) {
+						sum += diffKernel[i] * (xConv[index - yOffset] - xConv[index + yOffset]);
+						yOffset += width;
+					}
+
+					yGradient[index] = sum;
+				}
 			}
-
-		}
-
-        pt.unitsDone(100);
-
-		initX = kwidth;
-		maxX = width - kwidth;
-		initY = width * kwidth;
-		maxY = width * (height - kwidth);
-		for (int x = initX; x < maxX; x++) {
-            pt.unitDone();
-			for (int y = initY; y < maxY; y += width) {
-				int index = x + y;
-				int indexN = index - width;
-				int indexS = index + width;
-				int indexW = index - 1;
-				int indexE = index + 1;
-				int indexNW = indexN - 1;
-				int indexNE = indexN + 1;
-				int indexSW = indexS - 1;
-				int indexSE = indexS + 1;
-
-				float xGrad = xGradient[index];
-				float yGrad = yGradient[index];
-				float gradMag = hypot(xGrad, yGrad);
-
-				//perform non-maximal supression
-				float nMag = hypot(xGradient[indexN], yGradient[indexN]);
-				float sMag = hypot(xGradient[indexS], yGradient[indexS]);
-				float wMag = hypot(xGradient[indexW], yGradient[indexW]);
-				float eMag = hypot(xGradient[indexE], yGradient[indexE]);
-				float neMag = hypot(xGradient[indexNE], yGradient[indexNE]);
-				float seMag = hypot(xGradient[indexSE], yGradient[indexSE]);
-				float swMag = hypot(xGradient[indexSW], yGradient[indexSW]);
-				float nwMag = hypot(xGradient[indexNW], yGradient[indexNW]);
-				float tmp;
-				/*
-				 * An explanation of what's happening here, for those who want
-				 * to understand the source: This performs the "non-maximal
-				 * supression" phase of the Canny edge detection in which we
-				 * need to compare the gradient magnitude to that in the
-				 * direction of the gradient; only if the value is a local
-				 * maximum do we consider the point as an edge candidate.
-				 *
-				 * We need to break the comparison into a number of different
-				 * cases depending on the gradient direction so that the
-				 * appropriate values can be used. To avoid computing the
-				 * gradient direction, we use two simple comparisons: first we
-				 * check that the partial derivatives have the same sign (1)
-				 * and then we check which is larger (2). As a consequence, we
-				 * have reduced the problem to one of four identical cases that
-				 * each test the central gradient magnitude against the values at
-				 * two points with 'identical support'; what this means is that
-				 * the geometry required to accurately interpolate the magnitude
-				 * of gradient function at those points has an identical
-				 * geometry (upto right-angled-rotation/reflection).
-				 *
-				 * When comparing the central gradient to the two interpolated
-				 * values, we avoid performing any divisions by multiplying both
-				 * sides of each inequality by the greater of the two partial
-				 * derivatives. The common comparand is stored in a temporary
-				 * variable (3) and reused in the mirror case (4).
-				 *
-				 */
-				if (xGrad * yGrad <= (float) 0 /*(1)*/
-					? Math.abs(xGrad) >= Math.abs(yGrad) /*(2)*/
-						? (tmp = Math.abs(xGrad * gradMag)) >= Math.abs(yGrad * neMag - (xGrad + yGrad) * eMag) /*(3)*/
-							&& tmp > Math.abs(yGrad * swMag - (xGrad + yGrad) * wMag) /*(4)*/
-						: (tmp = Math.abs(yGrad * gradMag)) >= Math.abs(xGrad * neMag - (yGrad + xGrad) * nMag) /*(3)*/
-							&& tmp > Math.abs(xGrad * swMag - (yGrad + xGrad) * sMag) /*(4)*/
-					: Math.abs(xGrad) >= Math.abs(yGrad) /*(2)*/
-						? (tmp = Math.abs(xGrad * gradMag)) >= Math.abs(yGrad * seMag + (xGrad - yGrad) * eMag) /*(3)*/
-							&& tmp > Math.abs(yGrad * nwMag + (xGrad - yGrad) * wMag) /*(4)*/
-						: (tmp = Math.abs(yGrad * gradMag)) >= Math.abs(xGrad * seMag + (yGrad - xGrad) * sMag) /*(3)*/
-							&& tmp > Math.abs(xGrad * nwMag + (yGrad - xGrad) * nMag) /*(4)*/
-					) {
-					magnitude[index] = gradMag >= MAGNITUDE_LIMIT ? MAGNITUDE_MAX : (int) (MAGNITUDE_SCALE * gradMag);
-					//NOTE: The orientation of the edge is not employed by this
-					//implementation. It is a simple matter to compute it at
-					//this point as: Math.atan2(yGrad, xGrad);
-				} else {
-					magnitude[index] = 0;
+		});
+
+		//the luminance is not needed anymore, so the
+		//magnitudes can be stored in the data array
+		int[] magnitude = data;
+		ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+			for (int y = start; y < end; y++) {
+				int rowStart = y * width;
+				if (y < kw || y >= height - kw) {
+					Arrays.fill(magnitude, rowStart, rowStart + width, 0);
+					continue;
+				}
+				int fromX = Math.min(kw, width);
+				int toX = Math.max(width - kw, fromX);
+				Arrays.fill(magnitude, rowStart, rowStart + fromX, 0);
+				Arrays.fill(magnitude, rowStart + toX, rowStart + width, 0);
+
+				for (int x = kw; x < width - kw; x++) {
+					int index = rowStart + x;
+					int indexN = index - width;
+					int indexS = index + width;
+					int indexW = index - 1;
+					int indexE = index + 1;
+					int indexNW = indexN - 1;
+					int indexNE = indexN + 1;
+					int indexSW = indexS - 1;
+					int indexSE = indexS + 1;
+
+					float xGrad = xGradient[index];
+					float yGrad = yGradient[index];
+					float gradMag = hypot(xGrad, yGrad);
+
+					//perform non-maximal supression
+					float nMag = hypot(xGradient[indexN], yGradient[indexN]);
+					float sMag = hypot(xGradient[indexS], yGradient[indexS]);
+					float wMag = hypot(xGradient[indexW], yGradient[indexW]);
+					float eMag = hypot(xGradient[indexE], yGradient[indexE]);
+					float neMag = hypot(xGradient[indexNE], yGradient[indexNE]);
+					float seMag = hypot(xGradient[indexSE], yGradient[indexSE]);
+					float swMag = hypot(xGradient[indexSW], yGradient[indexSW]);
+					float nwMag = hypot(xGradient[indexNW], yGradient[indexNW]);
+					float tmp;
+					/*
+					 * An explanation of what's happening here, for those who want
+					 * to understand the source: This performs the "non-maximal
+					 * supression" phase of the Canny edge detection in which we
+					 * need to compare the gradient magnitude to that in the
+					 * direction of the gradient; only if the value is a local
+					 * maximum do we consider the point as an edge candidate.
+					 *
+					 * We need to break the comparison into a number of different
+					 * cases depending on the gradient direction so that the
+					 * appropriate values can be used. To avoid computing the
+					 * gradient direction, we use two simple comparisons: first we
+					 * check that the partial derivatives have the same sign (1)
+					 * and then we check which is larger (2). As a consequence, we
+					 * have reduced the problem to one of four identical cases that
+					 * each test the central gradient magnitude against the values at
+					 * two points with 'identical support'; what this means is that
+					 * the geometry required to accurately interpolate the magnitude
+					 * of gradient function at those points has an identical
+					 * geometry (upto right-angled-rotation/reflection).
+					 *
+					 * When comparing the central gradient to the two interpolated
+					 * values, we avoid performing any divisions by multiplying both
+					 * sides of each inequality by the greater of the two partial
+					 * derivatives. The common comparand is stored in a temporary
+					 * variable (3) and reused in the mirror case (4).
+					 *
+					 */
+					if (xGrad * yGrad <= (float) 0 /*(1)*/
+						? Math.abs(xGrad) >= Math.abs(yGrad) /*(2)*/
+							? (tmp = Math.abs(xGrad * gradMag)) >= Math.abs(yGrad * neMag - (xGrad + yGrad) * eMag) /*(3)*/
+								&& tmp > Math.abs(yGrad * swMag - (xGrad + yGrad) * wMag) /*(4)*/
+							: (tmp = Math.abs(yGrad * gradMag)) >= Math.abs(xGrad * neMag - (yGrad + xGrad) * nMag) /*(3)*/
+								&& tmp > Math.abs(xGrad * swMag - (yGrad + xGrad) * sMag) /*(4)*/
+						: Math.abs(xGrad) >= Math.abs(yGrad) /*(2)*/
+							? (tmp = Math.abs(xGrad * gradMag)) >= Math.abs(yGrad * seMag + (xGrad - yGrad) * eMag) /*(3)*/
+								&& tmp > Math.abs(yGrad * nwMag + (xGrad - yGrad) * wMag) /*(4)*/
+							: (tmp = Math.abs(yGrad * gradMag)) >= Math.abs(xGrad * seMag + (yGrad - xGrad) * sMag) /*(3)*/
+								&& tmp > Math.abs(xGrad * nwMag + (yGrad - xGrad) * nMag) /*(4)*/
+						) {
+						magnitude[index] = gradMag >= MAGNITUDE_LIMIT ? MAGNITUDE_MAX : (int) (MAGNITUDE_SCALE * gradMag);
+						//NOTE: The orientation of the edge is not employed by this
+						//implementation. It is a simple matter to compute it at
+						//this point as: Math.atan2(yGrad, xGrad);
+					} else {
+						magnitude[index] = 0;
+					}
 				}
 			}
-		}
+		});
+	}
+
+	// zeroes the part of the given row that is outside the from-to range
+	private void clearRowOutside(float[] array, int rowStart, int from, int to) {
+		int inFrom = Math.max(0, Math.min(from, width));
+		int inTo = Math.max(inFrom, Math.min(to, width));
+		Arrays.fill(array, rowStart, rowStart + inFrom, 0f);
+		Arrays.fill(array, rowStart + inTo, rowStart + width, 0f);
 	}
 
 	//NOTE: It is quite feasible to replace the implementation of this method
@@ -482,47 +533,54 @@ public class CannyEdgeDetector {
 	}
 
 	private void performHysteresis(int low, int high) {
-		//NOTE: this implementation reuses the data array to store both
-		//luminance data from the image, and edge intensity from the processing.
-		//This is done for memory efficiency, other implementations may wish
-		//to separate these functions.
-		Arrays.fill(data, 0);
-
-		int offset = 0;
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				if (data[offset] == 0 && magnitude[offset] >= high) {
-					follow(x, y, offset, low);
-				}
-				offset++;
+		//NOTE: the magnitudes are stored in the data array, and the pixels
+		//found to be edges are overwritten with the EDGE marker, which is
+		//below every threshold, so they are never visited twice.
+		//The connected pixels are tracked with an explicit stack instead of
+		//recursion, so that long edges can't overflow the thread's stack.
+		int[] magnitude = data;
+		int minLow = Math.max(low, 1);
+		int minHigh = Math.max(high, minLow);
+
+		int[] stack = new int[1024];
+		for (int i = 0; i < picsize; i++) {
+			if (magnitude[i] < minHigh) {
+				continue;
 			}
-		}
- 	}
-
-	private void follow(int x1, int y1, int i1, int threshold) {
-		int x0 = x1 == 0 ? x1 : x1 - 1;
-		int x2 = x1 == width - 1 ? x1 : x1 + 1;
-		int y0 = y1 == 0 ? y1 : y1 - 1;
-		int y2 = y1 == height -1 ? y1 : y1 + 1;
-
-		data[i1] = magnitude[i1];
-		for (int x = x0; x <= x2; x++) {
-			for (int y = y0; y <= y2; y++) {
-				int i2 = x + y * width;
-				if ((y != y1 || x != x1)
-					&& data[i2] == 0
-					&& magnitude[i2] >= threshold) {
-					follow(x, y, i2, threshold);
-					return;
+			magnitude[i] = EDGE;
+			stack[0] = i;
+			int stackSize = 1;
+			while (stackSize > 0) {
+				int i1 = stack[--stackSize];
+				int x1 = i1 % width;
+				int y1 = i1 / width;
+				int x0 = x1 == 0 ? x1 : x1 - 1;
+				int x2 = x1 == width - 1 ? x1 : x1 + 1;
+				int y0 = y1 == 0 ? y1 : y1 - 1;
+				int y2 = y1 == height - 1 ? y1 : y1 + 1;
+
+				for (int y = y0; y <= y2; y++) {
+					for (int x = x0; x <= x2; x++) {
+						int i2 = x + y * width;
+						if (magnitude[i2] >= minLow) {
+							magnitude[i2] = EDGE;
+							if (stackSize == stack.length) {
+								stack = Arrays.copyOf(stack, 2 * stackSize);
+							}
+							stack[stackSize++] = i2;
+						}
+					}
 				}
 			}
 		}
 	}
 
 	private void thresholdEdges() {
-		for (int i = 0; i < picsize; i++) {
-			data[i] = data[i] > 0 ? -1 : 0xff000000;
-		}
+		ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+			for (int i = start * width; i < end * width; i++) {
+				data[i] = data[i] == EDGE ? -1 : 0xff000000;
+			}
+		});
 	}
 
 	private int luminance(float r, float g, float b) {
@@ -531,58 +589,76 @@ public class CannyEdgeDetector {
 
 	private void readLuminance() {
 		int type = sourceImage.getType();
+		if (type != BufferedImage.TYPE_INT_RGB
+				&& type != BufferedImage.TYPE_INT_ARGB
+				&& type != BufferedImage.TYPE_INT_ARGB_PRE
+				&& type != BufferedImage.TYPE_BYTE_GRAY
+				&& type != BufferedImage.TYPE_USHORT_GRAY
+				&& type != BufferedImage.TYPE_3BYTE_BGR) {
+			throw new IllegalArgumentException("Unsupported image type: " + type);
+		}
+
+		Raster raster = sourceImage.getRaster();
+		ThreadPool.parallelForStrips(height, pt, (start, end) -> {
+			Object row = null;
+			for (int y = start; y < end; y++) {
+				row = raster.getDataElements(0, y, width, 1, row);
+				readLuminanceRow(type, row, y * width);
+			}
+		});
+	}
+
+	private void readLuminanceRow(int type, Object row, int offset) {
 		if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
-			int[] pixels = (int[]) sourceImage.getData().getDataElements(0, 0, width, height, null);
-			for (int i = 0; i < picsize; i++) {
+			int[] pixels = (int[]) row;
+			for (int i = 0; i < width; i++) {
+				int p = pixels[i];
+				int r = (p & 0xff0000) >> 16;
+				int g = (p & 0xff00) >> 8;
+				int b = p & 0xff;
+				data[offset + i] = luminance(r, g, b);
+			}
+		} else if (type == BufferedImage.TYPE_INT_ARGB_PRE) {
+			int[] pixels = (int[]) row;
+			for (int i = 0; i < width; i++) {
 				int p = pixels[i];
+				int a = (p >>> 24) & 0xff;
 				int r = (p & 0xff0000) >> 16;
 				int g = (p & 0xff00) >> 8;
 				int b = p & 0xff;
-				data[i] = luminance(r, g, b);
+				int lum = luminance(r, g, b);
+				if(a != 255) {
+					if(a == 0) {
+						lum = 0;
+					} else {
+						float af = a / 255.0f;
+						lum = (int) (lum / af);
+						if(lum > 255) {
+							lum = 255;
+						}
+					}
+				}
+				data[offset + i] = lum;
 			}
-        } else if (type == BufferedImage.TYPE_INT_ARGB_PRE) {
-                int[] pixels = (int[]) sourceImage.getData().getDataElements(0, 0, width, height, null);
-                for (int i = 0; i < picsize; i++) {
-                    int p = pixels[i];
-                    int a = (p >>> 24) & 0xff;
-                    int r = (p & 0xff0000) >> 16;
-                    int g = (p & 0xff00) >> 8;
-                    int b = p & 0xff;
-                    int lum = luminance(r, g, b);
-                    if(a != 255) {
-                        if(a == 0) {
-                            lum = 0;
-                        } else {
-                            float af = a / 255.0f;
-                            lum = (int) (lum / af);
-                            if(lum > 255) {
-                                lum = 255;
-                            }
-                        }
-                    }
-                    data[i] = lum;
-                }
 		} else if (type == BufferedImage.TYPE_BYTE_GRAY) {
-			byte[] pixels = (byte[]) sourceImage.getData().getDataElements(0, 0, width, height, null);
-			for (int i = 0; i < picsize; i++) {
-				data[i] = (pixels[i] & 0xff);
+			byte[] pixels = (byte[]) row;
+			for (int i = 0; i < width; i++) {
+				data[offset + i] = (pixels[i] & 0xff);
 			}
 		} else if (type == BufferedImage.TYPE_USHORT_GRAY) {
-			short[] pixels = (short[]) sourceImage.getData().getDataElements(0, 0, width, height, null);
-			for (int i = 0; i < picsize; i++) {
-				data[i] = (pixels[i] & 0xffff) / 256;
+			short[] pixels = (short[]) row;
+			for (int i = 0; i < width; i++) {
+				data[offset + i] = (pixels[i] & 0xffff) / 256;
 			}
 		} else if (type == BufferedImage.TYPE_3BYTE_BGR) {
-            byte[] pixels = (byte[]) sourceImage.getData().getDataElements(0, 0, width, height, null);
-            int offset = 0;
-            for (int i = 0; i < picsize; i++) {
-                int b = pixels[offset++] & 0xff;
-                int g = pixels[offset++] & 0xff;
-                int r = pixels[offset++] & 0xff;
-                data[i] = luminance(r, g, b);
-            }
-        } else {
-			throw new IllegalArgumentException("Unsupported image type: " + type);
+			byte[] pixels = (byte[]) row;
+			int pixelOffset = 0;
+			for (int i = 0; i < width; i++) {
+				int b = pixels[pixelOffset++] & 0xff;
+				int g = pixels[pixelOffset++] & 0xff;
+				int r = pixels[pixelOffset++] & 0xff;
+				data[offset + i] = luminance(r, g, b);
+			}
 		}
 	}
 
@@ -612,7 +688,7 @@ public class CannyEdgeDetector {
 		//NOTE: There is currently no mechanism for obtaining the edge data
 		//in any other format other than an INT_ARGB type BufferedImage.
 		//This may be easily remedied by providing alternative accessors.
-		if (edgesImage == null) {
+		if (edgesImage == null || edgesImage.getWidth() != width || edgesImage.getHeight() != height) {
 			edgesImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 		}
 		edgesImage.getWritableTile(0, 0).setDataElements(0, 0, width, height, pixels);
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.Layer;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.MipmapPyramid;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Caches the composite image of a {@link Composition}.
+ *
+ * When only a small region changes (typically while a brush
+ * stroke is painted into the active layer), only that region
+ * of the cached image is re-rendered. In this case the layers
+ * below the active layer are not blended again either, because
+ * their composite is also cached.
+ */
+class CompositeCache {
+    private final Composition comp;
+
+    // null if it must be fully recalculated
+    private BufferedImage image;
+
+    // the part of the image that must be re-rendered, or null
+    private Rectangle dirtyRegion;
+
+    // true if the image was given out to code that might
+    // keep a reference to it, and therefore it can't be updated in place
+    private boolean shared;
+
+    // true if the image is the cached result of an adjustment
+    // layer, and therefore it must not be modified here
+    private boolean borrowed;
+
+    // the composite of the visible layers below belowCacheLayer
+    private BufferedImage belowCache;
+    private Layer belowCacheLayer;
+
+    // the reduced versions of the image, used when zoomed out
+    private final MipmapPyramid pyramid = new MipmapPyramid();
+
+    CompositeCache(Composition comp) {
+        this.comp = comp;
+    }
+
+    /**
+     * Returns an image that won't be modified later
+     */
+    synchronized BufferedImage getSharedImage() {
+        BufferedImage img = getUpToDateImage();
+        if (borrowed) {
+            // the adjustment layer can update its result in place
+            return ImageUtils.copyImage(img);
+        }
+        shared = true;
+        return img;
+    }
+
+    /**
+     * Returns an image that can be updated in place later,
+     * therefore it must not be stored by the caller
+     */
+    synchronized BufferedImage getTransientImage() {
+        return getUpToDateImage();
+    }
+
+    /**
+     * Returns the given mipmap level of the image. Like the transient
+     * image, it can be updated in place, and must not be stored.
+     */
+    synchronized BufferedImage getTransientLevel(int level) {
+        getUpToDateImage();
+        return pyramid.getLevel(level);
+    }
+
+    /**
+     * Everything must be recalculated
+     */
+    synchronized void invalidate() {
+        image = null;
+        dirtyRegion = null;
+        belowCache = null;
+        belowCacheLayer = null;
+    }
+
+    /**
+     * The given region (in image space) of the active layer changed
+     */
+    synchronized void invalidateRegion(Rectangle region) {
+        if (image == null) {
+            return; // will be fully recalculated anyway
+        }
+        if (dirtyRegion == null) {
+            dirtyRegion = new Rectangle(region);
+        } else {
+            dirtyRegion.add(region);
+        }
+    }
+
+    private BufferedImage getUpToDateImage() {
+        // the changed region if it is known, null if everything changed
+        Rectangle changedRegion = null;
+
+        if (image != null && dirtyRegion != null) {
+            Rectangle region = dirtyRegion.intersection(comp.getCanvas().getImBounds());
+            if (region.isEmpty()) {
+                dirtyRegion = null;
+            } else if (shared || borrowed || !canUpdateRegion()) {
+                image = null;
+                changedRegion = region;
+            } else {
+                updateRegion(region);
+                pyramid.invalidate(region);
+                dirtyRegion = null;
+            }
+        }
+
+        if (image == null) {
+            image = comp.calculateReadOnlyCompositeImage(comp.getNumLayers());
+            pyramid.setSource(image, changedRegion);
+            dirtyRegion = null;
+            shared = false;
+            borrowed = comp.isCachedAdjustmentResult(image);
+        }
+        return image;
+    }
+
+    /**
+     * The region can be updated in place if the active layer
+     * and the layers above it are simply painted onto each other
+     */
+    private boolean canUpdateRegion() {
+        int activeIndex = comp.getActiveLayerIndex();
+        if (activeIndex < 0) {
+            return false;
+        }
+        for (int i = activeIndex; i < comp.getNumLayers(); i++) {
+            Layer layer = comp.getLayer(i);
+            if (layer.isVisible() && layer.isAdjustment()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updateRegion(Rectangle region) {
+        int activeIndex = comp.getActiveLayerIndex();
+        Layer activeLayer = comp.getLayer(activeIndex);
+        boolean hasVisibleBelow = hasVisibleLayerBelow(activeIndex);
+
+        if (hasVisibleBelow && belowCacheLayer != activeLayer) {
+            // only drawn, and the layers bellow don't change while it's used
+            belowCache = comp.calculateReadOnlyCompositeImage(activeIndex);
+            belowCacheLayer = activeLayer;
+        }
+
+        Graphics2D g = image.createGraphics();
+        g.setClip(region);
+        if (hasVisibleBelow) {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(belowCache, 0, 0, null);
+        } else {
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(region);
+        }
+
+        boolean firstVisibleLayer = !hasVisibleBelow;
+        for (int i = activeIndex; i < comp.getNumLayers(); i++) {
+            Layer layer = comp.getLayer(i);
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, image, firstVisibleLayer);
+                assert result == null; // no adjustments, see canUpdateRegion
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+    }
+
+    private boolean hasVisibleLayerBelow(int index) {
+        for (int i = 0; i < index; i++) {
+            if (comp.getLayer(i).isVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -26,6 +26,7 @@ import pixelitor.history.*;
 import pixelitor.io.IOThread;
 import pixelitor.io.OutputFormat;
 import pixelitor.io.SaveSettings;
+import pixelitor.layers.AdjustmentLayer;
 import pixelitor.layers.ContentLayer;
 import pixelitor.layers.Drawable;
 import pixelitor.layers.ImageLayer;
@@ -42,7 +43,6 @@ import pixelitor.tools.pen.Paths;
 import pixelitor.tools.util.PPoint;
 import pixelitor.tools.util.PRectangle;
 import pixelitor.utils.ImageUtils;
-import pixelitor.utils.Lazy;
 import pixelitor.utils.Messages;
 import pixelitor.utils.VisibleForTesting;
 
@@ -73,6 +73,7 @@ import static pixelitor.Composition.LayerAdder.Position.ABOVE_ACTIVE;
 import static pixelitor.Composition.LayerAdder.Position.BELLOW_ACTIVE;
 import static pixelitor.Composition.LayerAdder.Position.TOP;
 import static pixelitor.io.FileUtils.stripExtension;
+import static pixelitor.io.IOThread.Priority.INTERACTIVE;
 import static pixelitor.utils.Utils.createCopyName;
 
 /**
@@ -99,11 +100,15 @@ public class Composition implements Serializable {
     private transient File file;
     private transient boolean dirty = false;
 
-    private transient Lazy<BufferedImage> compositeImage
-            = Lazy.of(this::calculateCompositeImage);
+    private transient CompositeCache compositeCache = new CompositeCache(this);
 
     private transient ImageComponent ic;
 
+    // set while calculateCompositeImage runs, so that adjustment
+    // layers can recognize that their input is the composite of
+    // the layers below them, and they can use their cached results
+    private transient volatile BufferedImage compositeBelowCurrentLayer;
+
     private transient Selection selection;
 
     // a temporary, new selection which is currently built
@@ -193,7 +198,7 @@ public class Composition implements Serializable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // init transient variables
-        compositeImage = Lazy.of(this::calculateCompositeImage);
+        compositeCache = new CompositeCache(this);
         file = null; // will be set later
         dirty = false;
         ic = null; // will be set later
@@ -684,6 +689,27 @@ public class Composition implements Serializable {
     }
 
     public BufferedImage calculateCompositeImage() {
+        return calculateCompositeImage(layerList.size());
+    }
+
+    /**
+     * Calculates the composite image of the given number of bottom layers
+     */
+    public BufferedImage calculateCompositeImage(int numLayers) {
+        BufferedImage img = calculateReadOnlyCompositeImage(numLayers);
+        if (isCachedAdjustmentResult(img)) {
+            // the caller is free to modify the returned image
+            img = ImageUtils.copyImage(img);
+        }
+        return img;
+    }
+
+    /**
+     * Like {@link #calculateCompositeImage(int)}, but the returned image
+     * can be the cached result of an adjustment layer, therefore
+     * it must not be modified, see {@link #isCachedAdjustmentResult}
+     */
+    BufferedImage calculateReadOnlyCompositeImage(int numLayers) {
         // TODO why is this not working
 //        if(layerList.size() == 1) {
 //            Layer firstLayer = layerList.get(0);
@@ -702,26 +728,71 @@ public class Composition implements Serializable {
                 canvas.getImWidth(), canvas.getImHeight(), TYPE_INT_ARGB_PRE);
         Graphics2D g = imageSoFar.createGraphics();
 
+        // true if imageSoFar is owned by an adjustment layer,
+        // in which case it is copied only if it has to be modified
+        boolean imageSoFarShared = false;
+
         boolean firstVisibleLayer = true;
-        for (Layer layer : layerList) {
+        for (int i = 0; i < numLayers; i++) {
+            Layer layer = layerList.get(i);
             if (layer.isVisible()) {
-                BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
+                if (imageSoFarShared && !layer.onlyReadsImageBellow()) {
+                    imageSoFar = ImageUtils.copyImage(imageSoFar);
+                    imageSoFarShared = false;
+                    g = imageSoFar.createGraphics();
+                }
+                compositeBelowCurrentLayer = imageSoFar;
+                BufferedImage result;
+                List<AdjustmentLayer> fusedLayers = firstVisibleLayer
+                        ? null : findFusableAdjustments(i, numLayers);
+                if (fusedLayers != null) {
+                    // a stack of point adjustments is applied in one pass
+                    AdjustmentLayer topLayer = fusedLayers.remove(fusedLayers.size() - 1);
+                    result = topLayer.applyFused(fusedLayers, imageSoFar);
+                    i = layerList.indexOf(topLayer);
+                } else {
+                    result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
+                }
                 if (result != null) { // adjustment layer or watermarking text layer
                     imageSoFar = result;
                     if (g != null) {
                         g.dispose();
                     }
-                    g = imageSoFar.createGraphics();
+                    imageSoFarShared = isCachedAdjustmentResult(imageSoFar);
+                    g = imageSoFarShared ? null : imageSoFar.createGraphics();
                 }
                 firstVisibleLayer = false;
             }
         }
 
-        g.dispose();
+        if (g != null) {
+            g.dispose();
+        }
+        compositeBelowCurrentLayer = null;
 
         return imageSoFar;
     }
 
+    /**
+     * Returns the visible adjustment layers starting at the given index
+     * that can be applied in a single pass, or null if there are less than two
+     */
+    private List<AdjustmentLayer> findFusableAdjustments(int startIndex, int numLayers) {
+        List<AdjustmentLayer> fusable = new ArrayList<>();
+        for (int i = startIndex; i < numLayers; i++) {
+            Layer layer = layerList.get(i);
+            if (!layer.isVisible()) {
+                continue;
+            }
+            if (!(layer instanceof AdjustmentLayer)
+                    || !((AdjustmentLayer) layer).canBeFused()) {
+                break;
+            }
+            fusable.add((AdjustmentLayer) layer);
+        }
+        return fusable.size() < 2 ? null : fusable;
+    }
+
     public String generateNewLayerName() {
         String retVal = "layer " + newLayerCount;
         newLayerCount++;
@@ -729,21 +800,93 @@ public class Composition implements Serializable {
     }
 
     public void updateRegion(PPoint start, PPoint end, double thickness) {
-        compositeImage.invalidate();
+        Rectangle2D.Double area = new Rectangle2D.Double(
+                Math.min(start.getImX(), end.getImX()) - thickness,
+                Math.min(start.getImY(), end.getImY()) - thickness,
+                Math.abs(end.getImX() - start.getImX()) + 2 * thickness,
+                Math.abs(end.getImY() - start.getImY()) + 2 * thickness);
+        Rectangle dirtyRect = toDirtyRect(area);
+        invalidateRegion(dirtyRect);
         if (ic != null) { // during reload image it can be null
+            ic.compositeRegionChanged(dirtyRect);
             ic.updateRegion(start, end, thickness);
             ic.updateNavigator(false);
         }
     }
 
+    // the given region of the active layer changed
+    private void invalidateRegion(Rectangle dirtyRect) {
+        compositeCache.invalidateRegion(dirtyRect);
+        if (activeLayer != null) {
+            activeLayer.invalidateMaskedImage(dirtyRect);
+
+            // the input of the adjustment layers above it also changed
+            int activeIndex = layerList.indexOf(activeLayer);
+            for (int i = activeIndex + 1; i < layerList.size(); i++) {
+                Layer layer = layerList.get(i);
+                if (layer instanceof AdjustmentLayer) {
+                    ((AdjustmentLayer) layer).inputRegionChanged(dirtyRect);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the objects that determine the composite image of the
+     * layers below the given layer, apart from the region changes
+     */
+    public List<Object> getStateOfLayersBelow(Layer layer) {
+        List<Object> state = new ArrayList<>();
+        state.add(canvas.getImWidth());
+        state.add(canvas.getImHeight());
+        int index = layerList.indexOf(layer);
+        for (int i = 0; i < index; i++) {
+            layerList.get(i).addRenderState(state);
+        }
+        return state;
+    }
+
+    /**
+     * Returns true if the given image is the cached result
+     * of an adjustment layer, and therefore it must not be modified
+     */
+    boolean isCachedAdjustmentResult(BufferedImage img) {
+        for (Layer layer : layerList) {
+            if (layer instanceof AdjustmentLayer
+                    && ((AdjustmentLayer) layer).isCachedResult(img)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the given image is the composite image
+     * of the layers below the layer currently applied
+     * by {@link #calculateCompositeImage(int)}
+     */
+    public boolean isCompositeBelowCurrentLayer(BufferedImage img) {
+        return img != null && img == compositeBelowCurrentLayer;
+    }
+
     public void updateRegion(PRectangle area) {
-        compositeImage.invalidate();
+        Rectangle dirtyRect = toDirtyRect(area.getIm());
+        invalidateRegion(dirtyRect);
         if (ic != null) { // during reload image it can be null
+            ic.compositeRegionChanged(dirtyRect);
             ic.updateRegion(area);
             ic.updateNavigator(false);
         }
     }
 
+    // the returned integer rectangle contains the area and also
+    // the neighboring pixels affected by antialiasing
+    private static Rectangle toDirtyRect(Rectangle2D area) {
+        Rectangle r = area.getBounds();
+        r.grow(1, 1);
+        return r;
+    }
+
     public void dispose() {
         if (selection != null) {
             // stop the timer thread
@@ -966,9 +1109,28 @@ public class Composition implements Serializable {
 
     /**
      * Returns the composite image, which has the same dimensions as the canvas.
+     * The returned image will not be changed by later edits.
      */
     public BufferedImage getCompositeImage() {
-        return compositeImage.get();
+        return compositeCache.getSharedImage();
+    }
+
+    /**
+     * Like getCompositeImage, but the returned image can be
+     * updated in place by later edits, therefore it should
+     * be used only for immediate painting, and not stored.
+     */
+    public BufferedImage getTransientCompositeImage() {
+        return compositeCache.getTransientImage();
+    }
+
+    /**
+     * Returns a box-filtered, reduced version of the composite image,
+     * whose size is the canvas size divided by 2^level.
+     * Like getTransientCompositeImage, it should not be stored.
+     */
+    public BufferedImage getTransientCompositeLevel(int level) {
+        return compositeCache.getTransientLevel(level);
     }
 
     public void imageChanged() {
@@ -984,7 +1146,38 @@ public class Composition implements Serializable {
      * and additional actions might be necessary
      */
     public void imageChanged(ImageChangeActions actions, boolean sizeChanged) {
-        compositeImage.invalidate();
+        for (Layer layer : layerList) {
+            layer.contentChanged();
+        }
+        contentChanged(actions, sizeChanged);
+    }
+
+    /**
+     * Like imageChanged, but only the pixels of the active layer
+     * (or of its mask) have been changed, therefore the caches
+     * that depend only on the other layers can be kept
+     */
+    public void activeLayerImageChanged(ImageChangeActions actions) {
+        if (activeLayer != null) {
+            activeLayer.contentChanged();
+        }
+        contentChanged(actions, false);
+    }
+
+    /**
+     * Like imageChanged, but the layers whose effect on
+     * the composite image changed were already notified
+     * with {@link Layer#contentChanged()} by the caller
+     */
+    public void layerContentsChanged(ImageChangeActions actions) {
+        contentChanged(actions, false);
+    }
+
+    private void contentChanged(ImageChangeActions actions, boolean sizeChanged) {
+        compositeCache.invalidate();
+        if (ic != null) {
+            ic.compositeChanged();
+        }
 
         if (actions.repaintNeeded()) {
             if (ic != null) {
@@ -1134,7 +1327,7 @@ public class Composition implements Serializable {
 
         return CompletableFuture
                 .runAsync(saveTask,
-                        IOThread.getExecutor())
+                        IOThread.getExecutor(file, INTERACTIVE))
                 .thenAcceptAsync(v -> afterSaveActions(file, addToRecentMenus),
                         EventQueue::invokeLater)
                 .exceptionally(Messages::showExceptionOnEDT);
@@ -52,6 +52,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
+import static pixelitor.io.IOThread.Priority.BACKGROUND;
 
 /**
  * The main class
@@ -110,10 +111,10 @@ public class Pixelitor {
 
         // The IO-intensive pre-loading of fonts is scheduled
         // to run after all the files have been opened,
-        // and on the same IO thread
+        // and as a background IO task
         openCLFilesAsync(args)
                 .thenRunAsync(Utils::preloadFontNames,
-                        IOThread.getExecutor())
+                        IOThread.getExecutor(BACKGROUND))
                 .exceptionally(Messages::showExceptionOnEDT);
 
         afterStartTestActions(pw);
@@ -17,16 +17,18 @@
 
 package pixelitor;
 
-import com.jhlabs.image.AbstractBufferedImageOp;
+import pixelitor.utils.CancellationToken;
 import pixelitor.utils.ProgressTracker;
 
-import java.awt.image.BufferedImage;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 /**
  * A thread pool for parallel execution on multiple CPU cores
@@ -34,8 +36,19 @@ import java.util.concurrent.Future;
 public class ThreadPool {
     private static final int NUM_AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
 
-    private static final ExecutorService executorService =
-            Executors.newFixedThreadPool(NUM_AVAILABLE_PROCESSORS);
+    // a work-stealing pool: if a pool thread waits for the strips
+    // of a nested parallel loop, it helps executing them
+    private static final ForkJoinPool executorService =
+            new ForkJoinPool(NUM_AVAILABLE_PROCESSORS);
+
+    // the number of strips per thread: more strips than threads
+    // are used so that the load is balanced even if some lines
+    // are more expensive than the others
+    private static final int STRIPS_PER_THREAD = 4;
+
+    // the token of the cancellable computation running
+    // on the current thread, or null
+    private static final ThreadLocal<CancellationToken> currentToken = new ThreadLocal<>();
 
     private ThreadPool() {
     }
@@ -55,6 +68,160 @@ public class ThreadPool {
         return executorService.submit(task);
     }
 
+    /**
+     * Calls the given line task for every line index in the range
+     * [0, numLines), processing the lines in parallel strips
+     * whose size is calculated from the number of lines and
+     * the number of available processors.
+     */
+    public static void parallelFor(int numLines, ProgressTracker pt, IntConsumer lineTask) {
+        parallelFor(numLines, calcGrain(numLines), pt, lineTask);
+    }
+
+    /**
+     * Same as the above, but with an explicit strip height (grain).
+     */
+    public static void parallelFor(int numLines, int grain, ProgressTracker pt, IntConsumer lineTask) {
+        parallelForStrips(numLines, grain, pt, (start, end) -> {
+            CancellationToken token = currentToken.get();
+            for (int line = start; line < end; line++) {
+                if (token != null && token.isCancelled()) {
+                    return;
+                }
+                lineTask.accept(line);
+            }
+        });
+    }
+
+    /**
+     * Similar to parallelFor, but the task is called once per strip,
+     * which allows it to reuse temporary buffers for all the lines of the strip.
+     */
+    public static void parallelForStrips(int numLines, ProgressTracker pt, StripTask stripTask) {
+        parallelForStrips(numLines, calcGrain(numLines), pt, stripTask);
+    }
+
+    /**
+     * Same as the above, but with an explicit strip height (grain).
+     * The progress tracker is updated once per finished strip,
+     * always from the calling thread.
+     * If the calling thread runs a cancellable computation (see
+     * {@link #callCancellable(CancellationToken, Supplier)}) and it
+     * gets cancelled, the remaining strips are skipped and a
+     * {@link CancellationException} is thrown.
+     * If a strip throws an exception, then the first such exception
+     * is rethrown after all the strips have finished.
+     */
+    public static void parallelForStrips(int numLines, int grain, ProgressTracker pt, StripTask stripTask) {
+        assert pt != null;
+        assert grain > 0 : "grain = " + grain;
+
+        if (numLines <= 0) {
+            return;
+        }
+        CancellationToken token = currentToken.get();
+        if (numLines <= grain) {
+            // not worth to involve other threads
+            stripTask.processStrip(0, numLines);
+            pt.unitsDone(numLines);
+            checkCancelled(token, pt);
+            return;
+        }
+
+        int numStrips = (numLines + grain - 1) / grain;
+        ForkJoinTask<?>[] strips = new ForkJoinTask<?>[numStrips];
+        for (int i = 0; i < numStrips; i++) {
+            int start = i * grain;
+            int end = Math.min(start + grain, numLines);
+            if (token == null) {
+                strips[i] = executorService.submit(() -> stripTask.processStrip(start, end));
+            } else {
+                // the token is also made available for the pool threads,
+                // so that nested parallel loops can also be cancelled
+                strips[i] = executorService.submit(() -> {
+                    if (!token.isCancelled()) {
+                        runWithToken(token, () -> stripTask.processStrip(start, end));
+                    }
+                });
+            }
+        }
+
+        Throwable firstException = null;
+        for (int i = 0; i < numStrips; i++) {
+            try {
+                strips[i].get();
+
+                int start = i * grain;
+                int end = Math.min(start + grain, numLines);
+                pt.unitsDone(end - start);
+            } catch (ExecutionException e) {
+                // a cancelled nested loop is not an error here,
+                // the cancellation is handled below
+                Throwable cause = e.getCause();
+                if (!(cause instanceof CancellationException) && firstException == null) {
+                    firstException = cause;
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        checkCancelled(token, pt);
+        if (firstException != null) {
+            // the caller will not get the chance to finish it
+            pt.finish();
+            rethrow(firstException);
+        }
+    }
+
+    private static void rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        // a strip task can't throw checked exceptions
+        throw new IllegalStateException(e);
+    }
+
+    private static void checkCancelled(CancellationToken token, ProgressTracker pt) {
+        if (token != null && token.isCancelled()) {
+            // the caller will not get the chance to finish it
+            pt.finish();
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Runs the given computation on the current thread in a way that
+     * the parallel loops started by it check the given token and
+     * throw a {@link CancellationException} if it gets cancelled.
+     */
+    public static <T> T callCancellable(CancellationToken token, Supplier<T> computation) {
+        CancellationToken prevToken = currentToken.get();
+        currentToken.set(token);
+        try {
+            return computation.get();
+        } finally {
+            currentToken.set(prevToken);
+        }
+    }
+
+    private static void runWithToken(CancellationToken token, Runnable task) {
+        callCancellable(token, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Returns the number of lines in a strip for the given total number of lines
+     */
+    public static int calcGrain(int numLines) {
+        int numStrips = NUM_AVAILABLE_PROCESSORS * STRIPS_PER_THREAD;
+        return Math.max(1, (numLines + numStrips - 1) / numStrips);
+    }
+
     /**
      * Waits until all the given futures complete their
      * computation, and updates the given
@@ -91,28 +258,15 @@ public class ThreadPool {
         }
     }
 
-    /**
-     * Similar to waitForFutures, but works with futures
-     * that return an int array representing a line, and
-     * updates the given destination image with the new pixels.
-     */
-    public static void waitForFutures2(Future<int[]>[] futures, BufferedImage dst, int width, ProgressTracker pt) {
-        assert pt != null;
-
-        try {
-            for (int i = 0; i < futures.length; i++) {
-                Future<int[]> line = futures[i];
-                int[] linePixels = line.get();
-                AbstractBufferedImageOp.setRGB(dst, 0, i, width, 1, linePixels);
-
-                pt.unitDone();
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
-    }
-
     public static Executor getExecutor() {
         return executorService;
     }
+
+    /**
+     * A task that processes the lines in the range [start, end)
+     */
+    @FunctionalInterface
+    public interface StripTask {
+        void processStrip(int start, int end);
+    }
 }
@@ -32,8 +32,12 @@ import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 
 import static java.lang.String.format;
 import static javax.swing.JOptionPane.WARNING_MESSAGE;
@@ -46,6 +50,7 @@ public class Automate {
     private static final String OVERWRITE_YES_ALL = "Yes, All";
     private static final String OVERWRITE_NO = "No (Skip)";
     private static final String OVERWRITE_CANCEL = "Cancel Processing";
+    private static final String OVERWRITE_SKIP_EXISTING = "No (Skip Existing)";
 
     private static volatile boolean overwriteAll = false;
     private static volatile boolean stopProcessing = false;
@@ -53,12 +58,94 @@ public class Automate {
     private Automate() {
     }
 
+    /**
+     * Processes each file in the input directory with the given
+     * image operation, without opening the files in the GUI.
+     * Several files are decoded, processed and encoded at the same time,
+     * see {@link BatchProcessor}, so the operation must be thread-safe.
+     *
+     * If the layers have to be kept, because there are layered
+     * input files, or the output format is layered, then the files
+     * are opened one by one, and processed with the given {@link CompAction}.
+     */
+    public static void processEachFile(UnaryOperator<BufferedImage> imageAction,
+                                       CompAction layeredAction,
+                                       String dialogTitle) {
+        File openDir = Dirs.getLastOpen();
+        File saveDir = Dirs.getLastSave();
+        OutputFormat outputFormat = OutputFormat.getLastUsed();
+
+        File[] inputFiles = FileUtils.listSupportedInputFilesIn(openDir);
+        if (inputFiles.length == 0) {
+            Messages.showInfo("No files", "There are no supported files in " + openDir.getAbsolutePath());
+            return;
+        }
+
+        if (outputFormat.supportsMultipleLayers() || containsLayeredFile(inputFiles)) {
+            processEachFile(layeredAction, dialogTitle);
+            return;
+        }
+
+        List<File> filesToProcess = askAboutExistingOutputs(inputFiles, saveDir, outputFormat);
+        if (filesToProcess == null || filesToProcess.isEmpty()) {
+            return;
+        }
+
+        new BatchProcessor(filesToProcess, saveDir, outputFormat, imageAction)
+                .start(dialogTitle);
+    }
+
+    private static boolean containsLayeredFile(File[] files) {
+        for (File file : files) {
+            if (OutputFormat.fromFile(file).supportsMultipleLayers()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The files are processed concurrently, therefore the overwriting
+     * of the existing output files is confirmed only once, in advance.
+     * Returns the files that should be processed, or null if cancelled.
+     */
+    private static List<File> askAboutExistingOutputs(File[] inputFiles, File saveDir,
+                                                      OutputFormat outputFormat) {
+        List<File> allFiles = new ArrayList<>();
+        List<File> newFiles = new ArrayList<>();
+        for (File file : inputFiles) {
+            allFiles.add(file);
+            if (!calcOutputFile(file, saveDir, outputFormat).exists()) {
+                newFiles.add(file);
+            }
+        }
+        int numExisting = allFiles.size() - newFiles.size();
+        if (numExisting == 0) {
+            return allFiles;
+        }
+
+        String[] options = {OVERWRITE_YES_ALL, OVERWRITE_SKIP_EXISTING, OVERWRITE_CANCEL};
+        int answer = JOptionPane.showOptionDialog(PixelitorWindow.getInstance(),
+                format("%d output files already exist in %s. Overwrite?",
+                        numExisting, saveDir.getAbsolutePath()),
+                "Warning", JOptionPane.DEFAULT_OPTION, WARNING_MESSAGE,
+                null, options, OVERWRITE_SKIP_EXISTING);
+        switch (answer) {
+            case 0:
+                return allFiles;
+            case 1:
+                return newFiles;
+            default: // cancelled or closed
+                return null;
+        }
+    }
+
     /**
      * Processes each file in the input directory
      * with the given {@link CompAction}
      */
-    public static void processEachFile(CompAction action,
-                                       String dialogTitle) {
+    private static void processEachFile(CompAction action,
+                                        String dialogTitle) {
         File openDir = Dirs.getLastOpen();
         File saveDir = Dirs.getLastSave();
 
@@ -129,7 +216,7 @@ public class Automate {
     private static CompletableFuture<Void> saveAndClose(Composition comp, File lastSaveDir) {
         ImageComponent ic = comp.getIC();
         OutputFormat outputFormat = OutputFormat.getLastUsed();
-        File outputFile = calcOutputFile(comp, lastSaveDir, outputFormat);
+        File outputFile = calcOutputFile(comp.getFile(), lastSaveDir, outputFormat);
         CompletableFuture<Void> retVal = null;
 
         // so that it doesn't ask to save again after we just saved it
@@ -168,8 +255,8 @@ public class Automate {
         }
     }
 
-    private static File calcOutputFile(Composition comp, File lastSaveDir, OutputFormat outputFormat) {
-        String inFileName = comp.getFile().getName();
+    static File calcOutputFile(File inputFile, File lastSaveDir, OutputFormat outputFormat) {
+        String inFileName = inputFile.getName();
         String outFileName = FileUtils.replaceExt(inFileName, outputFormat.toString());
         return new File(lastSaveDir, outFileName);
     }
@@ -18,10 +18,17 @@
 package pixelitor.automate;
 
 import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.ParamSetState;
 import pixelitor.gui.PixelitorWindow;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.VisibleForTesting;
 
 import java.awt.Component;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.UnaryOperator;
 
 import static pixelitor.ChangeReason.BATCH_AUTOMATE;
 import static pixelitor.automate.BatchFilterWizardPage.SELECT_FILTER_AND_DIRS;
@@ -52,12 +59,73 @@ public class BatchFilterWizard extends Wizard {
         PixelitorWindow busyCursorParent = PixelitorWindow.getInstance();
         String dialogTitle = "Batch Filter Progress";
 
-        Automate.processEachFile(comp -> filter.run(
-                comp.getActiveDrawableOrThrow(),
-                BATCH_AUTOMATE, busyCursorParent),
+        Automate.processEachFile(createConcurrentAction(filter),
+                comp -> filter.run(
+                        comp.getActiveDrawableOrThrow(),
+                        BATCH_AUTOMATE, busyCursorParent),
                 dialogTitle);
     }
 
+    /**
+     * Returns an image operation that can be called from several threads.
+     * It uses independent copies of the filter with the same settings,
+     * or the filter itself, one image at a time, if it can't be copied.
+     */
+    @VisibleForTesting
+    static UnaryOperator<BufferedImage> createConcurrentAction(Filter filter) {
+        BlockingQueue<Filter> filters = new LinkedBlockingQueue<>();
+        if (canBeCopied(filter)) {
+            ParamSetState state = ((ParametrizedFilter) filter).getParamSet().copyState();
+            int numCopies = Runtime.getRuntime().availableProcessors();
+            for (int i = 0; i < numCopies; i++) {
+                Filter copy = filter.createNewInstance();
+                if (copy == null) {
+                    break;
+                }
+                ((ParametrizedFilter) copy).getParamSet().setState(state);
+                filters.add(copy);
+            }
+        }
+        if (filters.isEmpty()) {
+            filters.add(filter);
+        }
+
+        return src -> {
+            Filter instance = takeUninterruptibly(filters);
+            try {
+                return instance.transformImage(src);
+            } finally {
+                filters.add(instance);
+            }
+        };
+    }
+
+    // the settings can be copied only through the animation
+    // states, which don't exist for every type of parameter.
+    // The random numbers of the reseeding filters are not shared
+    // by the copies, see ReseedSupport.reInitialize
+    private static boolean canBeCopied(Filter filter) {
+        return filter instanceof ParametrizedFilter
+                && ((ParametrizedFilter) filter).getParamSet().stateCanBeCopied();
+    }
+
+    private static Filter takeUninterruptibly(BlockingQueue<Filter> filters) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return filters.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Override
     protected void finalCleanup() {
 
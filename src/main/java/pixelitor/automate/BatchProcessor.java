@@ -0,0 +1,238 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.gui.utils.GUIUtils;
+import pixelitor.io.OutputFormat;
+import pixelitor.io.TrackedIO;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import static java.lang.String.format;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Decodes, processes and encodes the files of a batch operation
+ * concurrently, without opening them in the GUI.
+ *
+ * The number of files in flight is limited both by count and by
+ * their estimated memory, so that folders with thousands of
+ * big photos can be processed without running out of memory.
+ */
+class BatchProcessor {
+    private static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    // the files waiting in the queue are already decoding when a worker becomes free
+    private static final int MAX_FILES_IN_FLIGHT = 2 * NUM_WORKERS;
+
+    // in kilobytes, so that it fits into the permits of a semaphore
+    private static final int MEMORY_BUDGET_KB = (int) Math.min(Integer.MAX_VALUE,
+            Runtime.getRuntime().maxMemory() / 3 / 1024);
+
+    private final List<File> inputFiles;
+    private final File saveDir;
+    private final OutputFormat outputFormat;
+    private final UnaryOperator<BufferedImage> action;
+
+    private final Semaphore fileSlots = new Semaphore(MAX_FILES_IN_FLIGHT);
+    private final Semaphore memoryBudget = new Semaphore(MEMORY_BUDGET_KB);
+
+    private final AtomicInteger numFinished = new AtomicInteger();
+    private final AtomicInteger numFailed = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicReference<String> firstError = new AtomicReference<>();
+
+    private volatile boolean canceled = false;
+    private long elapsedNanos;
+
+    /**
+     * The given action is called from several threads,
+     * therefore it must be thread-safe.
+     */
+    BatchProcessor(List<File> inputFiles, File saveDir, OutputFormat outputFormat,
+                   UnaryOperator<BufferedImage> action) {
+        assert !outputFormat.supportsMultipleLayers();
+
+        this.inputFiles = inputFiles;
+        this.saveDir = saveDir;
+        this.outputFormat = outputFormat;
+        this.action = action;
+    }
+
+    void start(String dialogTitle) {
+        ProgressMonitor progressMonitor = GUIUtils.createPercentageProgressMonitor(
+                dialogTitle);
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            public Void doInBackground() throws InterruptedException {
+                processAll(progressMonitor);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                progressMonitor.close();
+                showResults();
+            }
+        };
+        worker.execute();
+    }
+
+    private void processAll(ProgressMonitor progressMonitor) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_WORKERS, r -> {
+            Thread t = new Thread(r, "[Batch worker]");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long startTime = System.nanoTime();
+        try {
+            for (File file : inputFiles) {
+                int memoryKB = estimateMemoryKB(file);
+                fileSlots.acquire();
+                memoryBudget.acquire(memoryKB);
+                if (progressMonitor.isCanceled()) {
+                    canceled = true;
+                    fileSlots.release();
+                    memoryBudget.release(memoryKB);
+                    break;
+                }
+
+                workers.execute(() -> {
+                    try {
+                        processFile(file);
+                    } finally {
+                        memoryBudget.release(memoryKB);
+                        fileSlots.release();
+                        fileFinished(progressMonitor);
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            elapsedNanos = System.nanoTime() - startTime;
+        }
+    }
+
+    private void processFile(File file) {
+        try {
+            BufferedImage img = TrackedIO.read(file, NULL_TRACKER);
+            if (img == null) {
+                throw new IOException("Could not decode " + file.getName());
+            }
+            bytesRead.addAndGet(file.length());
+
+            img = ImageUtils.toSysCompatibleImage(img);
+            BufferedImage result = action.apply(img);
+
+            File outputFile = Automate.calcOutputFile(file, saveDir, outputFormat);
+            outputFormat.saveImage(result, outputFile);
+            bytesWritten.addAndGet(outputFile.length());
+        } catch (Exception | OutOfMemoryError e) {
+            // the other files are still processed
+            numFailed.incrementAndGet();
+            firstError.compareAndSet(null, file.getName() + ": " + e);
+        }
+    }
+
+    private void fileFinished(ProgressMonitor progressMonitor) {
+        int finished = numFinished.incrementAndGet();
+        int numFiles = inputFiles.size();
+        EventQueue.invokeLater(() -> {
+            progressMonitor.setProgress(finished * 100 / numFiles);
+            progressMonitor.setNote(format("%d of %d files", finished, numFiles));
+        });
+    }
+
+    /**
+     * Estimates the memory needed for processing the given file
+     * (the decoded image, its system-compatible copy and the result)
+     * by reading only the image dimensions from the file header
+     */
+    private static int estimateMemoryKB(File file) {
+        long numPixels = -1;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis != null) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(iis, true, true);
+                        numPixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the error will be reported when the file is processed
+        }
+        if (numPixels < 0) {
+            // assume a compression ratio of 10 for the 4-byte pixels
+            numPixels = 10 * file.length() / 4;
+        }
+
+        long kb = 3 * 4 * numPixels / 1024 + 1;
+
+        // a bigger image can still be processed, but only alone
+        return (int) Math.min(kb, MEMORY_BUDGET_KB);
+    }
+
+    private void showResults() {
+        int numProcessed = numFinished.get() - numFailed.get();
+        double seconds = elapsedNanos / 1.0e9;
+        if (seconds > 0) {
+            double mb = 1024 * 1024;
+            Messages.showInStatusBar(format(
+                    "%d files processed in %.1f s (%.1f files/s, %.1f MB/s read, %.1f MB/s written)",
+                    numProcessed, seconds, numProcessed / seconds,
+                    bytesRead.get() / mb / seconds, bytesWritten.get() / mb / seconds));
+        }
+
+        if (numFailed.get() > 0) {
+            Messages.showError("Batch Processing Error", format(
+                    "%d of the files could not be processed.%nThe first error was %s",
+                    numFailed.get(), firstError.get()));
+        } else if (canceled) {
+            Messages.showInfo("Batch Processing Canceled", format(
+                    "%d of the %d files were processed.",
+                    numProcessed, inputFiles.size()));
+        }
+    }
+}
@@ -23,8 +23,13 @@ import pixelitor.gui.utils.DialogBuilder;
 import pixelitor.gui.utils.IntTextField;
 import pixelitor.gui.utils.ValidatedPanel;
 import pixelitor.gui.utils.ValidationResult;
+import pixelitor.utils.ImageUtils;
 
 import javax.swing.*;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BICUBIC;
 
 /**
  * The batch resize functionality
@@ -49,7 +54,23 @@ public class BatchResize {
         int maxHeight = p.getNewHeight();
 
         CompAction resizeAction = new Resize(maxWidth, maxHeight, true);
-        Automate.processEachFile(resizeAction, "Batch Resize...");
+        Automate.processEachFile(
+                img -> resizeInBox(img, maxWidth, maxHeight),
+                resizeAction, "Batch Resize...");
+    }
+
+    /**
+     * The same as the {@link Resize} in a box, but directly on the image
+     */
+    private static BufferedImage resizeInBox(BufferedImage img, int maxWidth, int maxHeight) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        if (width == maxWidth && height == maxHeight) {
+            return img;
+        }
+        Dimension newSize = Resize.calcSizeInBox(width, height, maxWidth, maxHeight);
+        return ImageUtils.getFasterScaledInstance(img,
+                newSize.width, newSize.height, VALUE_INTERPOLATION_BICUBIC);
     }
 
     /**
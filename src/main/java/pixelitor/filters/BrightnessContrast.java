@@ -20,6 +20,8 @@ package pixelitor.filters;
 import com.jhlabs.image.PixelUtils;
 import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.gui.ShowOriginal;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
@@ -27,7 +29,7 @@ import java.awt.image.BufferedImage;
 /**
  * The Brightness/Contrast filter
  */
-public class BrightnessContrast extends ParametrizedFilter {
+public class BrightnessContrast extends ParametrizedFilter implements FusablePointFilter {
     public static final String NAME = "Brightness/Contrast";
 
     private final RangeParam power = new RangeParam("Brightness Power (%)", 50, 100, 150);
@@ -48,35 +50,14 @@ public class BrightnessContrast extends ParametrizedFilter {
 
     @Override
     public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
-        int addValue = add.getValue();
-        int contrastValue = contrast.getValue();
-
-        if ((addValue == 0) && (multiply.getValue() == 100) && (power.getValue() == 100) && contrastValue == 0) {
+        if (hasNoEffect()) {
             return src;
         }
 
         int[] srcData = ImageUtils.getPixelsAsArray(src);
         int[] destData = ImageUtils.getPixelsAsArray(dest);
 
-        float multiplyValue = multiply.getValueAsPercentage();
-        float powerValue = power.getValueAsPercentage();
-
-        int[] lookup = new int[256];
-
-
-        double contrastFactor = (259.0 * (contrastValue + 255)) / (255.0 * (259 - contrastValue));
-
-        for (int i = 0; i < lookup.length; i++) {
-            float lookupValue = i; // by default do nothing
-
-            lookupValue = (float) Math.pow(lookupValue, powerValue);
-            int lookupValueInt = ((int) (lookupValue * multiplyValue)) + addValue;
-
-            // contrastValue
-            lookupValueInt = (int) (contrastFactor * (lookupValueInt - 128) + 128);
-
-            lookup[i] = PixelUtils.clamp(lookupValueInt);
-        }
+        int[] lookup = createLookup();
 
         for (int i = 0; i < destData.length; i++) {
             int rgb = srcData[i];
@@ -101,8 +82,54 @@ public class BrightnessContrast extends ParametrizedFilter {
         return dest;
     }
 
+    @Override
+    public void addTo(PointOpChain chain) {
+        if (hasNoEffect()) {
+            return;
+        }
+
+        int[] lookup = createLookup();
+        chain.addLookup(lookup, lookup, lookup);
+    }
+
+    private boolean hasNoEffect() {
+        return add.getValue() == 0 && multiply.getValue() == 100
+                && power.getValue() == 100 && contrast.getValue() == 0;
+    }
+
+    private int[] createLookup() {
+        int addValue = add.getValue();
+        int contrastValue = contrast.getValue();
+        float multiplyValue = multiply.getValueAsPercentage();
+        float powerValue = power.getValueAsPercentage();
+
+        int[] lookup = new int[256];
+
+
+        double contrastFactor = (259.0 * (contrastValue + 255)) / (255.0 * (259 - contrastValue));
+
+        for (int i = 0; i < lookup.length; i++) {
+            float lookupValue = i; // by default do nothing
+
+            lookupValue = (float) Math.pow(lookupValue, powerValue);
+            int lookupValueInt = ((int) (lookupValue * multiplyValue)) + addValue;
+
+            // contrastValue
+            lookupValueInt = (int) (contrastFactor * (lookupValueInt - 128) + 128);
+
+            lookup[i] = PixelUtils.clamp(lookupValueInt);
+        }
+
+        return lookup;
+    }
+
     @Override
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.gui.ShowOriginal;
 import pixelitor.utils.MemoryInfo;
 import pixelitor.utils.Messages;
+import pixelitor.utils.StatusBarProgressTracker;
 
 import java.awt.image.BufferedImage;
 
@@ -31,6 +32,8 @@ import java.awt.image.BufferedImage;
  * based on CannyEdgeDetector by Tom Gibara - http://www.tomgibara.com/computer-vision/canny-edge-detector
  */
 public class Canny extends ParametrizedFilter {
+    public static final String NAME = "Canny";
+
     private final RangeParam lowThreshold = new RangeParam(
             "Low Threshold", 1, 250, 1000);
     private final RangeParam highThreshold = new RangeParam(
@@ -77,6 +80,8 @@ public class Canny extends ParametrizedFilter {
         detector.setGaussianKernelWidth(gaussianKernelWidth.getValue());
 
         detector.setSourceImage(src);
+        detector.setProgressTracker(new StatusBarProgressTracker(
+                NAME, detector.getNumProgressUnits()));
 
         detector.process();
         dest = detector.getEdgesImage();
@@ -98,8 +103,8 @@ public class Canny extends ParametrizedFilter {
         int width = src.getWidth();
         int height = src.getHeight();
         long numPixels = (long) width * height;
-        // 6 arrays with 4-byte data type
-        long estimatedMemoryMB = 6 * numPixels * 4 / MemoryInfo.ONE_MEGABYTE;
+        // 4 arrays with 4-byte data type
+        long estimatedMemoryMB = 4 * numPixels * 4 / MemoryInfo.ONE_MEGABYTE;
         // 1.8 was found experimentally, this is still needed to prevent OutOfMemory errors
         estimatedMemoryMB = (long) (estimatedMemoryMB * 1.8);
         return estimatedMemoryMB;
@@ -188,4 +188,9 @@ public class ChannelInvert extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -459,4 +459,9 @@ public class ChannelMixer extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
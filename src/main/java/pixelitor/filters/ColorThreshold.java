@@ -78,4 +78,9 @@ public class ColorThreshold extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -29,7 +29,6 @@ import pixelitor.utils.StatusBarProgressTracker;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.util.concurrent.Future;
 
 /**
  * Renders a color wheel
@@ -64,14 +63,8 @@ public class ColorWheel extends ParametrizedFilter {
 
         ProgressTracker pt = new StatusBarProgressTracker(NAME, height);
 
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> calculateLine(
-                    destData, width, finalY, cx, cy, hueShift, saturation, brightness);
-            futures[y] = ThreadPool.submit(lineTask);
-        }
-        ThreadPool.waitForFutures(futures, pt);
+        ThreadPool.parallelFor(height, pt, y ->
+                calculateLine(destData, width, y, cx, cy, hueShift, saturation, brightness));
         pt.finish();
 
         return dest;
@@ -122,4 +122,9 @@ public class Colorize extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -84,4 +84,11 @@ public class Droste extends ParametrizedFilter {
         dest = filter.filter(src, dest);
         return dest;
     }
+
+    @Override
+    public boolean supportsProgressivePreview() {
+        // all the parameters are relative to the image size,
+        // therefore they don't have to be scaled
+        return true;
+    }
 }
\ No newline at end of file
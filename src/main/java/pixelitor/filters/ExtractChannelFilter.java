@@ -153,4 +153,9 @@ public class ExtractChannelFilter extends Filter {
         };
         return rgbOp.toFilterAction("Hue (with colors)");
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
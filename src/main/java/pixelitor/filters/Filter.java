@@ -28,10 +28,14 @@ import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 import pixelitor.utils.test.RandomGUITest;
 
+import java.awt.AlphaComposite;
 import java.awt.Component;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.Serializable;
 
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 import static pixelitor.ChangeReason.FILTER_WITHOUT_DIALOG;
 
@@ -47,6 +51,11 @@ public abstract class Filter implements Serializable {
     // unnecessary filter executions triggered
     public static long runCount = 0;
 
+    // Set only while a low-resolution preview is calculated,
+    // otherwise 0, which means full resolution. (Zero is used
+    // instead of 1.0, because it is also the value after deserialization)
+    private transient double lowResScale;
+
     protected Filter() {
     }
 
@@ -109,9 +118,18 @@ public abstract class Filter implements Serializable {
             } else {
                 dr.filterWithoutDialogFinished(dest, cr, getName());
             }
-        } catch (OutOfMemoryError e) {
-            Dialogs.showOutOfMemoryDialog(e);
         } catch (Throwable e) {
+            handleException(e, dr);
+        }
+    }
+
+    /**
+     * Reports an error that happened while running this filter on the given {@link Drawable}
+     */
+    public void handleException(Throwable e, Drawable dr) {
+        if (e instanceof OutOfMemoryError) {
+            Dialogs.showOutOfMemoryDialog((OutOfMemoryError) e);
+        } else {
             ImageLayer layer = (ImageLayer) dr;
             if (layer instanceof LayerMask) {
                 layer = (ImageLayer) layer.getParent();
@@ -164,6 +182,87 @@ public abstract class Filter implements Serializable {
         return dest;
     }
 
+    /**
+     * Like transformImage, but the filter runs on a copy of the source
+     * image that is downscaled by the given factor, and the result
+     * is scaled back to the original size.
+     * Used for the quick first pass of the progressive previews.
+     */
+    public BufferedImage transformImageAtLowRes(BufferedImage src, double scale) {
+        assert supportsProgressivePreview();
+        assert scale > 0 && scale < 1 : "scale = " + scale;
+
+        int smallWidth = Math.max(1, (int) (src.getWidth() * scale));
+        int smallHeight = Math.max(1, (int) (src.getHeight() * scale));
+        BufferedImage smallSrc = ImageUtils.createImageWithSameCM(src, smallWidth, smallHeight);
+        drawScaled(src, smallSrc);
+
+        BufferedImage smallDest;
+        lowResScale = scale;
+        try {
+            smallDest = transformImage(smallSrc);
+        } finally {
+            lowResScale = 0;
+        }
+
+        if (smallDest == smallSrc) {
+            // the filter decided that there is nothing to do
+            return src;
+        }
+
+        BufferedImage dest = ImageUtils.createImageWithSameCM(src);
+        drawScaled(smallDest, dest);
+        return dest;
+    }
+
+    private static void drawScaled(BufferedImage src, BufferedImage dest) {
+        Graphics2D g = dest.createGraphics();
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(src, 0, 0, dest.getWidth(), dest.getHeight(), null);
+        g.dispose();
+    }
+
+    /**
+     * Filters that are slow for big images can return true here
+     * in order to get progressive previews: first the filter runs on
+     * a downscaled image, and only then on the full resolution image.
+     * These filters must multiply all their parameters that are
+     * measured in pixels (for example a radius) by the value returned
+     * by {@link #getResolutionScale()}.
+     */
+    public boolean supportsProgressivePreview() {
+        return false;
+    }
+
+    /**
+     * Returns the size of the currently filtered image relative
+     * to the real image: 1.0, except for the low-resolution
+     * pass of the progressive previews.
+     */
+    protected double getResolutionScale() {
+        if (lowResScale == 0) {
+            return 1.0;
+        }
+        return lowResScale;
+    }
+
+    /**
+     * Returns a new instance of the same filter (with default settings),
+     * which can run independently from this one, or null if
+     * such an instance can't be created
+     */
+    public Filter createNewInstance() {
+        if (filterAction == null) {
+            return null;
+        }
+        Filter newFilter = filterAction.createNewFilter();
+        if (newFilter == this || newFilter.getClass() != getClass()) {
+            return null;
+        }
+        return newFilter;
+    }
+
     public void setFilterAction(FilterAction filterAction) {
         this.filterAction = filterAction;
     }
@@ -189,4 +288,13 @@ public abstract class Filter implements Serializable {
     public boolean supportsGray() {
         return true;
     }
+
+    /**
+     * Whether every result pixel depends only on the source pixel
+     * at the same position. The results of such filters can be
+     * recalculated region by region (for example in adjustment layers)
+     */
+    public boolean isPointFilter() {
+        return false;
+    }
 }
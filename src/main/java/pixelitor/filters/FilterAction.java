@@ -83,6 +83,16 @@ public class FilterAction extends DrawableAction {
         return filter;
     }
 
+    /**
+     * Returns a filter instance that is independent
+     * from the one returned by getFilter()
+     */
+    public Filter createNewFilter() {
+        Filter newFilter = filterSupplier.get();
+        newFilter.setFilterAction(this);
+        return newFilter;
+    }
+
     public FilterAction withListNamePrefix(String listNamePrefix) {
         this.listNamePrefix = listNamePrefix;
         return this;
@@ -20,6 +20,8 @@ package pixelitor.filters;
 import com.jhlabs.image.PointFilter;
 import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.gui.ShowOriginal;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
@@ -27,7 +29,7 @@ import java.awt.image.BufferedImage;
 /**
  * Hue-Saturation (and Colorize) filter
  */
-public class HueSat extends ParametrizedFilter {
+public class HueSat extends ParametrizedFilter implements FusablePointFilter {
     public static final String NAME = "Hue/Saturation";
 
     private static final int MIN_HUE = -180;
@@ -58,21 +60,36 @@ public class HueSat extends ParametrizedFilter {
 
     @Override
     public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
-        int hueP = hue.getValue();
-        int satP = saturation.getValue();
-        int briP = brightness.getValue();
-
-        if ((hueP == 0) && (satP == 0) && (briP == 0)) {
+        if (hasNoEffect()) {
             return src;
         }
 
+        dest = createImpl().filter(src, dest);
+
+        return dest;
+    }
+
+    @Override
+    public void addTo(PointOpChain chain) {
+        if (hasNoEffect()) {
+            return;
+        }
+
+        chain.addPointFilter(createImpl());
+    }
+
+    private boolean hasNoEffect() {
+        return hue.getValue() == 0
+                && saturation.getValue() == 0
+                && brightness.getValue() == 0;
+    }
+
+    private Impl createImpl() {
         float satShift = saturation.getValueAsPercentage();
         float briShift = brightness.getValueAsPercentage();
         float hueShift = hue.getValueAsFloat() / 360.0f;
 
-        dest = new Impl(hueShift, satShift, briShift).filter(src, dest);
-
-        return dest;
+        return new Impl(hueShift, satShift, briShift);
     }
 
     private static class Impl extends PointFilter {
@@ -123,4 +140,9 @@ public class HueSat extends ParametrizedFilter {
             return a | newRGB; // add the real alpha
         }
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -17,6 +17,8 @@
 package pixelitor.filters;
 
 import com.jhlabs.image.PixelUtils;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
@@ -24,7 +26,7 @@ import java.awt.image.BufferedImage;
 /**
  * Invert filter
  */
-public class Invert extends Filter {
+public class Invert extends Filter implements FusablePointFilter {
     // for compatibility with older adjustment layer tests
     private static final long serialVersionUID = -6279018636064203421L;
 
@@ -35,6 +37,15 @@ public class Invert extends Filter {
         return dest;
     }
 
+    @Override
+    public void addTo(PointOpChain chain) {
+        int[] inverted = new int[256];
+        for (int i = 0; i < inverted.length; i++) {
+            inverted[i] = 255 - i;
+        }
+        chain.addLookup(inverted, inverted, inverted);
+    }
+
     public static void invertImage(BufferedImage src, BufferedImage dest) {
         int[] srcData = ImageUtils.getPixelsAsArray(src);
         int[] destData = ImageUtils.getPixelsAsArray(dest);
@@ -95,4 +106,9 @@ public class Invert extends Filter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -21,6 +21,8 @@ import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.gui.ShowOriginal;
 import pixelitor.filters.levels.RGBLookup;
 import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
@@ -29,7 +31,7 @@ import java.awt.image.ShortLookupTable;
 /**
  * Posterize filter
  */
-public class Posterize extends ParametrizedFilter {
+public class Posterize extends ParametrizedFilter implements FusablePointFilter {
     public static final String NAME = "Posterize";
 
     private final RangeParam redLevels = new RangeParam("Red", 2, 2, 50);
@@ -51,16 +53,26 @@ public class Posterize extends ParametrizedFilter {
 
     @Override
     public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        RGBLookup rgbLookup = createLookup();
+
+        BufferedImageOp filterOp = new FastLookupOp((ShortLookupTable) rgbLookup.getLookupOp());
+        filterOp.filter(src, dest);
+
+        return dest;
+    }
+
+    private RGBLookup createLookup() {
         int numRedLevels = redLevels.getValue();
         int numGreenLevels = greenLevels.getValue();
         int numBlueLevels = blueLevels.getValue();
         RGBLookup rgbLookup = new RGBLookup();
         rgbLookup.initFromPosterize(numRedLevels, numGreenLevels, numBlueLevels);
+        return rgbLookup;
+    }
 
-        BufferedImageOp filterOp = new FastLookupOp((ShortLookupTable) rgbLookup.getLookupOp());
-        filterOp.filter(src, dest);
-
-        return dest;
+    @Override
+    public void addTo(PointOpChain chain) {
+        chain.addLookup(createLookup());
     }
 
     @Override
@@ -69,7 +81,7 @@ public class Posterize extends ParametrizedFilter {
     }
 
     @Override
-    public boolean supportsGray() {
-        return false;
+    public boolean isPointFilter() {
+        return true;
     }
 }
\ No newline at end of file
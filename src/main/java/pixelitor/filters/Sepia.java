@@ -50,4 +50,9 @@ public class Sepia extends ParametrizedFilter {
         dest = filter.filter(src, dest);
         return dest;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ public class AnimGIFWriter implements AnimationWriter {
         encoder.start(file);
         encoder.setDelay(delayMillis);
         encoder.setRepeat(0);
+        encoder.setCropToChanges(true);
     }
 
     @Override
@@ -18,18 +18,33 @@
 package pixelitor.filters.animation;
 
 import pixelitor.Composition;
+import pixelitor.ThreadPool;
 import pixelitor.filters.Filter;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.ParamSetState;
-import pixelitor.gui.PixelitorWindow;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.String.format;
 import static pixelitor.ChangeReason.TWEEN_PREVIEW;
@@ -38,6 +53,12 @@ import static pixelitor.ChangeReason.TWEEN_PREVIEW;
  * A SwingWorker for rendering the frames of a tween animation
  */
 class RenderTweenFramesTask extends SwingWorker<Void, Void> {
+    // the maximum number of frames rendered at the same time
+    private static final int MAX_PARALLEL_FRAMES = Runtime.getRuntime().availableProcessors();
+
+    // the maximum number of rendered frames waiting to be written
+    private static final int MAX_QUEUED_FRAMES = 4;
+
     private final TweenAnimation animation;
     private final Drawable dr;
 
@@ -85,9 +106,8 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         AnimationWriter animationWriter = animation.createAnimationWriter();
         boolean canceled = false;
 
-        PixelitorWindow busyCursorParent = PixelitorWindow.getInstance();
-
         dr.tweenCalculatingStarted();
+        BufferedImage src = dr.getFilterSourceImage();
 
         int numTotalFrames = numFrames;
         boolean pingPong = animation.isPingPong() && numFrames > 2;
@@ -95,42 +115,78 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
             numTotalFrames = 2 * numFrames - 2;
         }
 
+        // the frames are rendered in parallel, each with its own
+        // filter instance, ahead of the frame that is written next
+        BlockingQueue<ParametrizedFilter> filters = createFilterCopies(filter);
+        int numRenderers = filters.size();
+        Map<Integer, Future<BufferedImage>> renderedAhead = new HashMap<>();
+        int nextFrameToRender = 0;
+
+        // in ping-pong mode the frames of the forward part are kept for the
+        // backward part, but they can be garbage collected if memory is low
+        List<SoftReference<BufferedImage>> forwardFrames = new ArrayList<>();
+
+        // the frames are written on a separate thread, so
+        // that the rendering can continue in the meantime
+        ExecutorService writerThread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "[Tween frame writer]");
+            t.setDaemon(true);
+            return t;
+        });
+        Semaphore writeSlots = new Semaphore(MAX_QUEUED_FRAMES);
+        AtomicReference<IOException> writeError = new AtomicReference<>();
+
         for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
-            if (isCancelled()) {
+            if (isCancelled() || writeError.get() != null) {
                 canceled = true;
                 break;
             }
             int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
             setProgress(percentProgress);
 
-            double time;
-            if (frameNr < numFrames) { // ping: normal animation forwards
-                time = ((double) frameNr) / numFrames;
-            } else { // pong: animating backwards
-                // TODO we are calculating the same frames again
-                // they could be cached somewhere
-                // perhaps in an array of soft references with the
-                // calculated frames or in the case of file sequence
-                // output one could simply make copies of the files.
-                int effectiveFrame = 2 * (numFrames - 1) - frameNr;
-                time = ((double) effectiveFrame) / numFrames;
-            }
-
             try {
-                // first render the frame...
-                BufferedImage image = renderFrame(filter, time, busyCursorParent);
+                BufferedImage frame = null;
+                if (frameNr < numFrames) { // ping: normal animation forwards
+                    while (nextFrameToRender < numFrames
+                            && nextFrameToRender < frameNr + numRenderers) {
+                        renderedAhead.put(nextFrameToRender,
+                                startRendering(filters, src, nextFrameToRender, numFrames));
+                        nextFrameToRender++;
+                    }
+                    frame = showFrame(filter, renderedAhead.remove(frameNr).get());
+                    if (pingPong) {
+                        forwardFrames.add(new SoftReference<>(frame));
+                    }
+                } else { // pong: animating backwards
+                    int effectiveFrame = 2 * (numFrames - 1) - frameNr;
+                    frame = forwardFrames.get(effectiveFrame).get();
+                    if (frame == null) { // it was garbage collected
+                        frame = showFrame(filter, startRendering(
+                                filters, src, effectiveFrame, numFrames).get());
+                    }
+                }
 
-                // ...then write the file
-                GUIUtils.invokeAndWait(() -> {
+                writeSlots.acquire();
+                BufferedImage frameToWrite = frame;
+                writerThread.execute(() -> {
                     try {
-                        // TODO ideally while writing out the frame,
-                        // the rendering of the next frame should be
-                        // started on another thread
-                        animationWriter.addFrame(image);
+                        if (writeError.get() == null) {
+                            animationWriter.addFrame(frameToWrite);
+                        }
                     } catch (IOException e) {
-                        Messages.showException(e);
+                        writeError.set(e);
+                    } finally {
+                        writeSlots.release();
                     }
                 });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                canceled = true;
+                break;
+            } catch (ExecutionException e) {
+                canceled = true;
+                Messages.showException(e.getCause());
+                break;
             } catch (Exception e) {
                 canceled = true;
                 Messages.showException(e);
@@ -138,6 +194,21 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
             }
         }
 
+        for (Future<BufferedImage> future : renderedAhead.values()) {
+            future.cancel(false);
+        }
+        writerThread.shutdown();
+        try {
+            writerThread.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            canceled = true;
+        }
+        if (writeError.get() != null) {
+            canceled = true;
+            Messages.showExceptionOnEDT(writeError.get());
+        }
+
         setProgress(100);
 
         boolean finalCanceled = canceled;
@@ -151,27 +222,70 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         });
     }
 
-    private BufferedImage renderFrame(ParametrizedFilter filter,
-                                      double time,
-                                      PixelitorWindow busyCursorParent) {
+    /**
+     * Returns independent instances of the given filter for the
+     * parallel rendering, or only the filter itself, if it can't be copied
+     */
+    private static BlockingQueue<ParametrizedFilter> createFilterCopies(ParametrizedFilter filter) {
+        BlockingQueue<ParametrizedFilter> copies = new ArrayBlockingQueue<>(MAX_PARALLEL_FRAMES);
+
+        // the tweening sets only the animated parameters, therefore the
+        // new instances can be used only if there are no other parameters
+        if (filter.getParamSet().stateCanBeCopied()) {
+            for (int i = 0; i < MAX_PARALLEL_FRAMES; i++) {
+                Filter copy = filter.createNewInstance();
+                if (copy == null) {
+                    break;
+                }
+                copies.add((ParametrizedFilter) copy);
+            }
+        }
+        if (copies.isEmpty()) {
+            copies.add(filter);
+        }
+        return copies;
+    }
 
-        long runCountBefore = Filter.runCount;
+    /**
+     * Starts filtering the given source image with the settings
+     * of the given frame, using one of the available filter instances
+     */
+    private Future<BufferedImage> startRendering(BlockingQueue<ParametrizedFilter> filters,
+                                                 BufferedImage src,
+                                                 int frame, int numFrames) {
+        double time = ((double) frame) / numFrames;
+        return ThreadPool.submit2(() -> {
+            ParametrizedFilter filter = filters.take();
+            try {
+                ParamSetState intermediateState = animation.tween(time);
+                filter.getParamSet().setState(intermediateState);
+                return filter.transformImage(src);
+            } finally {
+                filters.put(filter);
+            }
+        });
+    }
 
-        ParamSetState intermediateState = animation.tween(time);
-        filter.getParamSet().setState(intermediateState);
+    /**
+     * Shows the given filtered image as the preview of the
+     * drawable, and returns the resulting composite image
+     */
+    private BufferedImage showFrame(ParametrizedFilter filter, BufferedImage filtered) {
+        BufferedImage[] frame = new BufferedImage[1];
 
         // all sorts of problems can happen
-        // if filters run outside of EDT
-        Runnable filterRunTask = () -> filter.run(dr, TWEEN_PREVIEW, busyCursorParent);
-        GUIUtils.invokeAndWait(filterRunTask);
+        // if the previews are changed outside of EDT
+        GUIUtils.invokeAndWait(() -> {
+            dr.changePreviewImage(filtered, filter.getName(), TWEEN_PREVIEW);
 
-        long runCountAfter = Filter.runCount;
-        assert runCountAfter == runCountBefore + 1;
+            Composition comp = dr.getComp();
+            comp.repaint();
 
-        Composition comp = dr.getComp();
-        comp.repaint();
-
-        return comp.getCompositeImage();
+            // copied, because the composite image can be
+            // updated in place while the frame is waiting to be written
+            frame[0] = ImageUtils.copyImage(comp.getCompositeImage());
+        });
+        return frame[0];
     }
 
     @Override
@@ -24,6 +24,7 @@ import pixelitor.history.MultiLayerBackup;
 import pixelitor.history.MultiLayerEdit;
 import pixelitor.utils.Messages;
 
+import java.awt.Dimension;
 import java.awt.geom.AffineTransform;
 
 import static pixelitor.Composition.ImageChangeActions.REPAINT;
@@ -32,8 +33,8 @@ import static pixelitor.Composition.ImageChangeActions.REPAINT;
  * Resizes all content layers of a composition
  */
 public class Resize implements CompAction {
-    private int canvasTargetWidth;
-    private int canvasTargetHeight;
+    private final int canvasTargetWidth;
+    private final int canvasTargetHeight;
 
     // if true, resizes an image so that the proportions
     // are kept and the result fits into the given dimensions
@@ -55,30 +56,32 @@ public class Resize implements CompAction {
             return;
         }
 
+        // calculated for each composition, because in batch
+        // mode the same object resizes many compositions
+        int targetWidth = canvasTargetWidth;
+        int targetHeight = canvasTargetHeight;
         if (resizeInBox) {
-            double heightScale = canvasTargetHeight / (double) canvasCurrHeight;
-            double widthScale = canvasTargetWidth / (double) canvasCurrWidth;
-            double scale = Math.min(heightScale, widthScale);
-
-            canvasTargetWidth = (int) (scale * (double) canvasCurrWidth);
-            canvasTargetHeight = (int) (scale * (double) canvasCurrHeight);
+            Dimension sizeInBox = calcSizeInBox(canvasCurrWidth, canvasCurrHeight,
+                    canvasTargetWidth, canvasTargetHeight);
+            targetWidth = sizeInBox.width;
+            targetHeight = sizeInBox.height;
         }
 
         String editName = "Resize";
         MultiLayerBackup backup = new MultiLayerBackup(comp, editName, true);
 
+        double sx = ((double) targetWidth) / canvasCurrWidth;
+        double sy = ((double) targetHeight) / canvasCurrHeight;
         comp.transformSelection(() -> {
-            double sx = ((double) canvasTargetWidth) / canvasCurrWidth;
-            double sy = ((double) canvasTargetHeight) / canvasCurrHeight;
             return AffineTransform.getScaleInstance(sx, sy);
         });
 
-        resizeLayers(comp);
+        resizeLayers(comp, targetWidth, targetHeight);
 
         MultiLayerEdit edit = new MultiLayerEdit(editName, comp, backup);
         History.addEdit(edit);
 
-        canvas.changeImSize(canvasTargetWidth, canvasTargetHeight);
+        canvas.changeImSize(targetWidth, targetHeight);
 
         // Only after the shared canvas size was updated.
         // The icon image could change if the proportions were
@@ -88,14 +91,29 @@ public class Resize implements CompAction {
         comp.imageChanged(REPAINT, true);
 
         Messages.showInStatusBar("Image resized to "
-                + canvasTargetWidth + " x " + canvasTargetHeight + " pixels.");
+                + targetWidth + " x " + targetHeight + " pixels.");
+    }
+
+    /**
+     * Returns the size of an image with the given size after resizing
+     * it with the kept proportions so that it fits into the given box
+     */
+    public static Dimension calcSizeInBox(int width, int height,
+                                          int boxWidth, int boxHeight) {
+        double heightScale = boxHeight / (double) height;
+        double widthScale = boxWidth / (double) width;
+        double scale = Math.min(heightScale, widthScale);
+
+        return new Dimension(
+                Math.max(1, (int) (scale * (double) width)),
+                Math.max(1, (int) (scale * (double) height)));
     }
 
-    private void resizeLayers(Composition comp) {
+    private static void resizeLayers(Composition comp, int targetWidth, int targetHeight) {
         comp.forEachLayer(layer -> {
-            layer.resize(canvasTargetWidth, canvasTargetHeight);
+            layer.resize(targetWidth, targetHeight);
             if (layer.hasMask()) {
-                layer.getMask().resize(canvasTargetWidth, canvasTargetHeight);
+                layer.getMask().resize(targetWidth, targetHeight);
             }
         });
     }
@@ -1,22 +1,24 @@
 
 package pixelitor.filters.curves;
 
-import com.jhlabs.image.Curve;
-import com.jhlabs.image.CurvesFilter;
 import pixelitor.filters.gui.FilterGUI;
 import pixelitor.filters.gui.FilterWithGUI;
+import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
 import pixelitor.layers.Drawable;
 import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ShortLookupTable;
 
 /**
  * Tone ToneCurvesFilter filter
  *
  * @author Łukasz Kurzaj lukaszkurzaj@gmail.com
  */
-public class ToneCurvesFilter extends FilterWithGUI {
+public class ToneCurvesFilter extends FilterWithGUI implements FusablePointFilter {
     public static final String NAME = "Curves";
 
-    private CurvesFilter filter;
     private ToneCurves curves;
 
     @Override
@@ -30,30 +32,52 @@ public class ToneCurvesFilter extends FilterWithGUI {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
-        if(filter == null) {
-            filter = new CurvesFilter(NAME);
-        }
-        if (this.curves == null) {
+        if (curves == null) {
             return src;
         }
 
-        if (this.curves.getActiveCurve().curveType == ToneCurveType.RGB) {
-            Curve curve = this.curves.getActiveCurve().curve;
-            filter.setCurve(curve);
-        } else {
-            Curve[] curves = new Curve[3];
-            curves[0] = this.curves.getCurve(ToneCurveType.RED).curve;
-            curves[1] = this.curves.getCurve(ToneCurveType.GREEN).curve;
-            curves[2] = this.curves.getCurve(ToneCurveType.BLUE).curve;
-            filter.setCurves(curves);
+        int[][] tables = createTables();
+        short[][] shortTables = new short[3][256];
+        for (int channel = 0; channel < 3; channel++) {
+            for (int i = 0; i < 256; i++) {
+                shortTables[channel][i] = (short) tables[channel][i];
+            }
         }
 
-        dest = filter.filter(src, dest);
+        BufferedImageOp filterOp = new FastLookupOp(new ShortLookupTable(0, shortTables));
+        filterOp.filter(src, dest);
         return dest;
     }
 
+    @Override
+    public void addTo(PointOpChain chain) {
+        if (curves == null) {
+            return;
+        }
+
+        int[][] tables = createTables();
+        chain.addLookup(tables[0], tables[1], tables[2]);
+    }
+
+    // the red, green and blue lookup tables of the current curves
+    private int[][] createTables() {
+        if (curves.getActiveCurve().curveType == ToneCurveType.RGB) {
+            int[] table = curves.getActiveCurve().curve.makeTable();
+            return new int[][]{table, table, table};
+        }
+        return new int[][]{
+                curves.getCurve(ToneCurveType.RED).curve.makeTable(),
+                curves.getCurve(ToneCurveType.GREEN).curve.makeTable(),
+                curves.getCurve(ToneCurveType.BLUE).curve.makeTable()};
+    }
+
     @Override
     public void randomizeSettings() {
         // not supported yet
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.gui;
+
+import pixelitor.ThreadPool;
+import pixelitor.filters.Filter;
+import pixelitor.filters.FilterUtils;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.CancellationToken;
+import pixelitor.utils.Messages;
+
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static pixelitor.ChangeReason.PREVIEWING;
+
+/**
+ * Runs the previews of a filter dialog on a background thread,
+ * so that the dialog stays responsive while the filter is running.
+ *
+ * Only the latest request matters: a new request cancels the running
+ * preview, and the requests that were queued in the meantime are skipped.
+ * For filters supporting progressive previews a low-resolution
+ * result is shown first.
+ * All methods must be called on the EDT.
+ */
+class AsyncPreviewRunner {
+    private static final ThreadFactory threadFactory = r -> {
+        Thread t = new Thread(r, "[Preview thread]");
+        t.setDaemon(true);
+        return t;
+    };
+
+    // a single thread, because the filter objects
+    // must not be used by two previews at the same time
+    private static final ExecutorService executor
+            = Executors.newSingleThreadExecutor(threadFactory);
+
+    // progressive previews start with an image of about this many pixels
+    private static final int LOW_RES_PIXELS = 300_000;
+
+    // the filter used by the preview thread, or null
+    private static volatile Filter busyFilter;
+
+    private final Filter filter;
+    private final Drawable dr;
+
+    // the token of the latest preview request
+    private CancellationToken latestToken;
+
+    // true if the result of the latest request was shown
+    private boolean upToDate = true;
+
+    // runs when the result of the latest request is shown, if the
+    // dialog was accepted while that request was still running
+    private Runnable whenFinished;
+
+    AsyncPreviewRunner(Filter filter, Drawable dr) {
+        this.filter = filter;
+        this.dr = dr;
+    }
+
+    /**
+     * Starts a new preview with the current filter settings
+     */
+    void runPreview() {
+        assert EventQueue.isDispatchThread() : "not EDT thread";
+
+        if (latestToken != null) {
+            latestToken.cancel();
+        }
+        CancellationToken token = new CancellationToken();
+        latestToken = token;
+        upToDate = false;
+
+        // the source image is calculated lazily, therefore it
+        // is better to get it on the EDT than on the preview thread
+        BufferedImage src = dr.getFilterSourceImage();
+        executor.execute(() -> calculatePreview(src, token));
+    }
+
+    private void calculatePreview(BufferedImage src, CancellationToken token) {
+        if (token.isCancelled()) {
+            return; // a newer request arrived before this one started
+        }
+
+        busyFilter = filter;
+        try {
+            double lowResScale = calcLowResScale(src);
+            if (lowResScale < 1.0) {
+                // first show a quick approximation
+                BufferedImage lowResDest = ThreadPool.callCancellable(token,
+                        () -> filter.transformImageAtLowRes(src, lowResScale));
+                EventQueue.invokeLater(() -> showLowResPreview(lowResDest, token));
+            }
+
+            long startTime = System.nanoTime();
+            BufferedImage dest = ThreadPool.callCancellable(token,
+                    () -> filter.transformImage(src));
+            long totalTime = (System.nanoTime() - startTime) / 1_000_000;
+            EventQueue.invokeLater(() -> showPreview(dest, token, totalTime));
+        } catch (CancellationException e) {
+            // a newer request arrived while this one was running
+        } catch (Throwable e) {
+            EventQueue.invokeLater(() -> {
+                if (!token.isCancelled()) {
+                    upToDate = true;
+                    filter.handleException(e, dr);
+                    runWhenFinished();
+                }
+            });
+        } finally {
+            busyFilter = null;
+        }
+    }
+
+    /**
+     * Returns the downscaling factor for the low-resolution pass,
+     * or 1.0 if there should be no such pass
+     */
+    private double calcLowResScale(BufferedImage src) {
+        if (!filter.supportsProgressivePreview()) {
+            return 1.0;
+        }
+        double numPixels = (double) src.getWidth() * src.getHeight();
+        if (numPixels < 4 * LOW_RES_PIXELS) {
+            // small enough, the full-resolution preview will be fast
+            return 1.0;
+        }
+        return Math.sqrt(LOW_RES_PIXELS / numPixels);
+    }
+
+    private void showLowResPreview(BufferedImage dest, CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        // upToDate remains false, the full-resolution result is still needed
+        dr.changePreviewImage(dest, filter.getName(), PREVIEWING);
+    }
+
+    private void showPreview(BufferedImage dest, CancellationToken token, long totalTime) {
+        if (token.isCancelled()) {
+            // a newer request arrived or the dialog was closed
+            // while this result was waiting for the EDT
+            return;
+        }
+        upToDate = true;
+
+        dr.changePreviewImage(dest, filter.getName(), PREVIEWING);
+        Messages.showPerformanceMessage(filter.getName(), totalTime);
+        FilterUtils.setLastFilter(filter);
+        runWhenFinished();
+    }
+
+    private void runWhenFinished() {
+        if (whenFinished != null) {
+            Runnable task = whenFinished;
+            whenFinished = null;
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the given task when the preview shows the result of the
+     * latest settings, because the dialog is about to be accepted.
+     * The latest request is already queued or running, therefore
+     * this doesn't calculate anything and doesn't block the EDT.
+     */
+    void finish(Runnable task) {
+        if (upToDate) {
+            task.run();
+        } else {
+            whenFinished = task;
+        }
+    }
+
+    /**
+     * Cancels the running preview without waiting for it:
+     * its result will be ignored when it arrives.
+     */
+    void stop() {
+        if (latestToken != null) {
+            latestToken.cancel();
+        }
+        whenFinished = null;
+    }
+
+    /**
+     * Waits until the preview thread stops using the given filter.
+     * The previews are cancelled without waiting when a dialog is
+     * closed, therefore a cancelled preview might still run when
+     * the same filter is started again on the EDT.
+     */
+    static void waitUntilNotUsed(Filter filter) {
+        if (busyFilter != filter) {
+            return;
+        }
+        try {
+            // all queued previews are cancelled, therefore this returns
+            // as soon as the running one notices the cancellation
+            executor.submit(() -> {
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -31,6 +31,9 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
     protected Filter filter;
     private final Drawable dr;
 
+    // null if the previews run synchronously on the EDT
+    private AsyncPreviewRunner asyncPreviews;
+
     protected FilterGUI(Filter filter, Drawable dr) {
         this.filter = filter;
         this.dr = dr;
@@ -38,6 +41,41 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
 
     @Override
     public void runFilterPreview() {
-        filter.run(dr, PREVIEWING, this);
+        if (asyncPreviews != null) {
+            asyncPreviews.runPreview();
+        } else {
+            // a cancelled preview of a previous dialog might still be running
+            AsyncPreviewRunner.waitUntilNotUsed(filter);
+            filter.run(dr, PREVIEWING, this);
+        }
+    }
+
+    /**
+     * From now on the previews will be calculated on a background thread.
+     * Called after the first (synchronous) preview was calculated.
+     */
+    public void startAsyncPreviews() {
+        asyncPreviews = new AsyncPreviewRunner(filter, dr);
+    }
+
+    /**
+     * Called when the dialog is accepted: runs the given task
+     * when the preview corresponds to the current settings.
+     */
+    public void finishPreviews(Runnable whenFinished) {
+        if (asyncPreviews != null) {
+            asyncPreviews.finish(whenFinished);
+        } else {
+            whenFinished.run();
+        }
+    }
+
+    /**
+     * Called right before the dialog is canceled
+     */
+    public void cancelPreviews() {
+        if (asyncPreviews != null) {
+            asyncPreviews.stop();
+        }
     }
 }
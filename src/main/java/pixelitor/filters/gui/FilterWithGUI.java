@@ -17,6 +17,7 @@
 
 package pixelitor.filters.gui;
 
+import pixelitor.Build;
 import pixelitor.filters.Filter;
 import pixelitor.gui.utils.DialogBuilder;
 import pixelitor.layers.Drawable;
@@ -43,13 +44,20 @@ public abstract class FilterWithGUI extends Filter {
         dr.startPreviewing();
 
         FilterGUI gui = createGUI(dr);
+        if (!Build.isTesting()) {
+            gui.startAsyncPreviews();
+        }
         new DialogBuilder()
                 .title(getName())
                 .name("filterDialog")
                 .content(gui)
                 .withScrollbars()
-                .okAction(() -> dr.onDialogAccepted(getName()))
-                .cancelAction(dr::onDialogCanceled)
+                .okAction(() -> gui.finishPreviews(
+                        () -> dr.onDialogAccepted(getName())))
+                .cancelAction(() -> {
+                    gui.cancelPreviews();
+                    dr.onDialogCanceled();
+                })
                 .show();
     }
 }
@@ -183,6 +183,15 @@ public class ParamSet {
         return Utils.anyMatch(paramList, FilterParam::canBeAnimated);
     }
 
+    /**
+     * Returns true if the whole state of the parameters can be
+     * transferred with {@link #copyState()} and {@link #setState},
+     * which is the case only if all of them can be animated
+     */
+    public boolean stateCanBeCopied() {
+        return paramList.stream().allMatch(FilterParam::canBeAnimated);
+    }
+
     public void setFinalAnimationSettingMode(boolean b) {
         for (FilterParam param : paramList) {
             param.setEnabled(!b, FINAL_ANIMATION_SETTING);
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A rank filter with a square window of arbitrary radius:
+ * a median, minimum, maximum or any percentile filter.
+ * It can also clamp only the outlier pixels to the range
+ * of their neighbors, for removing dust and noise.
+ *
+ * The channels are ranked independently, with the constant-time
+ * algorithm from "Median Filtering in Constant Time" by Perreault
+ * and Hébert: every column has a histogram of the pixels in the
+ * window rows, and the histogram of the window is updated by adding
+ * the entering and removing the leaving column histogram. The histograms
+ * have a coarse level of 16 bins, and the 16 fine bins of a coarse bin
+ * are only updated when the selected value falls into that coarse bin.
+ * The rows are processed in parallel strips that are at least as tall
+ * as the window, so that the cost per pixel doesn't depend on the radius.
+ */
+public class RankFilter extends WholeImageFilter {
+    public static final int OP_PERCENTILE = 1;
+    public static final int OP_CLAMP_OUTLIERS = 2;
+
+    private static final int NUM_BINS = 256;
+    private static final int NUM_COARSE_BINS = 16;
+    private static final int FINE_PER_COARSE = NUM_BINS / NUM_COARSE_BINS;
+
+    private int radius = 1;
+    private double percentile = 50;
+    private int op = OP_PERCENTILE;
+
+    public RankFilter(String filterName) {
+        super(filterName);
+    }
+
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Sets the selected percentile in the [0, 100] range:
+     * 0 is the minimum, 50 is the median, 100 is the maximum
+     */
+    public void setPercentile(double percentile) {
+        assert percentile >= 0 && percentile <= 100 : "percentile = " + percentile;
+        this.percentile = percentile;
+    }
+
+    /**
+     * With OP_PERCENTILE every channel is replaced by the selected
+     * percentile of the window, with OP_CLAMP_OUTLIERS the (color)
+     * channels are clamped between the smallest and the largest values
+     * of the other pixels in the window.
+     */
+    public void setOp(int op) {
+        this.op = op;
+    }
+
+    @Override
+    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
+        int[] outPixels = new int[width * height];
+        if (radius <= 0) {
+            System.arraycopy(inPixels, 0, outPixels, 0, inPixels.length);
+            return outPixels;
+        }
+
+        // every strip starts by filling the column histograms with
+        // 2 * radius + 1 rows, so the strips are made at least that tall,
+        // otherwise this setup would cost more than the strip itself
+        int grain = Math.max(ThreadPool.calcGrain(height), 2 * radius + 1);
+
+        pt = createProgressTracker(height);
+        ThreadPool.parallelForStrips(height, grain, pt, (startY, endY) -> {
+            // the histograms are reused for the channels of the strip
+            Histograms histograms = new Histograms(width);
+            int firstShift = op == OP_CLAMP_OUTLIERS ? 16 : 24;
+            for (int shift = firstShift; shift >= 0; shift -= 8) {
+                filterChannel(inPixels, outPixels, width, height, startY, endY, shift, histograms);
+            }
+            if (op == OP_CLAMP_OUTLIERS) {
+                // the alpha is not changed
+                for (int i = startY * width, end = endY * width; i < end; i++) {
+                    outPixels[i] |= inPixels[i] & 0xFF000000;
+                }
+            }
+        });
+        finishProgressTracker();
+
+        return outPixels;
+    }
+
+    private void filterChannel(int[] inPixels, int[] outPixels, int width, int height,
+                               int startY, int endY, int shift, Histograms h) {
+        h.clearColumns();
+
+        // the column histograms for the window rows of the first line
+        int firstRow = Math.max(0, startY - radius);
+        int lastRow = Math.min(height - 1, startY + radius);
+        for (int y = firstRow; y <= lastRow; y++) {
+            h.updateColumns(inPixels, y * width, shift, 1);
+        }
+
+        for (int y = startY; y < endY; y++) {
+            if (y > startY) {
+                int leavingRow = y - radius - 1;
+                if (leavingRow >= 0) {
+                    h.updateColumns(inPixels, leavingRow * width, shift, -1);
+                }
+                int enteringRow = y + radius;
+                if (enteringRow < height) {
+                    h.updateColumns(inPixels, enteringRow * width, shift, 1);
+                }
+            }
+            int numRows = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+
+            h.startLine(Math.min(width - 1, radius));
+            int index = y * width;
+            for (int x = 0; x < width; x++, index++) {
+                if (x > 0) {
+                    h.moveRight(x, radius);
+                }
+                int numCols = Math.min(width - 1, x + radius) - Math.max(0, x - radius) + 1;
+                int count = numRows * numCols;
+
+                int value;
+                if (op == OP_CLAMP_OUTLIERS) {
+                    int center = (inPixels[index] >>> shift) & 0xFF;
+                    if (count < 3) {
+                        value = center;
+                    } else {
+                        // the second smallest and second largest values of the
+                        // window are the extremes of the other pixels if
+                        // the center is an extreme, otherwise they don't matter
+                        int low = h.select(1, x, radius);
+                        int high = h.select(count - 2, x, radius);
+                        value = Math.max(low, Math.min(high, center));
+                    }
+                } else {
+                    int rank = (int) Math.round(percentile / 100.0 * (count - 1));
+                    value = h.select(rank, x, radius);
+                }
+                outPixels[index] |= value << shift;
+            }
+        }
+    }
+
+    /**
+     * The column and window histograms of one channel
+     */
+    private static class Histograms {
+        private final int width;
+
+        // the column histograms, the counts fit into chars
+        // as long as the window is at most 65535 pixels high
+        private final char[] colFine;
+        private final char[] colCoarse;
+
+        // the window histograms
+        private final int[] fine = new int[NUM_BINS];
+        private final int[] coarse = new int[NUM_COARSE_BINS];
+
+        // the x position at which the fine bins of each coarse bin
+        // were last updated, or -1 if they are outdated
+        private final int[] fineUpdatedAt = new int[NUM_COARSE_BINS];
+
+        Histograms(int width) {
+            this.width = width;
+            colFine = new char[width * NUM_BINS];
+            colCoarse = new char[width * NUM_COARSE_BINS];
+        }
+
+        void clearColumns() {
+            Arrays.fill(colFine, (char) 0);
+            Arrays.fill(colCoarse, (char) 0);
+        }
+
+        /**
+         * Adds (sign = 1) or removes (sign = -1) a row of pixels to/from
+         * the column histograms. This is constant time per column.
+         */
+        void updateColumns(int[] pixels, int rowOffset, int shift, int sign) {
+            for (int x = 0; x < width; x++) {
+                int v = (pixels[rowOffset + x] >>> shift) & 0xFF;
+                colFine[x * NUM_BINS + v] += sign;
+                colCoarse[x * NUM_COARSE_BINS + v / FINE_PER_COARSE] += sign;
+            }
+        }
+
+        /**
+         * Sets the coarse window histogram for x = 0, and
+         * marks all the fine bins as outdated.
+         */
+        void startLine(int lastCol) {
+            Arrays.fill(coarse, 0);
+            for (int col = 0; col <= lastCol; col++) {
+                addCoarse(col, 1);
+            }
+            Arrays.fill(fineUpdatedAt, -1);
+        }
+
+        void moveRight(int x, int radius) {
+            int leaving = x - radius - 1;
+            if (leaving >= 0) {
+                addCoarse(leaving, -1);
+            }
+            int entering = x + radius;
+            if (entering < width) {
+                addCoarse(entering, 1);
+            }
+        }
+
+        private void addCoarse(int col, int sign) {
+            int offset = col * NUM_COARSE_BINS;
+            for (int i = 0; i < NUM_COARSE_BINS; i++) {
+                coarse[i] += sign * colCoarse[offset + i];
+            }
+        }
+
+        /**
+         * Returns the value with the given rank (0-based, in ascending order)
+         * in the window centered at x
+         */
+        int select(int rank, int x, int radius) {
+            int bin = 0;
+            int sum = 0;
+            while (sum + coarse[bin] <= rank) {
+                sum += coarse[bin];
+                bin++;
+            }
+
+            updateFine(bin, x, radius);
+
+            int v = bin * FINE_PER_COARSE;
+            while (sum + fine[v] <= rank) {
+                sum += fine[v];
+                v++;
+            }
+            return v;
+        }
+
+        /**
+         * Brings the fine bins of the given coarse bin up to date
+         * with the window centered at x, either by adding and removing
+         * the columns that changed since the last update, or if
+         * that would be slower, by summing all columns of the window.
+         */
+        private void updateFine(int bin, int x, int radius) {
+            int lastX = fineUpdatedAt[bin];
+            int firstFine = bin * FINE_PER_COARSE;
+            if (lastX < 0 || x - lastX > radius) {
+                Arrays.fill(fine, firstFine, firstFine + FINE_PER_COARSE, 0);
+                int lastCol = Math.min(width - 1, x + radius);
+                for (int col = Math.max(0, x - radius); col <= lastCol; col++) {
+                    addFine(col, firstFine, 1);
+                }
+            } else {
+                for (int xx = lastX + 1; xx <= x; xx++) {
+                    int leaving = xx - radius - 1;
+                    if (leaving >= 0) {
+                        addFine(leaving, firstFine, -1);
+                    }
+                    int entering = xx + radius;
+                    if (entering < width) {
+                        addFine(entering, firstFine, 1);
+                    }
+                }
+            }
+            fineUpdatedAt[bin] = x;
+        }
+
+        private void addFine(int col, int firstFine, int sign) {
+            int offset = col * NUM_BINS + firstFine;
+            for (int i = 0; i < FINE_PER_COARSE; i++) {
+                fine[firstFine + i] += sign * colFine[offset + i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Blur/Rank";
+    }
+}
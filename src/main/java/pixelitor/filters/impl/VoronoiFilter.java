@@ -20,6 +20,7 @@ package pixelitor.filters.impl;
 import com.jhlabs.image.PointFilter;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Metric;
+import pixelitor.utils.NearestPointIndex;
 import pixelitor.utils.ReseedSupport;
 
 import java.awt.Color;
@@ -40,6 +41,7 @@ public class VoronoiFilter extends PointFilter {
     private int[] yCoords;
     private int[] colors;
     private Metric metric;
+    private NearestPointIndex pointIndex;
     private boolean useImageColors;
 
     private int aaRes = 2;
@@ -84,6 +86,8 @@ public class VoronoiFilter extends PointFilter {
                 colors[i] = 0xFF_00_00_00 | rand.nextInt(0xFF_FF_FF);
             }
         }
+        pointIndex = new NearestPointIndex(xCoords, yCoords, numPoints,
+                src.getWidth(), src.getHeight(), metric);
 
         return super.filter(src, dst);
     }
@@ -109,41 +113,14 @@ public class VoronoiFilter extends PointFilter {
 
     @Override
     public int filterRGB(int x, int y, int rgb) {
-        int closestPointIndex = 0;
-        double fromHereToClosestSoFar = metric.distanceInt(
-                xCoords[closestPointIndex], x,
-                yCoords[closestPointIndex], y);
-
-        for (int i = 0; i < numPoints; i++) {
-            double fromHereToPointI = metric.distanceInt(
-                    xCoords[i], x, yCoords[i], y);
-            if (fromHereToPointI < fromHereToClosestSoFar) {
-                closestPointIndex = i;
-                fromHereToClosestSoFar = fromHereToPointI;
-            }
-        }
-
-        return colors[closestPointIndex];
+        return colors[pointIndex.findNearest(x, y)];
     }
 
     /**
      * Finds the nearest point with double precision. Used for AA
      */
     private int nearestSiteDouble(double x, double y) {
-        int closestPointIndex = 0;
-        double fromHereToClosestSoFar = metric.distanceDouble(
-                xCoords[closestPointIndex], x,
-                yCoords[closestPointIndex], y);
-
-        for (int i = 0; i < numPoints; i++) {
-            double fromHereToPointI = metric.distanceDouble(
-                    xCoords[i], x, yCoords[i], y);
-            if (fromHereToPointI < fromHereToClosestSoFar) {
-                closestPointIndex = i;
-                fromHereToClosestSoFar = fromHereToPointI;
-            }
-        }
-        return closestPointIndex;
+        return pointIndex.findNearest(x, y);
     }
 
     /**
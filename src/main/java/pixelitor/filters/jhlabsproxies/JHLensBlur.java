@@ -63,7 +63,7 @@ public class JHLensBlur extends ParametrizedFilter {
             filter = new LensBlurFilter(NAME);
         }
 
-        filter.setRadius(amount.getValueAsFloat());
+        filter.setRadius((float) (amount.getValueAsFloat() * getResolutionScale()));
         filter.setSides(numberOfSides.getValue());
         filter.setBloom(bloomFactor.getValueAsFloat());
         filter.setBloomThreshold(bloomThreshold.getValueAsFloat());
@@ -76,4 +76,9 @@ public class JHLensBlur extends ParametrizedFilter {
 
         return dest;
     }
+
+    @Override
+    public boolean supportsProgressivePreview() {
+        return true;
+    }
 }
\ No newline at end of file
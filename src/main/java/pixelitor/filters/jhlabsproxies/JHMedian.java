@@ -17,26 +17,73 @@
 
 package pixelitor.filters.jhlabsproxies;
 
-import com.jhlabs.image.MedianFilter;
-import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.IntChoiceParam;
+import pixelitor.filters.gui.IntChoiceParam.Value;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.gui.ShowOriginal;
+import pixelitor.filters.impl.RankFilter;
 
 import java.awt.image.BufferedImage;
 
+import static pixelitor.filters.impl.RankFilter.OP_PERCENTILE;
+
 /**
- * "3x3 Median Filter" based on the JHLabs {@link MedianFilter}
+ * A median filter with an arbitrary radius, which can also select
+ * the minimum, the maximum or any percentile, based on {@link RankFilter}
  */
-public class JHMedian extends Filter {
-    public static final String NAME = "3x3 Median Filter";
+public class JHMedian extends ParametrizedFilter {
+    public static final String NAME = "Median";
+
+    private static final int MEDIAN = 0;
+    private static final int MINIMUM = 1;
+    private static final int MAXIMUM = 2;
+    private static final int PERCENTILE = 3;
 
-    private final MedianFilter filter;
+    private final RangeParam radius = new RangeParam("Radius", 1, 1, 100);
+    private final IntChoiceParam type = new IntChoiceParam("Type", new Value[]{
+            new Value("Median", MEDIAN),
+            new Value("Minimum", MINIMUM),
+            new Value("Maximum", MAXIMUM),
+            new Value("Percentile", PERCENTILE),
+    });
+    private final RangeParam percentile = new RangeParam("Percentile", 0, 25, 100);
 
     public JHMedian() {
-        filter = new MedianFilter(NAME);
+        super(ShowOriginal.YES);
+
+        type.setupEnableOtherIf(percentile,
+                v -> v.getValue() == PERCENTILE);
+        setParams(
+                radius,
+                type,
+                percentile
+        );
     }
 
     @Override
-    public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+    public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        RankFilter filter = new RankFilter(NAME);
+        filter.setOp(OP_PERCENTILE);
+        filter.setRadius(radius.getValue());
+        filter.setPercentile(getSelectedPercentile());
+
         dest = filter.filter(src, dest);
         return dest;
     }
+
+    private double getSelectedPercentile() {
+        switch (type.getValue()) {
+            case MEDIAN:
+                return 50;
+            case MINIMUM:
+                return 0;
+            case MAXIMUM:
+                return 100;
+            case PERCENTILE:
+                return percentile.getValue();
+            default:
+                throw new IllegalStateException("type = " + type.getValue());
+        }
+    }
 }
\ No newline at end of file
@@ -69,6 +69,9 @@ public class JHOilPainting extends ParametrizedFilter {
         if (brushX == 0 && brushY == 0) {
             return src;
         }
+        double resolutionScale = getResolutionScale();
+        brushX = (int) Math.round(brushX * resolutionScale);
+        brushY = (int) Math.round(brushY * resolutionScale);
 
         // important to re-create because the progress tracker
         // is different for big and small images
@@ -121,4 +124,9 @@ public class JHOilPainting extends ParametrizedFilter {
     public boolean excludedFromAnimation() {
         return true;
     }
+
+    @Override
+    public boolean supportsProgressivePreview() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -17,26 +17,37 @@
 
 package pixelitor.filters.jhlabsproxies;
 
-import com.jhlabs.image.ReduceNoiseFilter;
-import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.gui.ShowOriginal;
+import pixelitor.filters.impl.RankFilter;
 
 import java.awt.image.BufferedImage;
 
+import static pixelitor.filters.impl.RankFilter.OP_CLAMP_OUTLIERS;
+
 /**
- * "Reduce Single Pixel Noise" filter based on the
- * JHLabs {@link ReduceNoiseFilter}
+ * Reduces the noise by clamping each pixel between the minimum and
+ * maximum of its neighbors, based on {@link RankFilter}. With radius 1
+ * it works like the "Reduce Single Pixel Noise" JHLabs ReduceNoiseFilter.
  */
-public class JHReduceNoise extends Filter {
-    public static final String NAME = "Reduce Single Pixel Noise";
+public class JHReduceNoise extends ParametrizedFilter {
+    public static final String NAME = "Reduce Noise";
 
-    private final ReduceNoiseFilter filter;
+    private final RangeParam radius = new RangeParam("Radius", 1, 1, 50);
 
     public JHReduceNoise() {
-        filter = new ReduceNoiseFilter(NAME);
+        super(ShowOriginal.YES);
+
+        setParams(radius);
     }
 
     @Override
-    public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+    public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        RankFilter filter = new RankFilter(NAME);
+        filter.setOp(OP_CLAMP_OUTLIERS);
+        filter.setRadius(radius.getValue());
+
         dest = filter.filter(src, dest);
         return dest;
     }
@@ -59,7 +59,7 @@ public class JHSmartBlur extends ParametrizedFilter {
             filter = new SmartBlurFilter(NAME);
         }
 
-        filter.setRadius(radius);
+        filter.setRadius((int) Math.round(radius * getResolutionScale()));
         filter.setThreshold(threshold.getValue());
 
         dest = filter.filter(src, dest);
@@ -75,4 +75,9 @@ public class JHSmartBlur extends ParametrizedFilter {
     public boolean excludedFromAnimation() {
         return true;
     }
+
+    @Override
+    public boolean supportsProgressivePreview() {
+        return true;
+    }
 }
\ No newline at end of file
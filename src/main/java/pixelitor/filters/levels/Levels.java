@@ -21,6 +21,8 @@ import pixelitor.filters.gui.FilterGUI;
 import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.filters.levels.gui.LevelsGUI;
 import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
 import pixelitor.layers.Drawable;
 import pixelitor.utils.RandomUtils;
 
@@ -32,7 +34,7 @@ import java.util.Objects;
 /**
  * The Levels filter
  */
-public class Levels extends FilterWithGUI {
+public class Levels extends FilterWithGUI implements FusablePointFilter {
     private RGBLookup rgbLookup;
 
     public Levels() {
@@ -60,6 +62,14 @@ public class Levels extends FilterWithGUI {
         return dest;
     }
 
+    @Override
+    public void addTo(PointOpChain chain) {
+        if (rgbLookup == null) {
+            throw new IllegalStateException("rgbLookup not initialized");
+        }
+        chain.addLookup(rgbLookup);
+    }
+
     @Override
     public void randomizeSettings() {
         int inputBlackValue = RandomUtils.nextInt(255);
@@ -71,7 +81,7 @@ public class Levels extends FilterWithGUI {
     }
 
     @Override
-    public boolean supportsGray() {
-        return false;
+    public boolean isPointFilter() {
+        return true;
     }
 }
\ No newline at end of file
@@ -40,7 +40,7 @@ import static java.awt.Color.YELLOW;
 /**
  * Color balance filter
  */
-public class ColorBalance extends ParametrizedFilter {
+public class ColorBalance extends ParametrizedFilter implements FusablePointFilter {
     private static final int EVERYTHING = 0;
     private static final int SHADOWS = 1;
     private static final int MIDTONES = 2;
@@ -89,6 +89,20 @@ public class ColorBalance extends ParametrizedFilter {
         return dest;
     }
 
+    @Override
+    public void addTo(PointOpChain chain) {
+        float cr = cyanRed.getValueAsFloat();
+        float mg = magentaGreen.getValueAsFloat();
+        float yb = yellowBlue.getValueAsFloat();
+
+        if ((cr == 0) && (mg == 0) && (yb == 0)) {
+            return;
+        }
+
+        chain.addLookup(new LookupHelper(cr, mg, yb, affect.getValue())
+                .getLookup());
+    }
+
     private static class LookupHelper {
         private final float cyanRed;
         private final float magentaGreen;
@@ -180,7 +194,7 @@ public class ColorBalance extends ParametrizedFilter {
     }
 
     @Override
-    public boolean supportsGray() {
-        return false;
+    public boolean isPointFilter() {
+        return true;
     }
 }
@@ -17,24 +17,48 @@
 
 package pixelitor.filters.lookup;
 
-import com.jhlabs.image.PixelUtils;
-import pixelitor.utils.ImageUtils;
+import pixelitor.ThreadPool;
 
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.LookupOp;
 import java.awt.image.ShortLookupTable;
 
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
 /**
  * Performs 4-5 times faster than {@link LookupOp} if
- * the image has packed ints
+ * the image has packed ints, even on a single thread,
+ * and the rows of big images are processed in parallel.
+ * Grayscale (mask) images are also supported.
  */
 public class FastLookupOp implements BufferedImageOp {
+    // below this the parallelization is not worth it
+    private static final int MIN_PARALLEL_PIXELS = 64 * 1024;
+
+    // UNPREMULTIPLY[(a << 8) | c] is the color value c
+    // of a premultiplied pixel with alpha a divided by the alpha
+    private static final byte[] UNPREMULTIPLY = new byte[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                UNPREMULTIPLY[(a << 8) | c] = (byte) Math.min(255, c * 255 / a);
+            }
+        }
+    }
+
     private final ShortLookupTable lut;
 
     public FastLookupOp(ShortLookupTable lut) {
@@ -43,70 +67,10 @@ public class FastLookupOp implements BufferedImageOp {
 
     @Override
     public BufferedImage filter(BufferedImage src, BufferedImage dst) {
-        boolean packedInt = ImageUtils.hasPackedIntArray(src);
-        if (packedInt) {
-            boolean notPremultiplied = !src.isAlphaPremultiplied();
-
-            int[] srcData = ((DataBufferInt) src.getRaster()
-                    .getDataBuffer()).getData();
-
-            int[] destData = ((DataBufferInt) dst.getRaster()
-                    .getDataBuffer()).getData();
-
-            int length = srcData.length;
-            assert length == destData.length;
-
-            short[][] table = lut.getTable();
-
-            for (int i = 0; i < length; i++) {
-                int rgb = srcData[i];
-                int a = (rgb >>> 24) & 0xFF;
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = (rgb) & 0xFF;
-
-                if (a == 255 || notPremultiplied) {
-                    r = table[0][r];
-                    g = table[1][g];
-                    b = table[2][b];
-                } else if (a == 0) {
-                    r = 0;
-                    g = 0;
-                    b = 0;
-                } else {
-                    // unpremultiply
-                    float f = 255.0f / a;
-                    int ur = (int) (r * f);
-                    int ug = (int) (g * f);
-                    int ub = (int) (b * f);
-
-                    if (ur > 255) {
-                        ur = 255;
-                    }
-                    if (ug > 255) {
-                        ug = 255;
-                    }
-                    if (ub > 255) {
-                        ub = 255;
-                    }
-
-                    // lookup
-                    ur = table[0][ur];
-                    ug = table[1][ug];
-                    ub = table[2][ub];
-
-                    // premultiply
-                    float f2 = a * (1.0f / 255.0f);
-                    r = (int) (ur * f2);
-                    g = (int) (ug * f2);
-                    b = (int) (ub * f2);
-
-                    r = PixelUtils.clamp(r);
-                    g = PixelUtils.clamp(g);
-                    b = PixelUtils.clamp(b);
-                }
-                destData[i] = (a << 24) | (r << 16) | (g << 8) | b;
-            }
+        if (hasPackedInts(src) && hasPackedInts(dst)) {
+            filterPackedInts(src, dst);
+        } else if (isGray(src) && isGray(dst)) {
+            filterGray(src, dst);
         } else { // fall back to a normal LookupOp
             BufferedImageOp lookupOp = new LookupOp(lut, null);
             lookupOp.filter(src, dst);
@@ -115,6 +79,146 @@ public class FastLookupOp implements BufferedImageOp {
         return dst;
     }
 
+    private void filterPackedInts(BufferedImage src, BufferedImage dst) {
+        int[] srcData = ((DataBufferInt) src.getRaster()
+                .getDataBuffer()).getData();
+        int[] destData = ((DataBufferInt) dst.getRaster()
+                .getDataBuffer()).getData();
+        assert srcData.length == destData.length;
+
+        short[][] table = lut.getTable();
+        short[] redTable = table[0];
+        short[] greenTable = table[1 % table.length];
+        short[] blueTable = table[2 % table.length];
+
+        // for opaque and non-premultiplied images, the
+        // alpha doesn't have to be checked at all
+        boolean simple = !src.isAlphaPremultiplied()
+                || src.getColorModel().getTransparency() == Transparency.OPAQUE;
+
+        runOnRows(src, (startIndex, endIndex) -> {
+            if (simple) {
+                for (int i = startIndex; i < endIndex; i++) {
+                    int rgb = srcData[i];
+                    destData[i] = (rgb & 0xFF000000)
+                            | (redTable[(rgb >>> 16) & 0xFF] << 16)
+                            | (greenTable[(rgb >>> 8) & 0xFF] << 8)
+                            | blueTable[rgb & 0xFF];
+                }
+            } else {
+                filterPremultiplied(srcData, destData, startIndex, endIndex,
+                        redTable, greenTable, blueTable);
+            }
+        });
+    }
+
+    private static void filterPremultiplied(int[] srcData, int[] destData,
+                                            int startIndex, int endIndex,
+                                            short[] redTable,
+                                            short[] greenTable,
+                                            short[] blueTable) {
+        for (int i = startIndex; i < endIndex; i++) {
+            int rgb = srcData[i];
+            int a = (rgb >>> 24) & 0xFF;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = (rgb) & 0xFF;
+
+            if (a == 255) {
+                r = redTable[r];
+                g = greenTable[g];
+                b = blueTable[b];
+            } else if (a == 0) {
+                r = 0;
+                g = 0;
+                b = 0;
+            } else {
+                // unpremultiply, lookup and premultiply
+                int aOffset = a << 8;
+                int ur = redTable[UNPREMULTIPLY[aOffset | r] & 0xFF];
+                int ug = greenTable[UNPREMULTIPLY[aOffset | g] & 0xFF];
+                int ub = blueTable[UNPREMULTIPLY[aOffset | b] & 0xFF];
+
+                r = div255(ur * a);
+                g = div255(ug * a);
+                b = div255(ub * a);
+            }
+            destData[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    // the truncated x / 255 for 0 <= x <= 255 * 255
+    private static int div255(int x) {
+        return (x + 1 + (x >>> 8)) >>> 8;
+    }
+
+    /**
+     * The mask images have a single gray channel. If the three
+     * tables differ, the gray value is mapped to the luminance
+     * of the gray color mapped by the three tables.
+     */
+    private void filterGray(BufferedImage src, BufferedImage dst) {
+        byte[] srcData = ((DataBufferByte) src.getRaster()
+                .getDataBuffer()).getData();
+        byte[] destData = ((DataBufferByte) dst.getRaster()
+                .getDataBuffer()).getData();
+        assert srcData.length == destData.length;
+
+        short[][] table = lut.getTable();
+        byte[] grayTable = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            int r = table[0][i];
+            int g = table[1 % table.length][i];
+            int b = table[2 % table.length][i];
+            int gray = (r == g && g == b) ? r : Math.round(LuminanceLookup.from(r, g, b));
+            grayTable[i] = (byte) Math.min(255, gray);
+        }
+
+        runOnRows(src, (startIndex, endIndex) -> {
+            for (int i = startIndex; i < endIndex; i++) {
+                destData[i] = grayTable[srcData[i] & 0xFF];
+            }
+        });
+    }
+
+    /**
+     * Runs the given task on bands of rows, in parallel for big images.
+     * The task receives the start (inclusive) and end (exclusive)
+     * indices of the band in the data array.
+     */
+    private static void runOnRows(BufferedImage img, IndexRangeTask task) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        if (width * height < MIN_PARALLEL_PIXELS) {
+            task.run(0, width * height);
+        } else {
+            ThreadPool.parallelForStrips(height, NULL_TRACKER,
+                    (startY, endY) -> task.run(startY * width, endY * width));
+        }
+    }
+
+    private static boolean hasPackedInts(BufferedImage img) {
+        int type = img.getType();
+        return (type == TYPE_INT_ARGB_PRE || type == TYPE_INT_RGB || type == TYPE_INT_ARGB)
+                && hasOnlyImagePixels(img);
+    }
+
+    private static boolean isGray(BufferedImage img) {
+        return img.getType() == TYPE_BYTE_GRAY && hasOnlyImagePixels(img);
+    }
+
+    // the data array of these image types contains exactly the
+    // pixels of the image, unless the image is a subimage
+    private static boolean hasOnlyImagePixels(BufferedImage img) {
+        return img.getRaster().getParent() == null
+                && img.getRaster().getDataBuffer().getSize()
+                == img.getWidth() * img.getHeight();
+    }
+
+    interface IndexRangeTask {
+        void run(int startIndex, int endIndex);
+    }
+
     @Override
     public Rectangle2D getBounds2D(BufferedImage src) {
         return null;
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+/**
+ * A filter that can describe its effect (with its current settings)
+ * as per-pixel operations, so that it can be fused with other
+ * such filters into a {@link PointOpChain}
+ */
+public interface FusablePointFilter {
+    /**
+     * Adds the operations of this filter to the given chain.
+     * Filters that have no effect with their current settings can add nothing.
+     */
+    void addTo(PointOpChain chain);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+import com.jhlabs.image.PixelUtils;
+import com.jhlabs.image.PointFilter;
+import pixelitor.ThreadPool;
+import pixelitor.filters.RGBPixelOp;
+import pixelitor.filters.levels.RGBLookup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.ShortLookupTable;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * A sequence of per-pixel color operations, which are applied
+ * to an image in a single pass. Consecutive lookup tables are
+ * combined into a single table, so that a stack of lookup-based
+ * adjustments costs the same as a single one.
+ * The rows of big images are processed in parallel.
+ */
+public class PointOpChain {
+    // below this the parallelization is not worth it
+    private static final int MIN_PARALLEL_PIXELS = 64 * 1024;
+
+    private final List<RGBPixelOp> ops = new ArrayList<>();
+
+    /**
+     * Adds a per-channel lookup, which is combined with the
+     * previous operation, if that is also a lookup
+     */
+    public void addLookup(int[] red, int[] green, int[] blue) {
+        if (!ops.isEmpty()) {
+            RGBPixelOp last = ops.get(ops.size() - 1);
+            if (last instanceof LookupOp) {
+                ops.set(ops.size() - 1, ((LookupOp) last).andThen(red, green, blue));
+                return;
+            }
+        }
+        ops.add(new LookupOp(red.clone(), green.clone(), blue.clone()));
+    }
+
+    public void addLookup(RGBLookup rgbLookup) {
+        short[][] table = ((ShortLookupTable) rgbLookup.getLookupOp()).getTable();
+        addLookup(toInts(table[0]), toInts(table[1]), toInts(table[2]));
+    }
+
+    public void addPixelOp(RGBPixelOp op) {
+        ops.add(op);
+    }
+
+    /**
+     * Adds a {@link PointFilter} whose result doesn't depend on the pixel position
+     */
+    public void addPointFilter(PointFilter filter) {
+        ops.add((a, r, g, b) -> filter.filterRGB(0, 0,
+                (a << 24) | (r << 16) | (g << 8) | b));
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /**
+     * Applies all the operations to the given image, and returns the
+     * result in a new image. The color values are unpremultiplied
+     * only once, and only for the pixels that need it.
+     */
+    public BufferedImage transform(BufferedImage src) {
+        ColorModel cm = src.getColorModel();
+        int width = src.getWidth();
+        int height = src.getHeight();
+        WritableRaster destRaster = cm.createCompatibleWritableRaster(width, height);
+        BufferedImage dest = new BufferedImage(cm, destRaster, cm.isAlphaPremultiplied(), null);
+
+        RGBPixelOp[] opArray = ops.toArray(new RGBPixelOp[0]);
+        if (hasPackedInts(src) && hasPackedInts(dest)) {
+            int[] srcData = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+            int[] destData = ((DataBufferInt) destRaster.getDataBuffer()).getData();
+            boolean premultiplied = src.isAlphaPremultiplied();
+            runOnRows(width, height, (start, end) ->
+                    transform(opArray, srcData, destData, start, end, premultiplied));
+        } else {
+            int[] pixels = src.getRGB(0, 0, width, height, null, 0, width);
+            runOnRows(width, height, (start, end) ->
+                    transform(opArray, pixels, pixels, start, end, false));
+            dest.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return dest;
+    }
+
+    /**
+     * Runs the given task on bands of rows, in parallel for big images.
+     * The task receives the start (inclusive) and end (exclusive)
+     * indices of the band in the pixel array.
+     */
+    private static void runOnRows(int width, int height, FastLookupOp.IndexRangeTask task) {
+        if (width * height < MIN_PARALLEL_PIXELS) {
+            task.run(0, width * height);
+        } else {
+            ThreadPool.parallelForStrips(height, NULL_TRACKER,
+                    (startY, endY) -> task.run(startY * width, endY * width));
+        }
+    }
+
+    private static void transform(RGBPixelOp[] opArray, int[] srcData, int[] destData,
+                                  int start, int end, boolean premultiplied) {
+        for (int i = start; i < end; i++) {
+            int rgb = srcData[i];
+            int a = (rgb >>> 24) & 0xFF;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = (rgb) & 0xFF;
+
+            boolean partlyTransparent = premultiplied && a != 255;
+            if (partlyTransparent) {
+                if (a == 0) {
+                    destData[i] = 0;
+                    continue;
+                }
+                float f = 255.0f / a;
+                r = Math.min(255, (int) (r * f));
+                g = Math.min(255, (int) (g * f));
+                b = Math.min(255, (int) (b * f));
+            }
+
+            for (RGBPixelOp op : opArray) {
+                rgb = op.changeRGB(a, r, g, b);
+                a = (rgb >>> 24) & 0xFF;
+                r = (rgb >>> 16) & 0xFF;
+                g = (rgb >>> 8) & 0xFF;
+                b = (rgb) & 0xFF;
+            }
+
+            if (partlyTransparent) {
+                float f2 = a * (1.0f / 255.0f);
+                r = PixelUtils.clamp((int) (r * f2));
+                g = PixelUtils.clamp((int) (g * f2));
+                b = PixelUtils.clamp((int) (b * f2));
+            }
+            destData[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static boolean hasPackedInts(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        return raster.getDataBuffer().getDataType() == DataBuffer.TYPE_INT
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getNumBands() == 4
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getSize() == img.getWidth() * img.getHeight();
+    }
+
+    private static int[] toInts(short[] values) {
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = values[i];
+        }
+        return ints;
+    }
+
+    /**
+     * Three 256-element lookup tables
+     */
+    private static class LookupOp implements RGBPixelOp {
+        private final int[] red;
+        private final int[] green;
+        private final int[] blue;
+
+        private LookupOp(int[] red, int[] green, int[] blue) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+        }
+
+        // returns a lookup that is equivalent to this lookup followed by the given one
+        private LookupOp andThen(int[] nextRed, int[] nextGreen, int[] nextBlue) {
+            int[] r = new int[256];
+            int[] g = new int[256];
+            int[] b = new int[256];
+            for (int i = 0; i < 256; i++) {
+                r[i] = nextRed[red[i]];
+                g[i] = nextGreen[green[i]];
+                b[i] = nextBlue[blue[i]];
+            }
+            return new LookupOp(r, g, b);
+        }
+
+        @Override
+        public int changeRGB(int a, int r, int g, int b) {
+            return (a << 24) | (red[r] << 16) | (green[g] << 8) | blue[b];
+        }
+    }
+}
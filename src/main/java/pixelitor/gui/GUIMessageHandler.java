@@ -32,8 +32,10 @@ public class GUIMessageHandler implements MessageHandler {
 
     @Override
     public void showInStatusBar(String msg) {
-        assert EventQueue.isDispatchThread() : "not EDT thread";
-
+        if (!EventQueue.isDispatchThread()) {
+            EventQueue.invokeLater(() -> showInStatusBar(msg));
+            return;
+        }
         StatusBar.INSTANCE.setMessage(msg);
     }
 
@@ -46,11 +48,20 @@ public class GUIMessageHandler implements MessageHandler {
 
     @Override
     public void showInfo(String title, String msg) {
+        if (!EventQueue.isDispatchThread()) {
+            // for example a filter running on the preview thread
+            EventQueue.invokeLater(() -> showInfo(title, msg));
+            return;
+        }
         Dialogs.showInfoDialog(title, msg);
     }
 
     @Override
     public void showError(String title, String msg) {
+        if (!EventQueue.isDispatchThread()) {
+            EventQueue.invokeLater(() -> showError(title, msg));
+            return;
+        }
         Dialogs.showErrorDialog(title, msg);
     }
 
@@ -112,7 +112,7 @@ public class HistogramsPanel extends JPanel implements ActiveImageChangeListener
         if (!isShown()) {
             return;
         }
-        BufferedImage image = comp.getCompositeImage();
+        BufferedImage image = comp.getTransientCompositeImage();
 
         int[] reds = new int[HISTOGRAM_RESOLUTION];
         int[] blues = new int[HISTOGRAM_RESOLUTION];
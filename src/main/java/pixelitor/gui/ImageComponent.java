@@ -97,6 +97,9 @@ public class ImageComponent extends JComponent
 
     private Navigator navigator;
 
+    // the scaled composite image, used at zoom levels other than 100%
+    private final ViewTileCache tileCache = new ViewTileCache();
+
     public static boolean showPixelGrid = false;
 
     public ImageComponent(Composition comp) {
@@ -163,6 +166,7 @@ public class ImageComponent extends JComponent
         oldComp.setIC(null);
         comp.setIC(this);
         canvas = newComp.getCanvas();
+        tileCache.invalidateAll();
 
         // refresh the layer buttons
         layersPanel = new LayersPanel();
@@ -267,6 +271,7 @@ public class ImageComponent extends JComponent
             imageWindow.dispose();
         }
         comp.dispose();
+        tileCache.invalidateAll();
     }
 
     public void activateUI(boolean selectWindow) {
@@ -345,9 +350,15 @@ public class ImageComponent extends JComponent
         g2.translate(canvasStartX, canvasStartY);
 
         boolean showMask = maskViewMode.showMask();
+        boolean useTiles = !showMask && viewScale != 1.0;
         if (!showMask) {
             checkerBoardPainter.paint(g2, this, canvasCoWidth, canvasCoHeight);
         }
+        if (useTiles) {
+            // only the tiles that changed since the last repaint are scaled again
+            tileCache.paint(g2, comp::getTransientCompositeLevel,
+                    viewScale, canvasCoWidth, canvasCoHeight);
+        }
 
         g2.scale(viewScale, viewScale);
         // after the translation and scaling, we are in "image space"
@@ -357,8 +368,10 @@ public class ImageComponent extends JComponent
             assert mask != null : "no mask in " + maskViewMode;
             mask.paintLayerOnGraphics(g2, true);
         } else {
-            BufferedImage compositeImage = comp.getCompositeImage();
-            ImageUtils.drawImageWithClipping(g2, compositeImage);
+            if (!useTiles) {
+                BufferedImage compositeImage = comp.getTransientCompositeImage();
+                ImageUtils.drawImageWithClipping(g2, compositeImage);
+            }
 
             if (maskViewMode.showRuby()) {
                 LayerMask mask = comp.getActiveLayer().getMask();
@@ -488,6 +501,20 @@ public class ImageComponent extends JComponent
         repaint(area.getCo());
     }
 
+    /**
+     * The given region (in image space) of the composite image changed
+     */
+    public void compositeRegionChanged(Rectangle imRegion) {
+        tileCache.invalidate(imRegion);
+    }
+
+    /**
+     * The whole composite image changed
+     */
+    public void compositeChanged() {
+        tileCache.invalidateAll();
+    }
+
     public void ensurePositiveLocation() {
         if (imageWindow != null) {
             imageWindow.ensurePositiveLocation();
@@ -27,6 +27,7 @@ import pixelitor.menus.view.ZoomMenu;
 import pixelitor.utils.ActiveImageChangeListener;
 import pixelitor.utils.Cursors;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.MipmapPyramid;
 
 import javax.swing.*;
 import java.awt.BasicStroke;
@@ -301,8 +302,11 @@ public class Navigator extends JComponent
 
         AffineTransform origTX = g2.getTransform();
 
-        g2.scale(imgScalingRatio, imgScalingRatio);
-        g2.drawImage(ic.getComp().getCompositeImage(), 0, 0, null);
+        // sample from the nearest mipmap level instead of the full image
+        int level = MipmapPyramid.levelFor(imgScalingRatio);
+        double levelScale = imgScalingRatio * (1 << level);
+        g2.scale(levelScale, levelScale);
+        g2.drawImage(ic.getComp().getTransientCompositeLevel(level), 0, 0, null);
         g2.setTransform(origTX);
 
         g2.setStroke(VIEW_BOX_STROKE);
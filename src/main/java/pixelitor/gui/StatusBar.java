@@ -73,18 +73,25 @@ public class StatusBar extends JPanel {
         return getParent() != null;
     }
 
+    /**
+     * Several progress bars can be shown at the same time (for example
+     * when several files are opened in parallel), each with its own label
+     */
     static class StatusBarProgressHandler implements ProgressHandler {
-        private final JLabel msgLabel;
         private final JPanel leftPanel;
+        private final JPanel progressPanel;
         private final JProgressBar progressBar;
 
         public StatusBarProgressHandler(JPanel leftPanel, String msg, int max) {
             this.leftPanel = leftPanel;
             progressBar = new JProgressBar(0, max);
-            msgLabel = new JLabel(msg);
 
-            leftPanel.add(msgLabel);
-            leftPanel.add(progressBar);
+            // the label and the bar are kept together,
+            // even if other progress bars are removed
+            progressPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+            progressPanel.add(new JLabel(msg));
+            progressPanel.add(progressBar);
+            leftPanel.add(progressPanel);
 
             // call these instead of revalidate()/repaint()
             // because we want to stay on the EDT
@@ -97,15 +104,14 @@ public class StatusBar extends JPanel {
             assert EventQueue.isDispatchThread() : "not EDT thread";
 
             progressBar.setValue(value);
-            leftPanel.paintImmediately(progressBar.getBounds());
+            progressPanel.paintImmediately(progressBar.getBounds());
         }
 
         @Override
         public void stopProgress() {
             assert EventQueue.isDispatchThread() : "not EDT thread";
 
-            leftPanel.remove(progressBar);
-            leftPanel.remove(msgLabel);
+            leftPanel.remove(progressPanel);
 
             leftPanel.revalidate();
             leftPanel.repaint();
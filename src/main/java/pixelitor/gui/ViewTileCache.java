@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.gui;
+
+import pixelitor.utils.MipmapPyramid;
+import pixelitor.utils.VisibleForTesting;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Caches the already scaled parts of the composite image,
+ * so that a repaint at a zoom level other than 100% only has
+ * to scale the tiles that are visible and changed since the last repaint.
+ * When zoomed out, the tiles are scaled from the nearest mipmap level
+ * instead of the full-resolution image.
+ *
+ * The tile coordinates are relative to the top-left corner
+ * of the canvas, in component space.
+ *
+ * The tiles of all the views are kept in one shared {@link TileStore},
+ * so that the total memory used by the tiles is bounded
+ * independently of the number of open images.
+ */
+class ViewTileCache {
+    static final int TILE_SIZE = 256;
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+    // the tiles can use 1/16 of the maximal heap, but at least 16 MB
+    private static final TileStore SHARED_STORE = new TileStore((int) Math.max(64,
+            Runtime.getRuntime().maxMemory() / 16 / TILE_BYTES));
+
+    private final TileStore store;
+
+    ViewTileCache() {
+        this(SHARED_STORE);
+    }
+
+    @VisibleForTesting
+    ViewTileCache(TileStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Paints the visible part of the image at the given scale.
+     * The graphics must be translated to the canvas start, but not scaled.
+     * The levelSupplier returns the given mipmap level of the image,
+     * and it is called only if some tiles have to be rendered.
+     */
+    void paint(Graphics2D g, IntFunction<BufferedImage> levelSupplier,
+               double viewScale, int canvasCoWidth, int canvasCoHeight) {
+        Rectangle visible = new Rectangle(0, 0, canvasCoWidth, canvasCoHeight);
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            visible = visible.intersection(clip);
+        }
+        if (visible.isEmpty()) {
+            return;
+        }
+
+        int firstTileX = visible.x / TILE_SIZE;
+        int firstTileY = visible.y / TILE_SIZE;
+        int lastTileX = (visible.x + visible.width - 1) / TILE_SIZE;
+        int lastTileY = (visible.y + visible.height - 1) / TILE_SIZE;
+
+        int level = MipmapPyramid.levelFor(viewScale);
+        double levelScale = viewScale * (1 << level);
+        BufferedImage image = null;
+        synchronized (store) {
+            for (int ty = firstTileY; ty <= lastTileY; ty++) {
+                for (int tx = firstTileX; tx <= lastTileX; tx++) {
+                    TileKey key = new TileKey(this, viewScale, tx, ty);
+                    BufferedImage tile = store.tiles.get(key);
+                    if (tile == null) {
+                        if (image == null) {
+                            image = levelSupplier.apply(level);
+                        }
+                        tile = renderTile(g, image, levelScale, key);
+                        store.tiles.put(key, tile);
+                    }
+                    g.drawImage(tile, tx * TILE_SIZE, ty * TILE_SIZE, null);
+                }
+            }
+        }
+    }
+
+    private BufferedImage renderTile(Graphics2D g, BufferedImage image,
+                                     double scale, TileKey key) {
+        BufferedImage tile = store.spareTile;
+        store.spareTile = null;
+        if (tile == null) {
+            tile = g.getDeviceConfiguration().createCompatibleImage(
+                    TILE_SIZE, TILE_SIZE, Transparency.TRANSLUCENT);
+        }
+
+        Graphics2D tg = tile.createGraphics();
+        tg.setComposite(AlphaComposite.Clear);
+        tg.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        tg.setComposite(AlphaComposite.SrcOver);
+
+        int tileCoX = key.tileX * TILE_SIZE;
+        int tileCoY = key.tileY * TILE_SIZE;
+        tg.translate(-tileCoX, -tileCoY);
+        tg.scale(scale, scale);
+
+        // draw only the part of the image that is covered by the tile
+        int x1 = (int) Math.floor(tileCoX / scale);
+        int y1 = (int) Math.floor(tileCoY / scale);
+        int x2 = Math.min(image.getWidth(),
+                (int) Math.ceil((tileCoX + TILE_SIZE) / scale));
+        int y2 = Math.min(image.getHeight(),
+                (int) Math.ceil((tileCoY + TILE_SIZE) / scale));
+        if (x1 < x2 && y1 < y2) {
+            tg.drawImage(image, x1, y1, x2, y2, x1, y1, x2, y2, null);
+        }
+        tg.dispose();
+
+        return tile;
+    }
+
+    /**
+     * The given region of the image (in image space) changed
+     */
+    void invalidate(Rectangle imRegion) {
+        synchronized (store) {
+            Iterator<TileKey> it = store.tiles.keySet().iterator();
+            while (it.hasNext()) {
+                TileKey key = it.next();
+                if (key.owner == this && key.intersects(imRegion)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The whole image changed, or the view is not used anymore
+     */
+    void invalidateAll() {
+        synchronized (store) {
+            store.tiles.keySet().removeIf(key -> key.owner == this);
+        }
+    }
+
+    int getNumCachedTiles() {
+        synchronized (store) {
+            int count = 0;
+            for (TileKey key : store.tiles.keySet()) {
+                if (key.owner == this) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The tiles of several views, the least recently used
+     * tile is evicted if there are too many tiles.
+     * The fields are guarded by the lock of the store.
+     */
+    static class TileStore {
+        private final int maxTiles;
+
+        private final Map<TileKey, BufferedImage> tiles = new LRUTileMap(this);
+
+        // an evicted tile that can be reused instead of allocating a new one
+        private BufferedImage spareTile;
+
+        TileStore(int maxTiles) {
+            this.maxTiles = maxTiles;
+        }
+
+        synchronized int getNumTiles() {
+            return tiles.size();
+        }
+    }
+
+    /**
+     * An access-ordered map that evicts the least recently used
+     * tile when there are more tiles than the limit of the store
+     */
+    private static class LRUTileMap extends LinkedHashMap<TileKey, BufferedImage> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient TileStore store;
+
+        LRUTileMap(TileStore store) {
+            super(64, 0.75f, true);
+            this.store = store;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, BufferedImage> eldest) {
+            if (size() > store.maxTiles) {
+                // reuse it for the next tile that has to be rendered
+                store.spareTile = eldest.getValue();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class TileKey {
+        private final ViewTileCache owner;
+        private final double viewScale;
+        private final int tileX;
+        private final int tileY;
+
+        TileKey(ViewTileCache owner, double viewScale, int tileX, int tileY) {
+            this.owner = owner;
+            this.viewScale = viewScale;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        boolean intersects(Rectangle imRegion) {
+            // the region converted into component space, enlarged
+            // by one pixel because of the rounding in the scaling
+            double coX = imRegion.x * viewScale - 1;
+            double coY = imRegion.y * viewScale - 1;
+            double coX2 = (imRegion.x + imRegion.width) * viewScale + 1;
+            double coY2 = (imRegion.y + imRegion.height) * viewScale + 1;
+
+            int tileCoX = tileX * TILE_SIZE;
+            int tileCoY = tileY * TILE_SIZE;
+            return coX < tileCoX + TILE_SIZE && coX2 > tileCoX
+                    && coY < tileCoY + TILE_SIZE && coY2 > tileCoY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return owner == other.owner
+                    && viewScale == other.viewScale
+                    && tileX == other.tileX
+                    && tileY == other.tileY;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(owner);
+            result = 31 * result + Double.hashCode(viewScale);
+            result = 31 * result + tileX;
+            result = 31 * result + tileY;
+            return result;
+        }
+    }
+}
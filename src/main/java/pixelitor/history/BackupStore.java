@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.utils.Messages;
+import pixelitor.utils.VisibleForTesting;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the backup images of the history within a memory budget.
+ *
+ * If the backups use more memory than the budget, then the oldest
+ * ones are compressed on a background thread, and if that is
+ * not enough, the compressed data is moved into a temporary file.
+ * Unlike with soft references, a backup is never lost.
+ */
+class BackupStore {
+    static final BackupStore INSTANCE = new BackupStore(
+            Runtime.getRuntime().maxMemory() / 4,
+            Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "[Undo compression thread]");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }));
+
+    // the number of pixels compressed/decompressed in one step
+    private static final int CHUNK_PIXELS = 64 * 1024;
+
+    private final long memoryBudget;
+    private final Executor executor;
+
+    // the living backups, the oldest first
+    private final Set<ImageBackup> backups = new LinkedHashSet<>();
+
+    private long memoryUsed;
+    private long diskUsed;
+
+    // the temporary file is created only when it is needed
+    private FileChannel spillChannel;
+    private long spillFileEnd;
+    private int numSpillsInProgress;
+
+    private boolean shrinkScheduled;
+
+    BackupStore(long memoryBudget, Executor executor) {
+        this.memoryBudget = memoryBudget;
+        this.executor = executor;
+    }
+
+    /**
+     * Puts the given image into the store. The image
+     * must not be modified after this call.
+     */
+    ImageBackup add(BufferedImage image) {
+        ImageBackup backup = new ImageBackup(this, image);
+        synchronized (this) {
+            backups.add(backup);
+            memoryUsed += backup.getMemoryBytes();
+            scheduleShrinkIfNeeded();
+        }
+        return backup;
+    }
+
+    BufferedImage get(ImageBackup backup) {
+        return restore(backup);
+    }
+
+    BufferedImage take(ImageBackup backup) {
+        BufferedImage image = restore(backup);
+        if (image != null) {
+            release(backup);
+        }
+        return image;
+    }
+
+    synchronized void release(ImageBackup backup) {
+        if (backup.released) {
+            return;
+        }
+        backup.released = true;
+        backups.remove(backup);
+        memoryUsed -= backup.getMemoryBytes();
+        if (backup.diskOffset >= 0) {
+            diskUsed -= backup.diskLength;
+        }
+        backup.image = null;
+        backup.compressed = null;
+
+        if (diskUsed == 0 && spillFileEnd > 0 && numSpillsInProgress == 0) {
+            // no living data in the file, it can be reused from the start
+            try {
+                spillChannel.truncate(0);
+            } catch (IOException e) {
+                Messages.showException(e);
+            }
+            spillFileEnd = 0;
+        }
+    }
+
+    private BufferedImage restore(ImageBackup backup) {
+        byte[] data;
+        long offset;
+        int length;
+        synchronized (this) {
+            if (backup.released) {
+                return null;
+            }
+            if (backup.image != null) {
+                return backup.image;
+            }
+            data = backup.compressed;
+            offset = backup.diskOffset;
+            length = backup.diskLength;
+        }
+
+        try {
+            if (data == null) {
+                data = readFromDisk(offset, length);
+            }
+            return decompress(data, backup);
+        } catch (IOException | DataFormatException e) {
+            Messages.showException(e);
+            return null;
+        }
+    }
+
+    private void scheduleShrinkIfNeeded() {
+        if (memoryUsed > memoryBudget && !shrinkScheduled) {
+            shrinkScheduled = true;
+            executor.execute(this::shrink);
+        }
+    }
+
+    /**
+     * Compresses or moves to disk the oldest backups until
+     * the memory usage fits into the budget.
+     */
+    @VisibleForTesting
+    void shrink() {
+        while (true) {
+            ImageBackup candidate;
+            BufferedImage image;
+            byte[] data;
+            synchronized (this) {
+                candidate = findShrinkCandidate();
+                if (candidate == null) {
+                    shrinkScheduled = false;
+                    return;
+                }
+                image = candidate.image;
+                data = candidate.compressed;
+            }
+
+            try {
+                if (image != null) {
+                    commitCompressed(candidate, image, compress(image));
+                } else {
+                    commitSpilled(candidate, data);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    shrinkScheduled = false;
+                }
+                Messages.showException(e);
+                return;
+            }
+        }
+    }
+
+    // the images are compressed first, and the compressed data is moved
+    // to disk only if compressing everything was not enough
+    private ImageBackup findShrinkCandidate() {
+        if (memoryUsed <= memoryBudget) {
+            return null;
+        }
+        for (ImageBackup backup : backups) {
+            if (backup.image != null && backup.compressible) {
+                return backup;
+            }
+        }
+        for (ImageBackup backup : backups) {
+            if (backup.compressed != null) {
+                return backup;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void commitCompressed(ImageBackup backup,
+                                               BufferedImage image, byte[] data) {
+        if (backup.released || backup.image != image) {
+            return;
+        }
+        memoryUsed -= backup.getMemoryBytes();
+        backup.image = null;
+        backup.compressed = data;
+        memoryUsed += backup.getMemoryBytes();
+    }
+
+    private void commitSpilled(ImageBackup backup, byte[] data) throws IOException {
+        long offset;
+        synchronized (this) {
+            if (spillChannel == null) {
+                File file = File.createTempFile("pixelitor_undo", ".tmp");
+                file.deleteOnExit();
+                spillChannel = new RandomAccessFile(file, "rw").getChannel();
+            }
+            // reserve the space in the file
+            offset = spillFileEnd;
+            spillFileEnd += data.length;
+            numSpillsInProgress++;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long pos = offset;
+            while (buffer.hasRemaining()) {
+                pos += spillChannel.write(buffer, pos);
+            }
+        } finally {
+            synchronized (this) {
+                numSpillsInProgress--;
+            }
+        }
+
+        synchronized (this) {
+            if (backup.released || backup.compressed != data) {
+                return; // the reserved space is wasted until the file is truncated
+            }
+            memoryUsed -= backup.getMemoryBytes();
+            backup.compressed = null;
+            backup.diskOffset = offset;
+            backup.diskLength = data.length;
+            diskUsed += data.length;
+        }
+    }
+
+    private byte[] readFromDisk(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long pos = offset;
+        while (buffer.hasRemaining()) {
+            int read = spillChannel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("unexpected end of the undo file");
+            }
+            pos += read;
+        }
+        return buffer.array();
+    }
+
+    private static byte[] compress(BufferedImage image) {
+        Raster raster = image.getRaster();
+        boolean ints = raster.getTransferType() == DataBuffer.TYPE_INT;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowsPerChunk = Math.max(1, CHUNK_PIXELS / width);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] outBuf = new byte[64 * 1024];
+        int[] intChunk = ints ? new int[rowsPerChunk * width] : null;
+        byte[] byteChunk = new byte[rowsPerChunk * width * (ints ? 4 : 1)];
+
+        for (int y = 0; y < height; y += rowsPerChunk) {
+            int numRows = Math.min(rowsPerChunk, height - y);
+            int numBytes;
+            if (ints) {
+                raster.getDataElements(0, y, width, numRows, intChunk);
+                int numPixels = numRows * width;
+                for (int i = 0; i < numPixels; i++) {
+                    int p = intChunk[i];
+                    int bi = 4 * i;
+                    byteChunk[bi] = (byte) (p >>> 24);
+                    byteChunk[bi + 1] = (byte) (p >>> 16);
+                    byteChunk[bi + 2] = (byte) (p >>> 8);
+                    byteChunk[bi + 3] = (byte) p;
+                }
+                numBytes = 4 * numPixels;
+            } else {
+                raster.getDataElements(0, y, width, numRows, byteChunk);
+                numBytes = numRows * width;
+            }
+
+            deflater.setInput(byteChunk, 0, numBytes);
+            while (!deflater.needsInput()) {
+                int len = deflater.deflate(outBuf);
+                out.write(outBuf, 0, len);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int len = deflater.deflate(outBuf);
+            out.write(outBuf, 0, len);
+        }
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decompress(byte[] data, ImageBackup backup)
+            throws DataFormatException {
+        int width = backup.width;
+        int height = backup.height;
+        WritableRaster raster = backup.colorModel
+                .createCompatibleWritableRaster(width, height);
+        boolean ints = raster.getTransferType() == DataBuffer.TYPE_INT;
+        int rowsPerChunk = Math.max(1, CHUNK_PIXELS / width);
+        int[] intChunk = ints ? new int[rowsPerChunk * width] : null;
+        byte[] byteChunk = new byte[rowsPerChunk * width * (ints ? 4 : 1)];
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        try {
+            for (int y = 0; y < height; y += rowsPerChunk) {
+                int numRows = Math.min(rowsPerChunk, height - y);
+                int numPixels = numRows * width;
+                int numBytes = ints ? 4 * numPixels : numPixels;
+
+                int filled = 0;
+                while (filled < numBytes) {
+                    int len = inflater.inflate(byteChunk, filled, numBytes - filled);
+                    if (len == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new DataFormatException("truncated undo data");
+                    }
+                    filled += len;
+                }
+
+                if (ints) {
+                    for (int i = 0; i < numPixels; i++) {
+                        int bi = 4 * i;
+                        intChunk[i] = (byteChunk[bi] & 0xFF) << 24
+                                | (byteChunk[bi + 1] & 0xFF) << 16
+                                | (byteChunk[bi + 2] & 0xFF) << 8
+                                | (byteChunk[bi + 3] & 0xFF);
+                    }
+                    raster.setDataElements(0, y, width, numRows, intChunk);
+                } else {
+                    raster.setDataElements(0, y, width, numRows, byteChunk);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+
+        return new BufferedImage(backup.colorModel, raster,
+                backup.colorModel.isAlphaPremultiplied(), null);
+    }
+
+    synchronized long getMemoryUsage() {
+        return memoryUsed;
+    }
+
+    synchronized long getDiskUsage() {
+        return diskUsed;
+    }
+
+    long getMemoryBudget() {
+        return memoryBudget;
+    }
+}
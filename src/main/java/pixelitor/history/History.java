@@ -201,6 +201,24 @@ public class History {
         return undoManager.getLimit();
     }
 
+    /**
+     * Returns the heap memory used by the backup images of the history
+     */
+    public static long getBackupMemoryUsage() {
+        return BackupStore.INSTANCE.getMemoryUsage();
+    }
+
+    /**
+     * Returns the size of the backup images that were moved to disk
+     */
+    public static long getBackupDiskUsage() {
+        return BackupStore.INSTANCE.getDiskUsage();
+    }
+
+    public static long getBackupMemoryBudget() {
+        return BackupStore.INSTANCE.getMemoryBudget();
+    }
+
     public static boolean canRepeatOperation() {
         if (numUndoneEdits > 0) {
             return false;
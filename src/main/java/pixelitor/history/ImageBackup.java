@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+
+/**
+ * A backup image kept in a {@link BackupStore}.
+ * Depending on the memory pressure, it is kept as an image,
+ * as compressed bytes, or in the temporary file of the store.
+ *
+ * The mutable fields are guarded by the lock of the store.
+ */
+class ImageBackup {
+    private final BackupStore store;
+
+    final int width;
+    final int height;
+    final ColorModel colorModel;
+
+    // true if the raster has one int or byte data element per pixel,
+    // only such images are compressed
+    final boolean compressible;
+
+    // exactly one of the following three is set while the backup lives
+    BufferedImage image;
+    byte[] compressed;
+    long diskOffset = -1;
+
+    int diskLength;
+    boolean released;
+
+    ImageBackup(BackupStore store, BufferedImage image) {
+        this.store = store;
+        this.image = image;
+
+        width = image.getWidth();
+        height = image.getHeight();
+        colorModel = image.getColorModel();
+
+        Raster raster = image.getRaster();
+        int transferType = raster.getTransferType();
+        compressible = raster.getNumDataElements() == 1
+                && (transferType == DataBuffer.TYPE_INT
+                || transferType == DataBuffer.TYPE_BYTE);
+    }
+
+    /**
+     * Returns the backup image, while keeping the backup
+     * in the store. The returned image must not be modified.
+     * Returns null if the image could not be restored.
+     */
+    BufferedImage get() {
+        return store.get(this);
+    }
+
+    /**
+     * Returns the backup image and removes the backup from the store.
+     * Returns null if the image could not be restored.
+     */
+    BufferedImage take() {
+        return store.take(this);
+    }
+
+    /**
+     * Removes the backup from the store without restoring it
+     */
+    void release() {
+        store.release(this);
+    }
+
+    /**
+     * Returns the number of heap bytes used by this backup
+     */
+    long getMemoryBytes() {
+        if (image != null) {
+            long bytesPerPixel = colorModel.getTransferType() == DataBuffer.TYPE_BYTE ? 1 : 4;
+            return bytesPerPixel * width * height;
+        }
+        if (compressed != null) {
+            return compressed.length;
+        }
+        return 0;
+    }
+
+    String describeState() {
+        synchronized (store) {
+            if (released) {
+                return "released";
+            }
+            if (image != null) {
+                return "image";
+            }
+            if (compressed != null) {
+                return "compressed (" + compressed.length + " bytes)";
+            }
+            return "on disk (" + diskLength + " bytes)";
+        }
+    }
+}
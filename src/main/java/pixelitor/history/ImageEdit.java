@@ -24,14 +24,13 @@ import pixelitor.utils.debug.DebugNode;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.image.BufferedImage;
-import java.lang.ref.SoftReference;
 
 /**
  * A PixelitorEdit that represents the changes made to an image.
  */
 public class ImageEdit extends FadeableEdit {
     private final boolean ignoreSelection;
-    private SoftReference<BufferedImage> imgRef;
+    private ImageBackup backup;
     protected Drawable dr;
 
     private final boolean canRepeat;
@@ -45,12 +44,13 @@ public class ImageEdit extends FadeableEdit {
         assert dr != null;
         assert backupImage != null;
 
-        // the backup image is stored in an SoftReference
-        this.imgRef = new SoftReference<>(backupImage);
         this.dr = dr;
         this.canRepeat = canRepeat;
 
-        checkBackupDifferentFromActive();
+        checkBackupDifferentFromActive(backupImage);
+
+        // the backup store might compress it or move it to disk
+        this.backup = BackupStore.INSTANCE.add(backupImage);
     }
 
     public static ImageEdit createEmbedded(Drawable dr) {
@@ -68,9 +68,9 @@ public class ImageEdit extends FadeableEdit {
 
     // the backup should never be identical to the active image
     // otherwise the backup might be also edited
-    private void checkBackupDifferentFromActive() {
+    private void checkBackupDifferentFromActive(BufferedImage backupImage) {
         BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
+        if (layerImage == backupImage) {
             throw new IllegalStateException("backup image is identical to the active one");
         }
     }
@@ -97,7 +97,7 @@ public class ImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapImages()  {
-        BufferedImage backupImage = imgRef.get();
+        BufferedImage backupImage = backup.take();
         if(backupImage == null) {
             return false;
         }
@@ -110,15 +110,16 @@ public class ImageEdit extends FadeableEdit {
         }
         dr.changeImageUndoRedo(backupImage, ignoreSelection);
 
+        checkBackupDifferentFromActive(tmp);
+
         // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        backup = BackupStore.INSTANCE.add(tmp);
 
         if(!embedded) {
             comp.imageChanged();
             dr.updateIconImage();
         }
 
-        checkBackupDifferentFromActive();
         return true;
     }
 
@@ -126,20 +127,19 @@ public class ImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if(backupImage != null) {
-            backupImage.flush();
+        if (backup != null) {
+            backup.release();
         }
 
-        imgRef = null;
+        backup = null;
         dr = null;
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if(imgRef != null) {
-            // this still could be null
-            return imgRef.get();
+        if(backup != null) {
+            // this still could be null if the restoring failed
+            return backup.get();
         }
         return null;
     }
@@ -153,10 +153,10 @@ public class ImageEdit extends FadeableEdit {
     public DebugNode getDebugNode() {
         DebugNode node = super.getDebugNode();
 
-        BufferedImage img = imgRef.get();
-        if (img != null) {
-            node.addInt("Backup Image Width", img.getWidth());
-            node.addInt("Backup Image Height", img.getHeight());
+        if (backup != null) {
+            node.addInt("Backup Image Width", backup.width);
+            node.addInt("Backup Image Height", backup.height);
+            node.addString("Backup State", backup.describeState());
         }
 
         return node;
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.Composition;
+import pixelitor.ThreadPool;
+import pixelitor.layers.Drawable;
+import pixelitor.selection.Selection;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.VisibleForTesting;
+import pixelitor.utils.debug.DebugNode;
+
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Represents the changes made to an image by a filter, like {@link ImageEdit},
+ * but only the tiles that were actually changed are saved.
+ *
+ * The saved tiles are stacked vertically into a single "atlas" image,
+ * which is kept in the {@link BackupStore}, so it can be compressed as well.
+ */
+public class TileDiffEdit extends FadeableEdit {
+    private static final long serialVersionUID = 1L;
+
+    static final int TILE_SIZE = 64;
+
+    private final boolean canRepeat;
+    private final Drawable dr;
+
+    // the indices (row-major, in the tile grid) of the changed tiles
+    private final int[] changedTiles;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int numTilesX;
+
+    // the changed tiles of the other state
+    private ImageBackup backup;
+
+    private TileDiffEdit(String name, Composition comp, Drawable dr,
+                         BufferedImage before, int[] changedTiles, boolean canRepeat) {
+        super(name, comp, dr);
+
+        this.dr = dr;
+        this.canRepeat = canRepeat;
+        this.changedTiles = changedTiles;
+        imageWidth = before.getWidth();
+        imageHeight = before.getHeight();
+        numTilesX = calcNumTiles(imageWidth);
+
+        BufferedImage atlas = createAtlas(before.getColorModel(), changedTiles.length);
+        WritableRaster atlasRaster = atlas.getRaster();
+        Raster beforeRaster = before.getRaster();
+        for (int i = 0; i < changedTiles.length; i++) {
+            Rectangle r = getTileRect(changedTiles[i]);
+            atlasRaster.setRect(0, i * TILE_SIZE,
+                    beforeRaster.createChild(r.x, r.y, r.width, r.height, 0, 0, null));
+        }
+        backup = BackupStore.INSTANCE.add(atlas);
+    }
+
+    /**
+     * Returns an edit that saves only the changed tiles, or null if
+     * too many tiles changed, and an {@link ImageEdit} should be used instead.
+     * The two images must be different objects, and the after
+     * image must be the current image of the drawable.
+     */
+    public static TileDiffEdit createIfSmaller(String name, Composition comp, Drawable dr,
+                                               BufferedImage before, BufferedImage after,
+                                               boolean canRepeat) {
+        assert before != after;
+        int[] changedTiles = findChangedTiles(before, after);
+        if (changedTiles == null) {
+            return null;
+        }
+        int numTiles = calcNumTiles(before.getWidth()) * calcNumTiles(before.getHeight());
+        if (changedTiles.length == 0 || changedTiles.length > numTiles / 2) {
+            // if nothing changed, an ImageEdit still has to be created
+            // for consistency, and if most of the tiles changed,
+            // then an ImageEdit is not bigger
+            return null;
+        }
+        return new TileDiffEdit(name, comp, dr, before, changedTiles, canRepeat);
+    }
+
+    /**
+     * Returns the indices of the tiles that differ, or null if
+     * the images can't be compared tile by tile.
+     */
+    @VisibleForTesting
+    static int[] findChangedTiles(BufferedImage before, BufferedImage after) {
+        int width = before.getWidth();
+        int height = before.getHeight();
+        if (width != after.getWidth() || height != after.getHeight()
+                || !before.getColorModel().equals(after.getColorModel())) {
+            return null;
+        }
+
+        int numTilesX = calcNumTiles(width);
+        int numTilesY = calcNumTiles(height);
+        boolean[] changed = new boolean[numTilesX * numTilesY];
+        Raster beforeRaster = before.getRaster();
+        Raster afterRaster = after.getRaster();
+        int numDataElements = beforeRaster.getNumDataElements();
+
+        ThreadPool.parallelFor(numTilesY, NULL_TRACKER, tileY -> {
+            int y1 = tileY * TILE_SIZE;
+            int y2 = Math.min(y1 + TILE_SIZE, height);
+            Object beforeRow = null;
+            Object afterRow = null;
+            for (int tileX = 0; tileX < numTilesX; tileX++) {
+                int x = tileX * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, width - x);
+                for (int y = y1; y < y2; y++) {
+                    beforeRow = beforeRaster.getDataElements(x, y, tileWidth, 1, beforeRow);
+                    afterRow = afterRaster.getDataElements(x, y, tileWidth, 1, afterRow);
+                    if (!rowsEqual(beforeRow, afterRow, tileWidth * numDataElements)) {
+                        changed[tileY * numTilesX + tileX] = true;
+                        break;
+                    }
+                }
+            }
+        });
+
+        int numChanged = 0;
+        for (boolean b : changed) {
+            if (b) {
+                numChanged++;
+            }
+        }
+        int[] result = new int[numChanged];
+        int index = 0;
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i]) {
+                result[index++] = i;
+            }
+        }
+        return result;
+    }
+
+    // the row buffers are reused, therefore they can be
+    // longer than the number of elements that must be compared
+    private static boolean rowsEqual(Object a, Object b, int numElements) {
+        if (a instanceof int[]) {
+            int[] ia = (int[]) a;
+            int[] ib = (int[]) b;
+            for (int i = 0; i < numElements; i++) {
+                if (ia[i] != ib[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof byte[]) {
+            byte[] ba = (byte[]) a;
+            byte[] bb = (byte[]) b;
+            for (int i = 0; i < numElements; i++) {
+                if (ba[i] != bb[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof short[]) {
+            short[] sa = (short[]) a;
+            short[] sb = (short[]) b;
+            for (int i = 0; i < numElements; i++) {
+                if (sa[i] != sb[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false; // unknown type, assume that it changed
+    }
+
+    private static int calcNumTiles(int size) {
+        return (size + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private Rectangle getTileRect(int tileIndex) {
+        int x = (tileIndex % numTilesX) * TILE_SIZE;
+        int y = (tileIndex / numTilesX) * TILE_SIZE;
+        return new Rectangle(x, y,
+                Math.min(TILE_SIZE, imageWidth - x),
+                Math.min(TILE_SIZE, imageHeight - y));
+    }
+
+    private static BufferedImage createAtlas(ColorModel cm, int numTiles) {
+        WritableRaster raster = cm.createCompatibleWritableRaster(
+                TILE_SIZE, TILE_SIZE * numTiles);
+        return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+    }
+
+    @Override
+    public void undo() throws CannotUndoException {
+        super.undo();
+
+        if (!swapTiles()) {
+            throw new CannotUndoException();
+        }
+    }
+
+    @Override
+    public void redo() throws CannotRedoException {
+        super.redo();
+
+        if (!swapTiles()) {
+            throw new CannotRedoException();
+        }
+    }
+
+    /**
+     * Exchanges the saved tiles with the corresponding tiles
+     * of the current image. Returns true if successful.
+     */
+    private boolean swapTiles() {
+        BufferedImage atlas = backup.take();
+        if (atlas == null) {
+            return false;
+        }
+
+        BufferedImage image = dr.getImage();
+        assert image.getWidth() == imageWidth && image.getHeight() == imageHeight;
+        WritableRaster imageRaster = image.getRaster();
+        WritableRaster atlasRaster = atlas.getRaster();
+        WritableRaster tmp = imageRaster.createCompatibleWritableRaster(TILE_SIZE, TILE_SIZE);
+
+        for (int i = 0; i < changedTiles.length; i++) {
+            Rectangle r = getTileRect(changedTiles[i]);
+            int atlasY = i * TILE_SIZE;
+            tmp.setRect(imageRaster.createChild(r.x, r.y, r.width, r.height, 0, 0, null));
+            imageRaster.setRect(r.x, r.y,
+                    atlasRaster.createChild(0, atlasY, r.width, r.height, 0, 0, null));
+            atlasRaster.setRect(0, atlasY,
+                    tmp.createChild(0, 0, r.width, r.height, 0, 0, null));
+        }
+
+        // now the atlas contains the tiles of the other state
+        backup = BackupStore.INSTANCE.add(atlas);
+
+        comp.imageChanged();
+        dr.updateIconImage();
+        return true;
+    }
+
+    @Override
+    public void die() {
+        super.die();
+
+        if (backup != null) {
+            backup.release();
+            backup = null;
+        }
+    }
+
+    @Override
+    public boolean canRepeat() {
+        return canRepeat;
+    }
+
+    @Override
+    public BufferedImage getBackupImage() {
+        // recreate the full image as if it was backed up entirely,
+        // because Fade expects to fade images of equal size
+        BufferedImage atlas = backup.get();
+        if (atlas == null) {
+            return null;
+        }
+        BufferedImage previousImage = ImageUtils.copyImage(dr.getImage());
+        WritableRaster raster = previousImage.getRaster();
+        Raster atlasRaster = atlas.getRaster();
+        for (int i = 0; i < changedTiles.length; i++) {
+            Rectangle r = getTileRect(changedTiles[i]);
+            raster.setRect(r.x, r.y, atlasRaster.createChild(
+                    0, i * TILE_SIZE, r.width, r.height, 0, 0, null));
+        }
+
+        Selection selection = dr.getComp().getSelection();
+        if (selection != null) {
+            previousImage = ImageUtils.getSelectionSizedPartFrom(
+                    previousImage, selection, dr.getTX(), dr.getTY());
+        }
+        return previousImage;
+    }
+
+    @Override
+    public DebugNode getDebugNode() {
+        DebugNode node = super.getDebugNode();
+
+        node.addInt("Image Width", imageWidth);
+        node.addInt("Image Height", imageHeight);
+        node.addInt("Changed Tiles", changedTiles.length);
+        if (backup != null) {
+            node.addString("Backup State", backup.describeState());
+        }
+
+        return node;
+    }
+}
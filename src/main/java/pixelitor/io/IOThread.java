@@ -17,40 +17,116 @@
 
 package pixelitor.io;
 
-import pixelitor.ThreadPool;
-
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Makes sure that only one IO task runs at a time
+ * Schedules the IO tasks (decoding and encoding files) on a
+ * small pool of IO threads.
+ *
+ * The tasks that the user is waiting for (like opening a file)
+ * run before the background tasks (like exporting the layers),
+ * and the tasks working on the same file never run at the same time.
+ * The number of threads can be configured with the
+ * "pixelitor.ioThreads" system property.
  */
 public class IOThread {
+    /**
+     * The priority of an IO task. The waiting tasks with
+     * a higher priority are started first.
+     */
+    public enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private static final int NUM_THREADS = Math.max(1, Integer.getInteger(
+            "pixelitor.ioThreads",
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
     private static final ThreadFactory threadFactory
-            = r -> new Thread(r, "[IO thread]");
-    private static final ExecutorService executor
-            = Executors.newSingleThreadExecutor(threadFactory);
+            = r -> new Thread(r, "[IO thread " + threadCounter.incrementAndGet() + "]");
+
+    // the queue can contain only Task objects, therefore only
+    // execute (and not submit) can be called on this executor
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            NUM_THREADS, NUM_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), threadFactory);
 
+    private static final Executor interactiveExecutor
+            = task -> executor.execute(new Task(task, Priority.INTERACTIVE));
+    private static final Executor backgroundExecutor
+            = task -> executor.execute(new Task(task, Priority.BACKGROUND));
+
+    // the files marked by isProcessing
     private static final Set<String> currentPaths = new HashSet<>();
 
-    // can be set to true for testing things like
-    // multiple progress bars, but normally this is false
-    private static final boolean ALLOW_MULTIPLE_IO_THREADS = false;
+    // the tasks waiting for a running task working on the same file
+    private static final Map<String, Queue<Task>> waitingForPath = new HashMap<>();
 
     private IOThread() {
         // should not be instantiated
     }
 
+    /**
+     * Returns the executor for the tasks the user is waiting for
+     */
     public static Executor getExecutor() {
-        if (ALLOW_MULTIPLE_IO_THREADS) {
-            return ThreadPool.getExecutor();
+        return interactiveExecutor;
+    }
+
+    public static Executor getExecutor(Priority priority) {
+        if (priority == Priority.INTERACTIVE) {
+            return interactiveExecutor;
         }
-        return executor;
+        return backgroundExecutor;
+    }
+
+    /**
+     * Returns an executor which runs its tasks only after all
+     * the earlier tasks submitted for the same file have finished
+     */
+    public static Executor getExecutor(File file, Priority priority) {
+        String path = file.getAbsolutePath();
+        return task -> executeExclusively(path, new Task(task, priority));
+    }
+
+    private static void executeExclusively(String path, Task task) {
+        synchronized (IOThread.class) {
+            Queue<Task> waiting = waitingForPath.get(path);
+            if (waiting != null) {
+                // another task is running or queued for the same file
+                waiting.add(task);
+                return;
+            }
+            waitingForPath.put(path, new ArrayDeque<>());
+        }
+        executor.execute(task.afterwards(() -> startNextFor(path)));
+    }
+
+    private static void startNextFor(String path) {
+        Task next;
+        synchronized (IOThread.class) {
+            Queue<Task> waiting = waitingForPath.get(path);
+            next = waiting.poll();
+            if (next == null) {
+                waitingForPath.remove(path);
+                return;
+            }
+        }
+        executor.execute(next.afterwards(() -> startNextFor(path)));
     }
 
     /**
@@ -71,4 +147,54 @@ public class IOThread {
         boolean contained = currentPaths.remove(path);
         assert contained;
     }
+
+    /**
+     * A task in the priority queue of the executor. The tasks
+     * with the same priority run in the order of their submission.
+     */
+    private static class Task implements Runnable, Comparable<Task> {
+        private static final AtomicLong sequenceCounter = new AtomicLong();
+
+        private final Runnable runnable;
+        private final Priority priority;
+        private final long sequenceNumber;
+
+        Task(Runnable runnable, Priority priority) {
+            this(runnable, priority, sequenceCounter.getAndIncrement());
+        }
+
+        private Task(Runnable runnable, Priority priority, long sequenceNumber) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        /**
+         * Returns a task with the same place in the queue,
+         * which also runs the given action after this one
+         */
+        Task afterwards(Runnable action) {
+            return new Task(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    action.run();
+                }
+            }, priority, sequenceNumber);
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int result = priority.compareTo(other.priority);
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
 }
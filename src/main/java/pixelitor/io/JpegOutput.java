@@ -48,9 +48,14 @@ public final class JpegOutput {
     }
 
     public static void writeJPG(BufferedImage image, File file, JpegSettings settings) throws IOException {
+        ProgressTracker tracker = new StatusBarProgressTracker("Writing " + file.getName(), 100);
+        writeJPG(image, file, settings, tracker);
+    }
+
+    public static void writeJPG(BufferedImage image, File file, JpegSettings settings,
+                                ProgressTracker tracker) throws IOException {
         ImageOutputStream ios = ImageIO.createImageOutputStream(file);
         if (ios != null) {
-            ProgressTracker tracker = new StatusBarProgressTracker("Writing " + file.getName(), 100);
             writeJPGtoStream(image, ios, settings, tracker);
         }
     }
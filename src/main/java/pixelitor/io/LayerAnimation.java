@@ -80,6 +80,7 @@ public class LayerAnimation {
         e.start(f);
         e.setDelay(delayMillis);
         e.setRepeat(0);
+        e.setCropToChanges(true);
         images.forEach(e::addFrame);
         boolean ok = e.finish();
         // TODO handle ok status
@@ -33,11 +33,16 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
+import static pixelitor.io.IOThread.Priority.BACKGROUND;
+import static pixelitor.io.IOThread.Priority.INTERACTIVE;
 import static pixelitor.utils.Utils.getJavaMainVersion;
 
 /**
@@ -81,7 +86,8 @@ public class OpenSave {
     // loads an a file with a single-layer image format
     private static CompletableFuture<Composition> loadSimpleFile(File file) {
         return CompletableFuture.supplyAsync(
-                () -> TrackedIO.uncheckedRead(file), IOThread.getExecutor())
+                () -> TrackedIO.uncheckedRead(file),
+                IOThread.getExecutor(file, INTERACTIVE))
                 .handle((img, e) -> handleDecodingError(file, img, e))
                 .thenApplyAsync(img -> Composition.fromImage(img, file, null),
                         EventQueue::invokeLater);
@@ -120,7 +126,8 @@ public class OpenSave {
 
     public static CompletableFuture<Void> loadFileAndAddAsNewImageLayer(File file, Composition comp) {
         return CompletableFuture.supplyAsync(
-                () -> TrackedIO.uncheckedRead(file), IOThread.getExecutor())
+                () -> TrackedIO.uncheckedRead(file),
+                IOThread.getExecutor(file, INTERACTIVE))
                 .handle((img, e) -> handleDecodingError(file, img, e))
                 .thenAcceptAsync(image -> comp.addExternalImageAsNewLayer(
                         image, file.getName(), "Dropped Layer"),
@@ -143,7 +150,7 @@ public class OpenSave {
 
         return CompletableFuture.supplyAsync(
                 Utils.toSupplier(loadTask),
-                IOThread.getExecutor());
+                IOThread.getExecutor(selectedFile, INTERACTIVE));
     }
 
     public static void save(boolean saveAs) {
@@ -183,7 +190,10 @@ public class OpenSave {
                 if (saveSettings instanceof JpegSettings) {
                     settings = (JpegSettings) saveSettings;
                 } else {
-                    settings = JpegSettings.DEFAULTS;
+                    // a new object, because the defaults are shared
+                    settings = new JpegSettings(
+                            JpegSettings.DEFAULTS.getQuality(),
+                            JpegSettings.DEFAULTS.isProgressive());
                     settings.setFile(saveSettings.getFile());
                     settings.setOutputFormat(saveSettings.getOutputFormat());
                 }
@@ -236,54 +246,49 @@ public class OpenSave {
         }
 
         Composition comp = ImageComponents.getActiveCompOrNull();
+        File outputDir = Dirs.getLastSave();
 
-        CompletableFuture
-                .supplyAsync(() -> exportLayersToPNG(comp), IOThread.getExecutor())
-                .thenAcceptAsync(numImg -> Messages.showInStatusBar(
-                        "Saved " + numImg + " images to " + Dirs.getLastSave())
-                        , EventQueue::invokeLater)
-                .exceptionally(Messages::showExceptionOnEDT);
-    }
-
-    private static int exportLayersToPNG(Composition comp) {
-        assert !EventQueue.isDispatchThread() : "EDT thread";
-
-        int numSavedImages = 0;
+        // every image is encoded in a separate background task,
+        // so that they can run in parallel on the IO threads
+        List<CompletableFuture<Void>> saveTasks = new ArrayList<>();
         for (int layerIndex = 0; layerIndex < comp.getNumLayers(); layerIndex++) {
             Layer layer = comp.getLayer(layerIndex);
             if (layer instanceof ImageLayer) {
                 ImageLayer imageLayer = (ImageLayer) layer;
-                BufferedImage image = imageLayer.getImage();
-
-                saveLayerImage(image, layer.getName(), layerIndex);
-                numSavedImages++;
+                saveTasks.add(saveLayerImageAsync(imageLayer::getImage,
+                        layer.getName(), layerIndex, outputDir));
             } else if (layer instanceof TextLayer) {
                 TextLayer textLayer = (TextLayer) layer;
-                BufferedImage image = textLayer.createRasterizedImage();
-
-                saveLayerImage(image, layer.getName(), layerIndex);
-                numSavedImages++;
+                saveTasks.add(saveLayerImageAsync(textLayer::createRasterizedImage,
+                        layer.getName(), layerIndex, outputDir));
             }
             if (layer.hasMask()) {
                 LayerMask mask = layer.getMask();
-                BufferedImage image = mask.getImage();
-                saveLayerImage(image, layer.getName() + "_mask", layerIndex);
-                numSavedImages++;
+                saveTasks.add(saveLayerImageAsync(mask::getImage,
+                        layer.getName() + "_mask", layerIndex, outputDir));
             }
         }
-        return numSavedImages;
-    }
 
-    private static void saveLayerImage(BufferedImage image,
-                                       String layerName,
-                                       int layerIndex) {
-        assert !EventQueue.isDispatchThread() : "EDT thread";
+        int numImages = saveTasks.size();
+        CompletableFuture
+                .allOf(saveTasks.toArray(new CompletableFuture<?>[0]))
+                .thenRunAsync(() -> Messages.showInStatusBar(
+                        "Saved " + numImages + " images to " + outputDir)
+                        , EventQueue::invokeLater)
+                .exceptionally(Messages::showExceptionOnEDT);
+    }
 
-        File outputDir = Dirs.getLastSave();
+    private static CompletableFuture<Void> saveLayerImageAsync(Supplier<BufferedImage> imageSupplier,
+                                                               String layerName,
+                                                               int layerIndex,
+                                                               File outputDir) {
         String fileName = format("%03d_%s.%s", layerIndex,
                 Utils.toFileName(layerName), "png");
         File file = new File(outputDir, fileName);
-        saveImageToFile(image, new SaveSettings(OutputFormat.PNG, file));
+        return CompletableFuture.runAsync(
+                () -> saveImageToFile(imageSupplier.get(),
+                        new SaveSettings(OutputFormat.PNG, file)),
+                IOThread.getExecutor(file, BACKGROUND));
     }
 
     public static void saveCurrentImageInAllFormats() {
@@ -21,6 +21,9 @@ import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
 
 /**
  * The output file format
@@ -66,6 +69,28 @@ public enum OutputFormat {
         OpenSave.saveImageToFile(img, settings);
     }
 
+    /**
+     * Saves the given (flattened) image without any GUI interaction,
+     * so it can be called from several threads at the same time.
+     * Only for the single-layered formats.
+     */
+    public void saveImage(BufferedImage img, File file) throws IOException {
+        assert !supportsMultipleLayers;
+
+        if (!supportsAlpha) {
+            img = ImageUtils.convertToRGB(img, false);
+        }
+        if (this == JPG) {
+            JpegOutput.writeJPG(img, file, JpegSettings.DEFAULTS, NULL_TRACKER);
+        } else {
+            TrackedIO.write(img, toString(), file, NULL_TRACKER);
+        }
+    }
+
+    public boolean supportsMultipleLayers() {
+        return supportsMultipleLayers;
+    }
+
     @Override
     public String toString() {
         return super.toString().toLowerCase();
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_BYTE_INDEXED;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.awt.image.BufferedImage.TYPE_USHORT_GRAY;
+
+/**
+ * Reads the pixel data of the images of a pxc (version 4) file,
+ * see {@link PXCChunkWriter}.
+ *
+ * Only the index is read up front. The blocks of an image are read
+ * and decompressed in parallel on the {@link ThreadPool} when the image
+ * is requested, together with the blocks of the next image, so that
+ * the next layer is already decompressed while the current one
+ * is deserialized, but no more than two images are in memory.
+ */
+class PXCChunkReader {
+    // the length of the identification and version bytes
+    private static final int HEADER_LENGTH = 3;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int structureLength;
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    PXCChunkReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        fileSize = channel.size();
+        if (fileSize < HEADER_LENGTH + 8) {
+            throw new IOException("the file is too short");
+        }
+        long indexPosition = readBytes(fileSize - 8, 8).getLong();
+        if (indexPosition < HEADER_LENGTH || indexPosition > fileSize - 8) {
+            throw new IOException("invalid index position " + indexPosition);
+        }
+        int indexLength = (int) (fileSize - 8 - indexPosition);
+        ByteBuffer indexBuffer = readBytes(indexPosition, indexLength);
+        DataInputStream index = new DataInputStream(
+                new ByteArrayInputStream(indexBuffer.array()));
+
+        structureLength = index.readInt();
+        if (structureLength < 0 || structureLength > indexPosition - HEADER_LENGTH) {
+            throw new IOException("invalid structure length " + structureLength);
+        }
+        int numChunks = index.readInt();
+        if (numChunks < 0) {
+            throw new IOException("invalid number of chunks " + numChunks);
+        }
+        for (int i = 0; i < numChunks; i++) {
+            chunks.add(new Chunk(index));
+        }
+    }
+
+    int getStructureLength() {
+        return structureLength;
+    }
+
+    /**
+     * Returns the image of the given chunk, waiting for its blocks
+     */
+    BufferedImage getImage(int chunkIndex, ProgressTracker pt) throws IOException {
+        if (chunkIndex < 0 || chunkIndex >= chunks.size()) {
+            throw new IOException("invalid chunk index " + chunkIndex);
+        }
+        Chunk chunk = chunks.get(chunkIndex);
+        chunk.startReading();
+        if (chunkIndex + 1 < chunks.size()) {
+            // the images are usually requested in order
+            chunks.get(chunkIndex + 1).startReading();
+        }
+        for (int i = 0; i < chunk.blocks.size(); i++) {
+            try {
+                chunk.blocks.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            pt.unitsDone(chunk.lengths[i]);
+        }
+        return chunk.image;
+    }
+
+    ByteBuffer readBytes(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("unexpected end of file");
+            }
+            pos += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private class Chunk {
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int blockRows;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        // null until the reading of the blocks is started
+        private BufferedImage image;
+        private final List<Future<?>> blocks = new ArrayList<>();
+
+        Chunk(DataInputStream index) throws IOException {
+            width = index.readInt();
+            height = index.readInt();
+            type = index.readInt();
+            blockRows = index.readInt();
+            int numBlocks = index.readInt();
+
+            // the values come from the file, so they are checked
+            // before they could cause runtime exceptions
+            if (width <= 0 || height <= 0
+                    || (long) width * height > Integer.MAX_VALUE / 4) {
+                throw new IOException("invalid image size " + width + "x" + height);
+            }
+            if (type < TYPE_INT_RGB || type > TYPE_BYTE_INDEXED) {
+                throw new IOException("invalid image type " + type);
+            }
+            if (blockRows <= 0 || numBlocks != (height + (long) blockRows - 1) / blockRows) {
+                throw new IOException("invalid blocks: " + numBlocks + " blocks of " + blockRows + " rows");
+            }
+
+            offsets = new long[numBlocks];
+            lengths = new int[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                long offset = index.readLong();
+                int length = index.readInt();
+                if (offset < HEADER_LENGTH || length < 0 || offset + length > fileSize) {
+                    throw new IOException("invalid block at " + offset + " with length " + length);
+                }
+                offsets[i] = offset;
+                lengths[i] = length;
+            }
+        }
+
+        void startReading() {
+            if (image != null) {
+                return; // already started
+            }
+            image = new BufferedImage(width, height, type);
+            for (int i = 0; i < offsets.length; i++) {
+                long offset = offsets[i];
+                int length = lengths[i];
+                int startY = i * blockRows;
+                int numRows = Math.min(blockRows, height - startY);
+                blocks.add(ThreadPool.submit2(() -> {
+                    decompressBlock(readBytes(offset, length).array(),
+                            image, startY, numRows);
+                    return null;
+                }));
+            }
+        }
+    }
+
+    private static void decompressBlock(byte[] data, BufferedImage img,
+                                        int startY, int numRows)
+            throws DataFormatException {
+        int width = img.getWidth();
+        int type = img.getType();
+        boolean gray = type == TYPE_BYTE_GRAY;
+        boolean gray16 = type == TYPE_USHORT_GRAY;
+        int bpp = gray ? 1 : gray16 ? 2 : 4;
+        int numPixels = width * numRows;
+        byte[] filtered = new byte[numRows * (width * bpp + 1)];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int filled = 0;
+            while (filled < filtered.length) {
+                int len = inflater.inflate(filtered, filled, filtered.length - filled);
+                if (len == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("truncated pixel data");
+                }
+                filled += len;
+            }
+        } finally {
+            inflater.end();
+        }
+        byte[] bytes = new byte[bpp * numPixels];
+        PXCPredictor.unfilter(filtered, bytes, width * bpp, numRows, bpp);
+
+        WritableRaster raster = img.getRaster();
+        if (gray) {
+            raster.setDataElements(0, startY, width, numRows, bytes);
+            return;
+        }
+        if (gray16) {
+            short[] samples = new short[numPixels];
+            ByteBuffer.wrap(bytes).asShortBuffer().get(samples);
+            raster.setDataElements(0, startY, width, numRows, samples);
+            return;
+        }
+
+        int[] pixels = new int[numPixels];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        if (raster.getNumDataElements() == 1
+                && raster.getTransferType() == DataBuffer.TYPE_INT) {
+            raster.setDataElements(0, startY, width, numRows, pixels);
+        } else {
+            img.setRGB(0, startY, width, numRows, pixels, 0, width);
+        }
+    }
+}
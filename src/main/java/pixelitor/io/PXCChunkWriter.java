@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_BINARY;
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_BYTE_INDEXED;
+import static java.awt.image.BufferedImage.TYPE_CUSTOM;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_USHORT_GRAY;
+
+/**
+ * Writes the pixel data of the images of a pxc (version 4) file.
+ *
+ * Every image is a separate chunk, and every chunk consists of
+ * independently deflated blocks of rows, which are compressed
+ * in parallel on the {@link ThreadPool} as soon as the image is added.
+ * The rows are filtered with a {@link PXCPredictor} before compression.
+ */
+class PXCChunkWriter {
+    // the approximate number of pixels in a block
+    private static final int BLOCK_PIXELS = 1 << 20;
+
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    /**
+     * Starts compressing the given image, and returns its chunk index
+     */
+    int add(BufferedImage img) {
+        Chunk chunk = new Chunk(img);
+        chunks.add(chunk);
+        return chunks.size() - 1;
+    }
+
+    int getNumBlocks() {
+        int numBlocks = 0;
+        for (Chunk chunk : chunks) {
+            numBlocks += chunk.blocks.size();
+        }
+        return numBlocks;
+    }
+
+    /**
+     * Writes the compressed blocks, waiting for them in order,
+     * and then the index of the chunks. The given position is
+     * the position of the stream in the file.
+     */
+    void writeTo(DataOutputStream out, long position, int structureLength,
+                 ProgressTracker pt) throws IOException {
+        // the offsets are collected while writing the blocks
+        List<long[]> blockOffsets = new ArrayList<>();
+        List<int[]> blockLengths = new ArrayList<>();
+
+        long pos = position;
+        for (Chunk chunk : chunks) {
+            int numBlocks = chunk.blocks.size();
+            long[] offsets = new long[numBlocks];
+            int[] lengths = new int[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                byte[] data = getResult(chunk.blocks.get(i));
+                out.write(data);
+                offsets[i] = pos;
+                lengths[i] = data.length;
+                pos += data.length;
+                pt.unitDone();
+            }
+            blockOffsets.add(offsets);
+            blockLengths.add(lengths);
+        }
+
+        // the index
+        long indexPosition = pos;
+        out.writeInt(structureLength);
+        out.writeInt(chunks.size());
+        for (int c = 0; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            out.writeInt(chunk.width);
+            out.writeInt(chunk.height);
+            out.writeInt(chunk.type);
+            out.writeInt(chunk.blockRows);
+            long[] offsets = blockOffsets.get(c);
+            int[] lengths = blockLengths.get(c);
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+            }
+        }
+
+        // the trailer, so that the index can be found
+        out.writeLong(indexPosition);
+    }
+
+    private static byte[] getResult(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class Chunk {
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int blockRows;
+        private final List<Future<byte[]>> blocks = new ArrayList<>();
+
+        Chunk(BufferedImage img) {
+            width = img.getWidth();
+            height = img.getHeight();
+            type = getSavedType(img);
+            blockRows = Math.max(1, BLOCK_PIXELS / width);
+
+            for (int y = 0; y < height; y += blockRows) {
+                int startY = y;
+                int numRows = Math.min(blockRows, height - y);
+                blocks.add(ThreadPool.submit2(() ->
+                        compressBlock(img, startY, numRows)));
+            }
+        }
+    }
+
+    /**
+     * Returns the type of the image in the file. The images whose
+     * color model is not determined by their type (custom types and
+     * the types with a palette) are saved as ARGB, because the pixels
+     * are saved without the color model.
+     */
+    static int getSavedType(BufferedImage img) {
+        int type = img.getType();
+        if (type == TYPE_CUSTOM || type == TYPE_BYTE_BINARY || type == TYPE_BYTE_INDEXED) {
+            return TYPE_INT_ARGB;
+        }
+        return type;
+    }
+
+    private static byte[] compressBlock(BufferedImage img, int startY, int numRows) {
+        int width = img.getWidth();
+        byte[] bytes;
+        int bpp;
+        if (img.getType() == TYPE_BYTE_GRAY) {
+            bpp = 1;
+            bytes = new byte[width * numRows];
+            img.getRaster().getDataElements(0, startY, width, numRows, bytes);
+        } else if (img.getType() == TYPE_USHORT_GRAY) {
+            // the 16-bit samples are saved without converting them to ARGB
+            bpp = 2;
+            short[] samples = (short[]) img.getRaster()
+                    .getDataElements(0, startY, width, numRows, null);
+            bytes = new byte[2 * samples.length];
+            ByteBuffer.wrap(bytes).asShortBuffer().put(samples);
+        } else {
+            bpp = 4;
+            int[] pixels = getIntPixels(img, startY, numRows);
+            bytes = new byte[4 * pixels.length];
+            ByteBuffer.wrap(bytes).asIntBuffer().put(pixels);
+        }
+        byte[] filtered = PXCPredictor.filter(bytes, width * bpp, numRows, bpp);
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(filtered);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        byte[] buf = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int len = deflater.deflate(buf);
+            out.write(buf, 0, len);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    // the packed pixels of int images, otherwise the pixels converted to ARGB
+    static int[] getIntPixels(BufferedImage img, int startY, int numRows) {
+        int width = img.getWidth();
+        Raster raster = img.getRaster();
+        if (raster.getNumDataElements() == 1
+                && raster.getTransferType() == DataBuffer.TYPE_INT) {
+            return (int[]) raster.getDataElements(0, startY, width, numRows, null);
+        }
+        return img.getRGB(0, startY, width, numRows, null, 0, width);
+    }
+}
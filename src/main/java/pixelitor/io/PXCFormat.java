@@ -22,9 +22,14 @@ import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
 import pixelitor.utils.SubtaskProgressTracker;
+import pixelitor.utils.VisibleForTesting;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -34,6 +39,10 @@ import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -42,25 +51,50 @@ import static pixelitor.utils.ImageUtils.getPixelsAsArray;
 
 /**
  * PXC file format support.
+ *
+ * In version 3 the whole composition, including the pixels,
+ * is serialized into a single gzip stream.
+ * In version 4 only the structure of the composition is serialized
+ * (into a gzip stream right after the header), and the pixels of
+ * each image are written into separate chunks of independently
+ * compressed blocks, followed by an index and the position of the index.
  */
 public class PXCFormat {
-    private static final int CURRENT_PXC_VERSION_NUMBER = 0x03;
-
-    // tracks the reading-writing of the whole file
-    private static ProgressTracker mainPT;
+    private static final int CURRENT_PXC_VERSION_NUMBER = 0x04;
+    private static final int HEADER_LENGTH = 3;
 
-    private static double workRatioForOneImage;
+    // the number of pixels read or written at once in version 3 files
+    private static final int BULK_IO_PIXELS = 64 * 1024;
 
     private PXCFormat() {
     }
 
     public static Composition read(File file) throws NotPxcFormatException {
-        long fileSize = file.length();
-        mainPT = new StatusBarProgressTracker(
-                "Reading " + file.getName(), (int) fileSize);
+        ProgressTracker pt = new StatusBarProgressTracker(
+                "Reading " + file.getName(), (int) file.length());
         Composition comp = null;
+        try {
+            comp = (Composition) readObject(file, pt);
+            pt.finish();
+
+            // file is transient in Composition because the pxc file can be renamed
+            comp.setFile(file);
+        } catch (IOException | ClassNotFoundException e) {
+            Messages.showException(e);
+        }
+
+        return comp;
+    }
+
+    /**
+     * Reads the root object of a pxc file. The progress tracker
+     * must expect the number of bytes in the file as units.
+     */
+    @VisibleForTesting
+    static Object readObject(File file, ProgressTracker pt)
+            throws NotPxcFormatException, IOException, ClassNotFoundException {
         try (InputStream is = new ProgressTrackingInputStream(
-                new FileInputStream(file), mainPT)) {
+                new FileInputStream(file), pt)) {
             int firstByte = is.read();
             int secondByte = is.read();
             if (firstByte == 0xAB && secondByte == 0xC4) {
@@ -84,50 +118,78 @@ public class PXCFormat {
                         .getName() + " is in an obsolete pxc format, " +
                         "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
             }
-            if (versionByte > 3) {
+            if (versionByte > 4) {
                 throw new NotPxcFormatException(file.getName() + " has unknown version byte " + versionByte);
             }
 
+            if (versionByte == 4) {
+                return readChunked(file, pt);
+            }
+
             try (GZIPInputStream gs = new GZIPInputStream(is)) {
                 try (ObjectInput ois = new ObjectInputStream(gs)) {
-                    comp = (Composition) ois.readObject();
-                    mainPT.finish();
-                    mainPT = null;
-                    
-                    // file is transient in Composition because the pxc file can be renamed
-                    comp.setFile(file);
+                    return ois.readObject();
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
-            Messages.showException(e);
         }
+    }
 
-        return comp;
+    private static Object readChunked(File file, ProgressTracker pt)
+            throws IOException, ClassNotFoundException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // reads only the index, the images are decompressed on demand
+            PXCChunkReader reader = new PXCChunkReader(raf.getChannel());
+
+            int structureLength = reader.getStructureLength();
+            byte[] structure = reader.readBytes(HEADER_LENGTH, structureLength).array();
+            pt.unitsDone(structureLength);
+
+            try (ObjectInput ois = new ChunkedInputStream(new GZIPInputStream(
+                    new ByteArrayInputStream(structure)), reader, pt)) {
+                return ois.readObject();
+            }
+        }
     }
 
     public static void write(Composition comp, File f) {
-        mainPT = new StatusBarProgressTracker(
+        ProgressTracker pt = new StatusBarProgressTracker(
                 "Writing " + f.getName(), 100);
-        int numImages = comp.calcNumImages();
-        if (numImages > 0) {
-            workRatioForOneImage = 1.0 / numImages;
-        } else {
-            workRatioForOneImage = -1;
-        }
-        try (FileOutputStream fos = new FileOutputStream(f)) {
-            fos.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
-
-            try (GZIPOutputStream gz = new GZIPOutputStream(fos)) {
-                try (ObjectOutput oos = new ObjectOutputStream(gz)) {
-                    oos.writeObject(comp);
-                    oos.flush();
-                }
-            }
+        try {
+            writeObject(comp, f, pt);
         } catch (IOException e) {
             Messages.showException(e);
         }
-        mainPT.finish();
-        mainPT = null;
+        pt.finish();
+    }
+
+    /**
+     * Writes the given root object into a version 4 pxc file.
+     * The progress tracker must expect 100 units.
+     */
+    @VisibleForTesting
+    static void writeObject(Object root, File f, ProgressTracker pt) throws IOException {
+        // the images start compressing in parallel while the
+        // structure is serialized, and serializeImage only
+        // writes the chunk index of each image
+        PXCChunkWriter writer = new PXCChunkWriter();
+        ByteArrayOutputStream structure = new ByteArrayOutputStream();
+        try (ObjectOutput oos = new ChunkedOutputStream(
+                new GZIPOutputStream(structure), writer)) {
+            oos.writeObject(root);
+        }
+
+        // the structure and each block count as one unit
+        ProgressTracker blocksPT = new SubtaskProgressTracker(
+                100.0 / (writer.getNumBlocks() + 1), pt);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+            structure.writeTo(out);
+            blocksPT.unitDone();
+
+            writer.writeTo(out, HEADER_LENGTH + structure.size(),
+                    structure.size(), blocksPT);
+        }
     }
 
     public static void serializeImage(ObjectOutputStream out,
@@ -137,33 +199,47 @@ public class PXCFormat {
         int imgWidth = img.getWidth();
         int imgHeight = img.getHeight();
 
+        if (out instanceof ChunkedOutputStream) {
+            // a version 4 file: the pixels go into a separate chunk
+            PXCChunkWriter chunkWriter = ((ChunkedOutputStream) out).getChunkWriter();
+            out.writeInt(chunkWriter.add(img));
+            return;
+        }
+
         out.writeInt(imgWidth);
         out.writeInt(imgHeight);
         out.writeInt(imgType);
 
-        ProgressTracker pt = getImageTracker();
-
         if (imgType == TYPE_BYTE_GRAY) {
             ImageIO.write(img, "PNG", out);
         } else {
+            // the pixels are written as big-endian ints, as with
+            // writeInt, but many of them at once through an IntBuffer
             int[] pixels = getPixelsAsArray(img);
             int length = pixels.length;
-            int progress = 0;
-            int fiveUnits = length / 20;
-            for (int pixel : pixels) {
-                out.writeInt(pixel);
-                progress++;
-                if (progress > fiveUnits) {
-                    pt.unitsDone(5);
-                    progress = 0;
-                }
+            byte[] buf = new byte[4 * Math.min(length, BULK_IO_PIXELS)];
+            IntBuffer intView = ByteBuffer.wrap(buf).asIntBuffer();
+            for (int start = 0; start < length; start += BULK_IO_PIXELS) {
+                int num = Math.min(BULK_IO_PIXELS, length - start);
+                intView.clear();
+                intView.put(pixels, start, num);
+                out.write(buf, 0, 4 * num);
             }
         }
     }
 
-    // when deserializing, the progress tracking
-    // is done at the InputStream level, not here
+    // when deserializing a version 3 file, the progress tracking is done
+    // at the InputStream level: the compressed bytes of the pixels are
+    // counted as they are read, so a per-image tracker would count them twice.
+    // In a version 4 file the chunk reader counts the blocks of the image.
     public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
+        if (in instanceof ChunkedInputStream) {
+            // a version 4 file: the pixels are in a separate chunk
+            ChunkedInputStream chunkedIn = (ChunkedInputStream) in;
+            int chunkIndex = in.readInt();
+            return chunkedIn.getChunkReader().getImage(chunkIndex, chunkedIn.getProgressTracker());
+        }
+
         int width = in.readInt();
         int height = in.readInt();
         int type = in.readInt();
@@ -175,19 +251,56 @@ public class PXCFormat {
             int[] pixels = getPixelsAsArray(img);
 
             int length = pixels.length;
-            for (int i = 0; i < length; i++) {
-                pixels[i] = in.readInt();
+            byte[] buf = new byte[4 * Math.min(length, BULK_IO_PIXELS)];
+            IntBuffer intView = ByteBuffer.wrap(buf).asIntBuffer();
+            for (int start = 0; start < length; start += BULK_IO_PIXELS) {
+                int num = Math.min(BULK_IO_PIXELS, length - start);
+                in.readFully(buf, 0, 4 * num);
+                intView.clear();
+                intView.get(pixels, start, num);
             }
             return img;
         }
     }
 
-    private static ProgressTracker getImageTracker() {
-        if (workRatioForOneImage == -1) {
-            // a pxc without images
-            return ProgressTracker.NULL_TRACKER;
-        } else {
-            return new SubtaskProgressTracker(workRatioForOneImage, mainPT);
+    /**
+     * The stream of the composition structure in a version 4 file,
+     * which gives the image serialization access to the chunk writer
+     */
+    private static class ChunkedOutputStream extends ObjectOutputStream {
+        private final PXCChunkWriter chunkWriter;
+
+        ChunkedOutputStream(OutputStream out, PXCChunkWriter chunkWriter) throws IOException {
+            super(out);
+            this.chunkWriter = chunkWriter;
+        }
+
+        PXCChunkWriter getChunkWriter() {
+            return chunkWriter;
+        }
+    }
+
+    /**
+     * The stream of the composition structure in a version 4 file,
+     * which gives the image deserialization access to the chunk reader
+     */
+    private static class ChunkedInputStream extends ObjectInputStream {
+        private final PXCChunkReader chunkReader;
+        private final ProgressTracker pt;
+
+        ChunkedInputStream(InputStream in, PXCChunkReader chunkReader,
+                           ProgressTracker pt) throws IOException {
+            super(in);
+            this.chunkReader = chunkReader;
+            this.pt = pt;
+        }
+
+        PXCChunkReader getChunkReader() {
+            return chunkReader;
+        }
+
+        ProgressTracker getProgressTracker() {
+            return pt;
         }
     }
 }
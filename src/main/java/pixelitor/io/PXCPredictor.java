@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+/**
+ * PNG-style scanline filtering of the pixel bytes before compression.
+ * Every filtered row starts with the filter type byte, and the filter
+ * is chosen for each row separately with the "minimum sum of absolute
+ * differences" heuristic recommended by the PNG specification.
+ * The rows above the first row of a block are treated as zeros,
+ * so that the blocks can be decoded independently.
+ */
+class PXCPredictor {
+    private static final int NONE = 0;
+    private static final int SUB = 1;
+    private static final int UP = 2;
+    private static final int AVERAGE = 3;
+    private static final int PAETH = 4;
+    private static final int NUM_FILTERS = 5;
+
+    private PXCPredictor() {
+    }
+
+    /**
+     * Returns the filtered version of the given rows of raw bytes.
+     * The result is longer by one byte per row.
+     */
+    static byte[] filter(byte[] raw, int rowBytes, int numRows, int bpp) {
+        byte[] filtered = new byte[numRows * (rowBytes + 1)];
+        byte[][] candidates = new byte[NUM_FILTERS][rowBytes];
+        byte[] zeroRow = new byte[rowBytes];
+
+        for (int y = 0; y < numRows; y++) {
+            int rowStart = y * rowBytes;
+            byte[] prevRow = zeroRow;
+            int prevStart = 0;
+            if (y > 0) {
+                prevRow = raw;
+                prevStart = rowStart - rowBytes;
+            }
+
+            int bestFilter = NONE;
+            long bestSum = Long.MAX_VALUE;
+            for (int f = 0; f < NUM_FILTERS; f++) {
+                byte[] out = candidates[f];
+                long sum = 0;
+                for (int i = 0; i < rowBytes; i++) {
+                    int x = raw[rowStart + i] & 0xFF;
+                    int a = i >= bpp ? raw[rowStart + i - bpp] & 0xFF : 0;
+                    int b = prevRow[prevStart + i] & 0xFF;
+                    int c = i >= bpp ? prevRow[prevStart + i - bpp] & 0xFF : 0;
+                    byte v = (byte) (x - predict(f, a, b, c));
+                    out[i] = v;
+                    sum += Math.abs(v);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    bestFilter = f;
+                }
+            }
+
+            int outStart = y * (rowBytes + 1);
+            filtered[outStart] = (byte) bestFilter;
+            System.arraycopy(candidates[bestFilter], 0, filtered, outStart + 1, rowBytes);
+        }
+        return filtered;
+    }
+
+    /**
+     * Reverses {@link #filter} by writing the raw bytes into the given array
+     */
+    static void unfilter(byte[] filtered, byte[] raw, int rowBytes, int numRows, int bpp) {
+        for (int y = 0; y < numRows; y++) {
+            int inStart = y * (rowBytes + 1);
+            int rowStart = y * rowBytes;
+            int filter = filtered[inStart];
+            if (filter < NONE || filter >= NUM_FILTERS) {
+                throw new IllegalArgumentException("invalid filter type " + filter);
+            }
+            for (int i = 0; i < rowBytes; i++) {
+                int a = i >= bpp ? raw[rowStart + i - bpp] & 0xFF : 0;
+                int b = y > 0 ? raw[rowStart - rowBytes + i] & 0xFF : 0;
+                int c = i >= bpp && y > 0 ? raw[rowStart - rowBytes + i - bpp] & 0xFF : 0;
+                raw[rowStart + i] = (byte) (filtered[inStart + 1 + i] + predict(filter, a, b, c));
+            }
+        }
+    }
+
+    // a is the byte to the left, b the byte above, c the byte above-left
+    private static int predict(int filter, int a, int b, int c) {
+        switch (filter) {
+            case NONE:
+                return 0;
+            case SUB:
+                return a;
+            case UP:
+                return b;
+            case AVERAGE:
+                return (a + b) >>> 1;
+            case PAETH:
+                return paeth(a, b, c);
+            default:
+                throw new IllegalStateException("filter = " + filter);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        if (pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+}
@@ -53,6 +53,13 @@ public class TrackedIO {
                              String formatName,
                              File file) throws IOException {
         ProgressTracker pt = new StatusBarProgressTracker("Writing " + file.getName(), 100);
+        write(img, formatName, file, pt);
+    }
+
+    public static void write(BufferedImage img,
+                             String formatName,
+                             File file,
+                             ProgressTracker pt) throws IOException {
         try (ImageOutputStream ios = ImageIO.createImageOutputStream(file)) {
             writeToIOS(img, ios, formatName, pt);
         }
@@ -99,7 +106,10 @@ public class TrackedIO {
     public static BufferedImage read(File file) throws IOException {
         ProgressTracker pt = new StatusBarProgressTracker(
                 "Reading " + file.getName(), 100);
+        return read(file, pt);
+    }
 
+    public static BufferedImage read(File file, ProgressTracker pt) throws IOException {
         BufferedImage image;
         try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
             image = readFromIIS(iis, pt);
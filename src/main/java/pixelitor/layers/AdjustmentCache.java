@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * The cached result of an adjustment layer: the filtered composite
+ * image of the layers bellow it, with the state of those layers.
+ * The result is reused while only the layers above change.
+ */
+class AdjustmentCache {
+    private BufferedImage result;
+    private List<Object> inputState;
+
+    // the region of the input that changed since the result was cached
+    private Rectangle dirtyInputRegion;
+
+    /**
+     * Returns the transformed input image. The returned image
+     * is the cached image itself, so it must not be modified.
+     *
+     * @param inputState the state of the layers that produced the input
+     * @param pointOp    whether each result pixel depends only on the
+     *                   corresponding input pixel, in which case only
+     *                   the changed region is transformed again
+     */
+    synchronized BufferedImage get(BufferedImage src, List<Object> inputState,
+                                   UnaryOperator<BufferedImage> transform,
+                                   boolean pointOp) {
+        boolean canReuse = result != null
+                && inputState.equals(this.inputState)
+                && result.getWidth() == src.getWidth()
+                && result.getHeight() == src.getHeight();
+        if (canReuse && dirtyInputRegion != null) {
+            Rectangle r = dirtyInputRegion.intersection(
+                    new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+            if (!pointOp) {
+                // a changed pixel can affect any result pixel
+                canReuse = false;
+            } else if (!r.isEmpty()) {
+                // recalculate only the changed region
+                BufferedImage part = transform.apply(copyOfRegion(src, r));
+                Graphics2D g = result.createGraphics();
+                g.setComposite(AlphaComposite.Src);
+                g.drawImage(part, r.x, r.y, null);
+                g.dispose();
+                part.flush();
+            }
+        }
+        if (!canReuse) {
+            invalidate();
+            BufferedImage transformed = transform.apply(src);
+            if (transformed == src) {
+                // the input will be modified by the caller
+                transformed = copyOfRegion(src,
+                        new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+            }
+            result = transformed;
+            this.inputState = inputState;
+        }
+        dirtyInputRegion = null;
+
+        return result;
+    }
+
+    /**
+     * Returns true if the given image is the cached result
+     */
+    synchronized boolean isResult(BufferedImage img) {
+        return img != null && img == result;
+    }
+
+    /**
+     * Called when the given region of the input changed
+     * without changing the state of the input layers
+     */
+    synchronized void inputRegionChanged(Rectangle region) {
+        if (result == null) {
+            return;
+        }
+        if (dirtyInputRegion == null) {
+            dirtyInputRegion = new Rectangle(region);
+        } else {
+            dirtyInputRegion.add(region);
+        }
+    }
+
+    /**
+     * Releases the cached result
+     */
+    synchronized void invalidate() {
+        if (result != null) {
+            result.flush();
+            result = null;
+        }
+        inputState = null;
+        dirtyInputRegion = null;
+    }
+
+    private static BufferedImage copyOfRegion(BufferedImage src, Rectangle r) {
+        WritableRaster raster = src.getRaster()
+                .createCompatibleWritableRaster(r.width, r.height);
+        raster.setRect(-r.x, -r.y, src.getRaster());
+        return new BufferedImage(src.getColorModel(), raster,
+                src.isAlphaPremultiplied(), null);
+    }
+}
@@ -19,14 +19,23 @@ package pixelitor.layers;
 
 import pixelitor.Composition;
 import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.FilterWithGUI;
+import pixelitor.filters.lookup.FusablePointFilter;
+import pixelitor.filters.lookup.PointOpChain;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Utils;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static pixelitor.Composition.ImageChangeActions.FULL;
 
 /**
  * A global adjustment to all the layers that are bellow this layer
@@ -39,15 +48,29 @@ public class AdjustmentLayer extends Layer {
 
     private final Filter filter;
 
+    // the result of the filter applied to the composite image of
+    // the layers bellow, with the state of those layers
+    private transient AdjustmentCache cache = new AdjustmentCache();
+
     public AdjustmentLayer(Composition comp, String name, Filter filter) {
         super(comp, name, null);
         this.filter = filter;
         isAdjustment = true;
+        listenToFilterSettings();
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         isAdjustment = true;
+        cache = new AdjustmentCache();
+        listenToFilterSettings();
+    }
+
+    private void listenToFilterSettings() {
+        if (filter instanceof ParametrizedFilter) {
+            ((ParametrizedFilter) filter).getParamSet()
+                    .setAdjustmentListener(this::filterSettingsChanged);
+        }
     }
 
     @Override
@@ -75,7 +98,113 @@ public class AdjustmentLayer extends Layer {
 
     @Override
     public BufferedImage actOnImageFromLayerBellow(BufferedImage src) {
-        return filter.transformImage(src);
+        return transformCached(src, filter::transformImage,
+                filter.isPointFilter(), true);
+    }
+
+    @Override
+    protected BufferedImage actOnImageFromLayerBellowForReading(BufferedImage src) {
+        return transformCached(src, filter::transformImage,
+                filter.isPointFilter(), false);
+    }
+
+    /**
+     * Whether this layer can be applied together with other
+     * adjustment layers in a single pass, see {@link #applyFused}
+     */
+    public boolean canBeFused() {
+        return filter instanceof FusablePointFilter
+                && !useMask() && isNormalAndOpaque();
+    }
+
+    /**
+     * Applies the filters of the given adjustment layers, which are
+     * directly bellow this one, and then the filter of this layer
+     * to the given image in a single pass.
+     * All the layers must be fusable, see {@link #canBeFused()}
+     */
+    public BufferedImage applyFused(List<AdjustmentLayer> layersBellow, BufferedImage src) {
+        PointOpChain chain = new PointOpChain();
+        for (AdjustmentLayer layer : layersBellow) {
+            assert layer.canBeFused();
+            ((FusablePointFilter) layer.filter).addTo(chain);
+        }
+        ((FusablePointFilter) filter).addTo(chain);
+
+        if (chain.isEmpty()) {
+            return src;
+        }
+        return transformCached(src, chain::transform, true, false);
+    }
+
+    @Override
+    public boolean onlyReadsImageBellow() {
+        // the filters don't modify their source image
+        return !useMask() && isNormalAndOpaque();
+    }
+
+    /**
+     * Returns true if the given image is the cached result of this
+     * layer, which is returned as the composite image so far
+     * by {@link #applyFused} and {@link #actOnImageFromLayerBellowForReading}
+     */
+    public boolean isCachedResult(BufferedImage img) {
+        return cache.isResult(img);
+    }
+
+    /**
+     * Uses the cached result if the given image is the composite
+     * of the layers bellow. The cached image is returned only
+     * if the caller doesn't need a modifiable image.
+     */
+    private BufferedImage transformCached(BufferedImage src,
+                                          UnaryOperator<BufferedImage> transform,
+                                          boolean pointOp, boolean modifiable) {
+        if (!comp.isCompositeBelowCurrentLayer(src)) {
+            // not the normal rendering of the composition
+            return transform.apply(src);
+        }
+        List<Object> inputState = comp.getStateOfLayersBelow(this);
+        synchronized (cache) {
+            BufferedImage result = cache.get(src, inputState, transform, pointOp);
+            return modifiable ? ImageUtils.copyImage(result) : result;
+        }
+    }
+
+    /**
+     * Called when a region of some layer bellow
+     * this adjustment layer has been changed
+     */
+    public void inputRegionChanged(Rectangle region) {
+        cache.inputRegionChanged(region);
+    }
+
+    /**
+     * Called when the settings of the filter have been changed
+     */
+    public void filterSettingsChanged() {
+        // the duplicates of this layer share the filter
+        for (int i = 0; i < comp.getNumLayers(); i++) {
+            Layer layer = comp.getLayer(i);
+            if (layer != this && layer instanceof AdjustmentLayer
+                    && ((AdjustmentLayer) layer).filter == filter) {
+                ((AdjustmentLayer) layer).resultChanged();
+            }
+        }
+        resultChanged();
+        comp.layerContentsChanged(FULL);
+    }
+
+    private void resultChanged() {
+        cache.invalidate();
+
+        // the caches of the adjustment layers above are also invalid
+        contentChanged();
+    }
+
+    @Override
+    protected void addPaintingState(List<Object> state) {
+        state.add(filter);
     }
 
     @Override
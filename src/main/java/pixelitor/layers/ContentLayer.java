@@ -24,6 +24,8 @@ import pixelitor.history.ContentLayerMoveEdit;
 import pixelitor.history.LinkedEdit;
 import pixelitor.history.PixelitorEdit;
 
+import java.util.List;
+
 /**
  * A layer with a content (text or image layer) that
  * can be moved/rotated.
@@ -64,6 +66,12 @@ public abstract class ContentLayer extends Layer {
         return translationY + tmpTY;
     }
 
+    @Override
+    protected void addPaintingState(List<Object> state) {
+        state.add(getTX());
+        state.add(getTY());
+    }
+
     @Override
     public void startMovement() {
         tmpTX = 0;
@@ -28,6 +28,7 @@ import pixelitor.history.ContentLayerMoveEdit;
 import pixelitor.history.History;
 import pixelitor.history.ImageEdit;
 import pixelitor.history.PixelitorEdit;
+import pixelitor.history.TileDiffEdit;
 import pixelitor.io.PXCFormat;
 import pixelitor.selection.Selection;
 import pixelitor.tools.Tools;
@@ -43,6 +44,7 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.RasterFormatException;
@@ -50,10 +52,13 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.ref.SoftReference;
+import java.util.List;
 
 import static java.awt.RenderingHints.KEY_INTERPOLATION;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_BICUBIC;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 import static pixelitor.ChangeReason.REPEAT_LAST;
@@ -103,6 +108,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     private transient TmpDrawingLayer tmpDrawingLayer;
 
+    // the layer image merged with the brush stroke, used for painting
+    // a layer that is not in normal mode while a brush stroke is in progress.
+    // Only one stroke is in progress at a time, so it is shared by all layers
+    // and kept between the strokes, unless the memory is low
+    private static SoftReference<BufferedImage> strokePreviewRef = new SoftReference<>(null);
+
     /**
      * The regular image content of this image layer
      */
@@ -371,9 +382,15 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert previewImage != null;
 
         if (imageContentChanged) {
-            ImageEdit edit = new ImageEdit(filterName, comp, this,
-                    getSelectedSubImage(true),
-                    false, true);
+            // if only a part of the image changed, then
+            // it is enough to save the changed tiles
+            PixelitorEdit edit = TileDiffEdit.createIfSmaller(filterName,
+                    comp, this, image, previewImage, true);
+            if (edit == null) {
+                edit = new ImageEdit(filterName, comp, this,
+                        getSelectedSubImage(true),
+                        false, true);
+            }
             History.addEdit(edit);
         }
 
@@ -475,6 +492,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert state == NORMAL;
 
         BufferedImage imageForUndo = getFilterSourceImage();
+        BufferedImage oldImage = image;
         setImageWithSelection(transformedImage);
 
         if (!cr.needsUndo()) {
@@ -487,8 +505,17 @@ public class ImageLayer extends ContentLayer implements Drawable {
             throw new IllegalStateException("imageForUndo == image");
         }
         assert imageForUndo != null;
-        ImageEdit edit = new ImageEdit(filterName, comp, this,
-                imageForUndo, false, true);
+        PixelitorEdit edit = null;
+        if (oldImage != image) {
+            // without selection the old image was replaced,
+            // therefore the changed tiles can be found
+            edit = TileDiffEdit.createIfSmaller(filterName, comp, this,
+                    oldImage, image, true);
+        }
+        if (edit == null) {
+            edit = new ImageEdit(filterName, comp, this,
+                    imageForUndo, false, true);
+        }
         History.addEdit(edit);
 
         // otherwise the next filter run will take the old image source,
@@ -886,20 +913,83 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 g.drawImage(visibleImage, getTX(), getTY(), null);
                 tmpDrawingLayer.paintOn(g, 0, 0);
             } else { // layer is not in normal mode
-                // first create a merged layer-brush image
-                BufferedImage mergedLayerBrushImg = copyImage(visibleImage);
-                // TODO a canvas-sized image would be enough?
-                Graphics2D mergedLayerBrushG = mergedLayerBrushImg.createGraphics();
-
-                // draw the brush on the layer
-                tmpDrawingLayer.paintOn(mergedLayerBrushG, -getTX(), -getTY());
-                mergedLayerBrushG.dispose();
-
-                // now draw the merged layer-brush on the target Graphics
-                // with the layer composite
-                g.drawImage(mergedLayerBrushImg, getTX(), getTY(), null);
+                paintWithStrokePreview(g, visibleImage);
+            }
+        }
+    }
+
+    @Override
+    protected void addPaintingState(List<Object> state) {
+        super.addPaintingState(state);
+        state.add(getVisibleImage());
+    }
+
+    /**
+     * Paints the layer merged with the brush stroke in progress, so that the
+     * layer composite is applied to the merged result. Only the area
+     * affected by the stroke (within the clip of the given Graphics) has
+     * to be merged, the rest of the layer is painted as usual.
+     */
+    private void paintWithStrokePreview(Graphics2D g, BufferedImage visibleImage) {
+        Rectangle canvasBounds = canvas.getImBounds();
+        Rectangle region = tmpDrawingLayer.getAffectedArea().intersection(canvasBounds);
+        Rectangle clipBounds = g.getClipBounds();
+        if (clipBounds != null) {
+            region = region.intersection(clipBounds);
+        }
+        if (region.isEmpty()) {
+            g.drawImage(visibleImage, getTX(), getTY(), null);
+            return;
+        }
+
+        Shape oldClip = g.getClip();
+        Area outside = new Area(oldClip != null ? oldClip : canvasBounds);
+        outside.subtract(new Area(region));
+        if (!outside.isEmpty()) {
+            g.setClip(outside);
+            g.drawImage(visibleImage, getTX(), getTY(), null);
+            g.setClip(oldClip);
+        }
+
+        g.clip(region);
+        paintMergedRegion(g, visibleImage, getTX(), getTY(), tmpDrawingLayer, region);
+        g.setClip(oldClip);
+    }
+
+    private static synchronized void paintMergedRegion(Graphics2D g,
+                                                       BufferedImage visibleImage,
+                                                       int tx, int ty,
+                                                       TmpDrawingLayer tmpDrawingLayer,
+                                                       Rectangle region) {
+        BufferedImage merged = strokePreviewRef.get();
+        if (merged == null
+                || merged.getWidth() < region.x + region.width
+                || merged.getHeight() < region.y + region.height) {
+            int width = region.x + region.width;
+            int height = region.y + region.height;
+            if (merged != null) {
+                width = Math.max(width, merged.getWidth());
+                height = Math.max(height, merged.getHeight());
+                merged.flush();
             }
+            merged = new BufferedImage(width, height, TYPE_INT_ARGB);
+            strokePreviewRef = new SoftReference<>(merged);
         }
+
+        // first merge the layer and the brush within the region...
+        Graphics2D mergedG = merged.createGraphics();
+        mergedG.setClip(region);
+        mergedG.setComposite(AlphaComposite.Clear);
+        mergedG.fill(region);
+        // copied without blending, so that the pixels are not changed by rounding
+        mergedG.setComposite(AlphaComposite.Src);
+        mergedG.drawImage(visibleImage, tx, ty, null);
+        tmpDrawingLayer.paintOn(mergedG, 0, 0);
+        mergedG.dispose();
+
+        // ...then draw the merged region on the target
+        // Graphics (already clipped) with the layer composite
+        g.drawImage(merged, 0, 0, null);
     }
 
     protected void paintLayerOnGraphicsWOTmpLayer(Graphics2D g,
@@ -34,11 +34,13 @@ import pixelitor.history.LayerVisibilityChangeEdit;
 import pixelitor.history.LinkedEdit;
 import pixelitor.history.PixelitorEdit;
 import pixelitor.selection.Selection;
+import pixelitor.tools.Tools;
 import pixelitor.utils.Messages;
 
 import java.awt.AlphaComposite;
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -86,6 +88,20 @@ public abstract class Layer implements Serializable {
      */
     private transient boolean maskEditing = false;
 
+    // the layer painted with its mask, see paintLayerOnGraphicsWithMask
+    private transient BufferedImage maskedImage;
+
+    // the state from which the masked image was created,
+    // null if the masked image must be fully repainted
+    private transient List<Object> maskedImageState;
+
+    // the part of the masked image that must be repainted, or null
+    private transient Rectangle maskedImageDirtyRegion;
+
+    // incremented when the pixels change in a way that is not
+    // reported as a region change, used for validating caches
+    private transient long contentVersion;
+
     Layer(Composition comp, String name, Layer parent) {
         assert comp != null;
         assert name != null;
@@ -354,6 +370,14 @@ public abstract class Layer implements Serializable {
         MaskViewMode.NORMAL.activate(ic, this, "mask deleted");
     }
 
+    /**
+     * Returns true for the layers that transform the image
+     * below them (adjustment layers and watermarked text layers)
+     */
+    public boolean isAdjustment() {
+        return isAdjustment;
+    }
+
     /**
      * Applies the effect of this layer on the given Graphics2D
      * or on the given BufferedImage.
@@ -369,6 +393,7 @@ public abstract class Layer implements Serializable {
             return adjustImageWithMasksAndBlending(imageSoFar, firstVisibleLayer);
         } else {
             if (!useMask()) {
+                releaseMaskedImage();
                 setupDrawingComposite(g, firstVisibleLayer);
                 paintLayerOnGraphics(g, firstVisibleLayer);
             } else {
@@ -384,28 +409,143 @@ public abstract class Layer implements Serializable {
     public abstract void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer);
 
     /**
-     * Returns the masked image for the non-adjustment case.
-     * The returned image is canvas-sized, and the masks and the
+     * Paints the masked image for the non-adjustment case.
+     * The masked image is canvas-sized, and the masks and the
      * translations are taken into account
      */
     private void paintLayerOnGraphicsWithMask(Graphics2D g, boolean firstVisibleLayer) {
-//        Canvas canvas = comp.getCanvas();
-
-        // 1. create the masked image
-        // TODO the masked image should be cached
-        BufferedImage maskedImage = new BufferedImage(
-                canvas.getImWidth(), canvas.getImHeight(), TYPE_INT_ARGB);
-        Graphics2D mig = maskedImage.createGraphics();
-        paintLayerOnGraphics(mig, firstVisibleLayer);
-        mig.setComposite(DstIn);
-        mig.drawImage(mask.getTransparencyImage(),
-                mask.getTX(), mask.getTY(), null);
-        mig.dispose();
+        // 1. get the cached masked image, updating it if necessary
+        BufferedImage img = getUpToDateMaskedImage(firstVisibleLayer);
 
         // 2. paint the masked image onto the graphics
-//            g.drawImage(maskedImage, getTX(), getTY(), null);
         setupDrawingComposite(g, firstVisibleLayer);
-        g.drawImage(maskedImage, 0, 0, null);
+        g.drawImage(img, 0, 0, null);
+    }
+
+    private synchronized BufferedImage getUpToDateMaskedImage(boolean firstVisibleLayer) {
+        int width = canvas.getImWidth();
+        int height = canvas.getImHeight();
+        Rectangle canvasBounds = new Rectangle(0, 0, width, height);
+
+        if (maskedImage == null
+                || maskedImage.getWidth() != width
+                || maskedImage.getHeight() != height) {
+            maskedImage = new BufferedImage(width, height, TYPE_INT_ARGB);
+            maskedImageState = null;
+        }
+
+        // while dragging shapes, the layer or the mask can look different
+        // at every repaint, so the masked image is always repainted
+        boolean cacheable = !(isActive() && Tools.isShapesDrawing());
+        List<Object> state = cacheable ? getMaskedImageState(firstVisibleLayer) : null;
+
+        Rectangle region;
+        if (maskedImageState == null || !maskedImageState.equals(state)) {
+            region = canvasBounds;
+        } else if (maskedImageDirtyRegion != null) {
+            region = maskedImageDirtyRegion.intersection(canvasBounds);
+        } else {
+            return maskedImage;
+        }
+
+        if (!region.isEmpty()) {
+            Graphics2D mig = maskedImage.createGraphics();
+            mig.setClip(region);
+            mig.setComposite(AlphaComposite.Clear);
+            mig.fill(region);
+            mig.setComposite(AlphaComposite.SrcOver);
+            paintLayerOnGraphics(mig, firstVisibleLayer);
+            mig.setComposite(DstIn);
+            mig.drawImage(mask.getTransparencyImage(),
+                    mask.getTX(), mask.getTY(), null);
+            mig.dispose();
+        }
+
+        maskedImageState = state;
+        maskedImageDirtyRegion = null;
+        return maskedImage;
+    }
+
+    /**
+     * Returns the objects that determine the masked image
+     * (apart from the changes of the pixels, which are reported
+     * through the invalidation methods)
+     */
+    private List<Object> getMaskedImageState(boolean firstVisibleLayer) {
+        List<Object> state = new ArrayList<>();
+        state.add(firstVisibleLayer);
+        state.add(mask.getImage());
+        state.add(mask.getTX());
+        state.add(mask.getTY());
+        state.add(mask.isLinked());
+        addPaintingState(state);
+        return state;
+    }
+
+    /**
+     * Adds the objects that determine how this layer is painted
+     * (apart from its pixels) to the given cache state
+     */
+    protected void addPaintingState(List<Object> state) {
+    }
+
+    /**
+     * Adds the objects that determine the effect of this layer
+     * on the composite image to the given cache state
+     */
+    public void addRenderState(List<Object> state) {
+        state.add(this);
+        state.add(visible);
+        state.add(opacity);
+        state.add(blendingMode);
+        state.add(contentVersion);
+        if (useMask()) {
+            state.add(mask.getImage());
+            state.add(mask.getTX());
+            state.add(mask.getTY());
+        } else {
+            state.add(null);
+        }
+        addPaintingState(state);
+    }
+
+    /**
+     * The pixels of this layer (or of its mask) changed in an unknown way
+     */
+    public void contentChanged() {
+        contentVersion++;
+        invalidateMaskedImage();
+    }
+
+    /**
+     * The masked image must be fully repainted
+     */
+    public synchronized void invalidateMaskedImage() {
+        maskedImageState = null;
+        maskedImageDirtyRegion = null;
+    }
+
+    /**
+     * The given region (in image space) of the masked image must be repainted
+     */
+    public synchronized void invalidateMaskedImage(Rectangle region) {
+        if (maskedImageState == null) {
+            return; // will be fully repainted anyway
+        }
+        if (maskedImageDirtyRegion == null) {
+            maskedImageDirtyRegion = new Rectangle(region);
+        } else {
+            maskedImageDirtyRegion.add(region);
+        }
+    }
+
+    private synchronized void releaseMaskedImage() {
+        if (maskedImage != null) {
+            maskedImage.flush();
+            maskedImage = null;
+            maskedImageState = null;
+            maskedImageDirtyRegion = null;
+        }
     }
 
     /**
@@ -416,7 +556,12 @@ public abstract class Layer implements Serializable {
         if (isFirstVisibleLayer) {
             return imgSoFar; // there's nothing we can do
         }
-        BufferedImage transformed = actOnImageFromLayerBellow(imgSoFar);
+        // the result has to be a modifiable image only if the mask
+        // is applied to it, otherwise it is drawn on the image so far
+        // or returned as the new (read-only) image so far
+        BufferedImage transformed = useMask()
+                ? actOnImageFromLayerBellow(imgSoFar)
+                : actOnImageFromLayerBellowForReading(imgSoFar);
         if (useMask()) {
             mask.applyToImage(transformed);
         }
@@ -436,6 +581,23 @@ public abstract class Layer implements Serializable {
      */
     protected abstract BufferedImage actOnImageFromLayerBellow(BufferedImage src);
 
+    /**
+     * Like {@link #actOnImageFromLayerBellow(BufferedImage)}, but the
+     * returned image is not modified, so it can be a shared image
+     */
+    protected BufferedImage actOnImageFromLayerBellowForReading(BufferedImage src) {
+        return actOnImageFromLayerBellow(src);
+    }
+
+    /**
+     * Returns true if applying this layer doesn't modify the
+     * composite image of the layers bellow, and therefore that
+     * image doesn't have to be copied if it is a shared image
+     */
+    public boolean onlyReadsImageBellow() {
+        return false;
+    }
+
     public abstract void resize(int targetWidth, int targetHeight);
 
     /**
@@ -563,7 +725,7 @@ public abstract class Layer implements Serializable {
         }
     }
 
-    private boolean useMask() {
+    protected boolean useMask() {
         return mask != null && maskEnabled;
     }
 
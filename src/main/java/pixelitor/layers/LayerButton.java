@@ -24,11 +24,13 @@ import pixelitor.gui.ImageComponent;
 import pixelitor.gui.PixelitorWindow;
 import pixelitor.utils.Icons;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.MipmapPyramid;
 import pixelitor.utils.VisibleForTesting;
 
 import javax.swing.*;
 import javax.swing.border.Border;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
@@ -37,6 +39,7 @@ import static javax.swing.BorderFactory.createCompoundBorder;
 import static javax.swing.BorderFactory.createLineBorder;
 import static javax.swing.BorderFactory.createMatteBorder;
 import static pixelitor.layers.LayerButtonLayout.thumbSize;
+import static pixelitor.utils.ImageUtils.calcThumbDimensions;
 import static pixelitor.utils.ImageUtils.createThumbnail;
 
 /**
@@ -313,7 +316,12 @@ public class LayerButton extends JToggleButton {
                 painter = checkerBoardPainter;
             }
 
-            BufferedImage thumb = createThumbnail(img, thumbSize, painter);
+            // sampling a box-filtered reduction of the image
+            // avoids the aliasing of sampling the full image
+            Dimension thumbDim = calcThumbDimensions(img, thumbSize);
+            BufferedImage reduced = MipmapPyramid.reduceFor(img,
+                    thumbDim.width, thumbDim.height);
+            BufferedImage thumb = createThumbnail(reduced, thumbSize, painter);
 
             SwingUtilities.invokeLater(() ->
                     updateIconOnEDT(layer, isMask, thumb));
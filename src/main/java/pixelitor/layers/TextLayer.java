@@ -43,6 +43,7 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.List;
 
 import static org.jdesktop.swingx.painter.AbstractLayoutPainter.HorizontalAlignment.CENTER;
 import static org.jdesktop.swingx.painter.AbstractLayoutPainter.HorizontalAlignment.LEFT;
@@ -194,6 +195,12 @@ public class TextLayer extends ContentLayer {
         painter.paint(g, null, comp.getCanvasImWidth(), comp.getCanvasImHeight());
     }
 
+    @Override
+    protected void addPaintingState(List<Object> state) {
+        super.addPaintingState(state);
+        state.add(settings);
+    }
+
     @Override
     public BufferedImage applyLayer(Graphics2D g, BufferedImage imageSoFar, boolean firstVisibleLayer) {
         if (settings == null) {
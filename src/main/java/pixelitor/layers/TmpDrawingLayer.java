@@ -19,6 +19,7 @@ package pixelitor.layers;
 
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.Objects;
 
@@ -30,6 +31,10 @@ public class TmpDrawingLayer {
     private final Graphics2D g;
     private final Composite composite;
 
+    // the region that contains everything drawn so far,
+    // or null if it is not known
+    private Rectangle affectedArea;
+
     public TmpDrawingLayer(ImageLayer imageLayer, Composite composite) {
         this.composite = Objects.requireNonNull(composite);
 
@@ -52,6 +57,25 @@ public class TmpDrawingLayer {
         return image.getHeight();
     }
 
+    /**
+     * Sets the region (relative to the canvas)
+     * that contains everything drawn so far
+     */
+    public void setAffectedArea(Rectangle affectedArea) {
+        this.affectedArea = affectedArea;
+    }
+
+    /**
+     * Returns the region that contains everything drawn so far,
+     * or the whole image if the drawing tool doesn't track it
+     */
+    public Rectangle getAffectedArea() {
+        if (affectedArea == null) {
+            return new Rectangle(0, 0, image.getWidth(), image.getHeight());
+        }
+        return affectedArea;
+    }
+
     public void dispose() {
         g.dispose();
         image.flush();
@@ -843,12 +843,8 @@ public class MenuBar extends JMenuBar {
     private static JMenu createNoiseSubmenu() {
         PMenu sub = new PMenu("Noise");
 
-        sub.buildFilter(JHReduceNoise.NAME, JHReduceNoise::new)
-                .noGUI()
-                .add();
-        sub.buildFilter(JHMedian.NAME, JHMedian::new)
-                .noGUI()
-                .add();
+        sub.addFilter(JHReduceNoise.NAME, JHReduceNoise::new);
+        sub.addFilter(JHMedian.NAME, JHMedian::new);
 
         sub.addSeparator();
 
@@ -941,7 +937,7 @@ public class MenuBar extends JMenuBar {
         sub.addAction(new FilterAction(JHLaplacian.NAME, JHLaplacian::new)
                 .withoutGUI());
         sub.addFilter(JHDifferenceOfGaussians.NAME, JHDifferenceOfGaussians::new);
-        sub.addFilter("Canny", Canny::new);
+        sub.addFilter(Canny.NAME, Canny::new);
 
         return sub;
     }
@@ -18,6 +18,7 @@
 package pixelitor.menus.help;
 
 import pixelitor.gui.utils.GridBagHelper;
+import pixelitor.history.History;
 import pixelitor.utils.MemoryInfo;
 
 import javax.swing.*;
@@ -47,5 +48,13 @@ class SystemInfoPanel extends JPanel {
         gbh.addTwoLabels("Used Memory:", mi.getUsedMemory());
         gbh.addTwoLabels("Free Memory:", mi.getFreeMemory());
         gbh.addTwoLabels("Max Memory:", mi.getMaxMemory());
+
+        gbh.addTwoLabels("Undo Memory:", toMegabytes(History.getBackupMemoryUsage())
+                + " (budget: " + toMegabytes(History.getBackupMemoryBudget()) + ")");
+        gbh.addTwoLabels("Undo Disk Usage:", toMegabytes(History.getBackupDiskUsage()));
+    }
+
+    private static String toMegabytes(long bytes) {
+        return bytes / MemoryInfo.ONE_MEGABYTE + " megabytes";
     }
 }
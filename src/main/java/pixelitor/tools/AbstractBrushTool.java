@@ -229,6 +229,7 @@ public abstract class AbstractBrushTool extends Tool {
         } else {
             affectedArea.initAt(e);
         }
+        affectedAreaChanged();
     }
 
     protected boolean withLine(PMouseEvent e) {
@@ -241,6 +242,12 @@ public abstract class AbstractBrushTool extends Tool {
     @Override
     public void mouseDragged(PMouseEvent e) {
         newMousePoint(e.getComp().getActiveDrawableOrThrow(), e, false);
+        affectedAreaChanged();
+    }
+
+    private void affectedAreaChanged() {
+        drawDestination.affectedAreaChanged(
+                affectedArea.asRectangle(brush.getActualRadius()));
     }
 
     @Override
@@ -273,7 +280,7 @@ public abstract class AbstractBrushTool extends Tool {
 
         dr.updateIconImage();
 
-        dr.getComp().imageChanged(HISTOGRAM);
+        dr.getComp().activeLayerImageChanged(HISTOGRAM);
     }
 
     public void drawBrushStrokeProgrammatically(Drawable dr, PPoint start, PPoint end) {
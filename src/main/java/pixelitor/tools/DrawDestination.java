@@ -18,11 +18,13 @@
 package pixelitor.tools;
 
 import pixelitor.layers.Drawable;
+import pixelitor.layers.TmpDrawingLayer;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.test.Assertions;
 
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -32,9 +34,12 @@ import java.awt.image.BufferedImage;
  */
 public enum DrawDestination {
     TMP_LAYER {
+        private TmpDrawingLayer tmpDrawingLayer;
+
         @Override
         public Graphics2D createGraphics(Drawable dr, Composite composite) {
-            return dr.createTmpDrawingLayer(composite).getGraphics();
+            tmpDrawingLayer = dr.createTmpDrawingLayer(composite);
+            return tmpDrawingLayer.getGraphics();
         }
 
         @Override
@@ -42,9 +47,18 @@ public enum DrawDestination {
             // nothing to be done
         }
 
+        @Override
+        public void affectedAreaChanged(Rectangle area) {
+            // the layer preview has to merge only this area
+            if (tmpDrawingLayer != null) {
+                tmpDrawingLayer.setAffectedArea(area);
+            }
+        }
+
         @Override
         public void finishBrushStroke(Drawable dr) {
             dr.mergeTmpDrawingLayerDown();
+            tmpDrawingLayer = null;
         }
 
         @Override
@@ -72,6 +86,11 @@ public enum DrawDestination {
             copyBeforeStart = ImageUtils.copyImage(image);
         }
 
+        @Override
+        public void affectedAreaChanged(Rectangle area) {
+            // nothing to be done
+        }
+
         @Override
         public void finishBrushStroke(Drawable dr) {
             copyBeforeStart.flush();
@@ -92,6 +111,12 @@ public enum DrawDestination {
 
     public abstract void prepareBrushStroke(Drawable dr);
 
+    /**
+     * Called while a brush stroke is in progress with the
+     * area (in image space) affected by it so far
+     */
+    public abstract void affectedAreaChanged(Rectangle area);
+
     public abstract void finishBrushStroke(Drawable dr);
 
     /**
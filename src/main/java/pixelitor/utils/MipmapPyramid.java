@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Successively halved, box-filtered versions of an image.
+ * Level 0 is the source image itself, and the size of level n
+ * is (approximately) the source size divided by 2^n.
+ *
+ * The levels are calculated lazily, and after a change
+ * of the source only the changed region is recalculated.
+ * This class is not thread-safe.
+ */
+public class MipmapPyramid {
+    private static final int MAX_LEVEL = 16;
+
+    private BufferedImage source;
+
+    // levels[n] is the image of level n, null for the
+    // source level and for levels that were not yet needed
+    private final BufferedImage[] levels = new BufferedImage[MAX_LEVEL + 1];
+
+    // dirty[n] is the region of the source (in level 0 coordinates)
+    // that changed since level n was last updated, or null
+    private final Rectangle[] dirty = new Rectangle[MAX_LEVEL + 1];
+
+    /**
+     * Sets a new source image. If the changed region is not null, then
+     * the new source must have the same size as the old one, and it
+     * can only differ from the old one inside the given region.
+     */
+    public void setSource(BufferedImage newSource, Rectangle changedRegion) {
+        boolean sameSize = source != null
+                && source.getWidth() == newSource.getWidth()
+                && source.getHeight() == newSource.getHeight();
+        source = newSource;
+        if (!sameSize) {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = null;
+                dirty[i] = null;
+            }
+        } else if (changedRegion == null) {
+            // the level images can be reused
+            invalidate(new Rectangle(0, 0, source.getWidth(), source.getHeight()));
+        } else {
+            invalidate(changedRegion);
+        }
+    }
+
+    /**
+     * The given region (in level 0 coordinates) of the source image changed
+     */
+    public void invalidate(Rectangle region) {
+        for (int i = 1; i < levels.length; i++) {
+            if (levels[i] != null) {
+                if (dirty[i] == null) {
+                    dirty[i] = new Rectangle(region);
+                } else {
+                    dirty[i].add(region);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the up-to-date image of the given level
+     */
+    public BufferedImage getLevel(int level) {
+        assert source != null;
+        assert level >= 0 && level <= MAX_LEVEL : "level = " + level;
+
+        BufferedImage prev = source;
+        for (int i = 1; i <= level; i++) {
+            if (levels[i] == null) {
+                if (!isPackedInt(prev)) {
+                    prev = convertToPackedInt(prev);
+                }
+                levels[i] = createHalfImage(prev);
+                halve(prev, levels[i], new Rectangle(0, 0,
+                        levels[i].getWidth(), levels[i].getHeight()));
+                dirty[i] = null;
+            } else if (dirty[i] != null) {
+                if (!isPackedInt(prev)) {
+                    prev = convertToPackedInt(prev);
+                }
+                halve(prev, levels[i], toLevelRect(dirty[i], i, levels[i]));
+                dirty[i] = null;
+            }
+            prev = levels[i];
+        }
+        return prev;
+    }
+
+    /**
+     * Returns the highest level that is still at least as big as
+     * the image painted with the given scaling factor.
+     */
+    public static int levelFor(double scale) {
+        int level = 0;
+        while (level < MAX_LEVEL && scale * (1 << (level + 1)) <= 1.0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the smallest box-filtered reduction of the given image
+     * that is still at least as big as the given size in both directions.
+     * This is meant for one-off thumbnails, it doesn't cache anything.
+     */
+    public static BufferedImage reduceFor(BufferedImage src, int minWidth, int minHeight) {
+        BufferedImage img = src;
+        while (img.getWidth() / 2 >= minWidth && img.getHeight() / 2 >= minHeight) {
+            if (!isPackedInt(img)) {
+                img = convertToPackedInt(img);
+            }
+            BufferedImage half = createHalfImage(img);
+            halve(img, half, new Rectangle(0, 0, half.getWidth(), half.getHeight()));
+            img = half;
+        }
+        return img;
+    }
+
+    // converts a region in level 0 coordinates into the coordinates of the given level
+    private static Rectangle toLevelRect(Rectangle r, int level, BufferedImage levelImage) {
+        int x1 = r.x >> level;
+        int y1 = r.y >> level;
+        int x2 = (r.x + r.width + (1 << level) - 1) >> level;
+        int y2 = (r.y + r.height + (1 << level) - 1) >> level;
+        Rectangle levelRect = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+        return levelRect.intersection(new Rectangle(0, 0,
+                levelImage.getWidth(), levelImage.getHeight()));
+    }
+
+    private static BufferedImage createHalfImage(BufferedImage src) {
+        int width = Math.max(1, (src.getWidth() + 1) / 2);
+        int height = Math.max(1, (src.getHeight() + 1) / 2);
+        ColorModel cm = src.getColorModel();
+        return new BufferedImage(cm, cm.createCompatibleWritableRaster(width, height),
+                cm.isAlphaPremultiplied(), null);
+    }
+
+    private static boolean isPackedInt(BufferedImage img) {
+        int type = img.getType();
+        return type == BufferedImage.TYPE_INT_ARGB
+                || type == TYPE_INT_ARGB_PRE
+                || type == BufferedImage.TYPE_INT_RGB;
+    }
+
+    private static BufferedImage convertToPackedInt(BufferedImage src) {
+        BufferedImage converted = new BufferedImage(
+                src.getWidth(), src.getHeight(), TYPE_INT_ARGB_PRE);
+        Graphics2D g = converted.createGraphics();
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+
+    /**
+     * Calculates the given region of dst by averaging 2x2 blocks of src.
+     * At the right and bottom edges of odd-sized images
+     * the last row or column is used twice.
+     */
+    private static void halve(BufferedImage src, BufferedImage dst, Rectangle dstRegion) {
+        if (dstRegion.isEmpty()) {
+            return;
+        }
+        ColorModel cm = src.getColorModel();
+        boolean hasAlpha = cm.hasAlpha();
+        boolean premultiplied = cm.isAlphaPremultiplied();
+        assert cm instanceof DirectColorModel
+                && src.getRaster().getTransferType() == DataBuffer.TYPE_INT;
+
+        Raster srcRaster = src.getRaster();
+        WritableRaster dstRaster = dst.getRaster();
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+
+        int dstX = dstRegion.x;
+        int dstWidth = dstRegion.width;
+        int srcX = 2 * dstX;
+        int srcRowWidth = Math.min(2 * dstWidth, srcWidth - srcX);
+
+        int[] row1 = new int[srcRowWidth];
+        int[] row2 = new int[srcRowWidth];
+        int[] dstRow = new int[dstWidth];
+
+        for (int y = dstRegion.y; y < dstRegion.y + dstRegion.height; y++) {
+            int srcY1 = 2 * y;
+            int srcY2 = Math.min(srcY1 + 1, srcHeight - 1);
+            srcRaster.getDataElements(srcX, srcY1, srcRowWidth, 1, row1);
+            srcRaster.getDataElements(srcX, srcY2, srcRowWidth, 1, row2);
+
+            for (int i = 0; i < dstWidth; i++) {
+                int i1 = 2 * i;
+                int i2 = Math.min(i1 + 1, srcRowWidth - 1);
+                int p1 = row1[i1];
+                int p2 = row1[i2];
+                int p3 = row2[i1];
+                int p4 = row2[i2];
+                if (!hasAlpha) {
+                    dstRow[i] = 0xFF_00_00_00 | average(p1, p2, p3, p4);
+                } else if (premultiplied) {
+                    dstRow[i] = average(p1, p2, p3, p4);
+                } else {
+                    dstRow[i] = alphaWeightedAverage(p1, p2, p3, p4);
+                }
+            }
+            dstRaster.setDataElements(dstX, y, dstWidth, 1, dstRow);
+        }
+    }
+
+    // averages all four channels independently
+    private static int average(int p1, int p2, int p3, int p4) {
+        int a = ((p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + (p4 >>> 24) + 2) >> 2;
+        int r = (((p1 >>> 16) & 0xFF) + ((p2 >>> 16) & 0xFF)
+                + ((p3 >>> 16) & 0xFF) + ((p4 >>> 16) & 0xFF) + 2) >> 2;
+        int g = (((p1 >>> 8) & 0xFF) + ((p2 >>> 8) & 0xFF)
+                + ((p3 >>> 8) & 0xFF) + ((p4 >>> 8) & 0xFF) + 2) >> 2;
+        int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // for non-premultiplied pixels, so that the colors
+    // of transparent pixels don't bleed into the result
+    private static int alphaWeightedAverage(int p1, int p2, int p3, int p4) {
+        int a1 = p1 >>> 24;
+        int a2 = p2 >>> 24;
+        int a3 = p3 >>> 24;
+        int a4 = p4 >>> 24;
+        int sumA = a1 + a2 + a3 + a4;
+        if (sumA == 0) {
+            return 0;
+        }
+        int half = sumA / 2;
+        int r = (((p1 >>> 16) & 0xFF) * a1 + ((p2 >>> 16) & 0xFF) * a2
+                + ((p3 >>> 16) & 0xFF) * a3 + ((p4 >>> 16) & 0xFF) * a4 + half) / sumA;
+        int g = (((p1 >>> 8) & 0xFF) * a1 + ((p2 >>> 8) & 0xFF) * a2
+                + ((p3 >>> 8) & 0xFF) * a3 + ((p4 >>> 8) & 0xFF) * a4 + half) / sumA;
+        int b = ((p1 & 0xFF) * a1 + (p2 & 0xFF) * a2
+                + (p3 & 0xFF) * a3 + (p4 & 0xFF) * a4 + half) / sumA;
+        int a = (sumA + 2) >> 2;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
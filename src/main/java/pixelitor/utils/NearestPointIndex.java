@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+/**
+ * A uniform grid over a set of points, which finds the nearest
+ * point to any location without checking all the points.
+ *
+ * The cells are searched in growing square rings around the cell
+ * of the location, and the search stops when no unvisited cell
+ * can contain a closer point. This works for every {@link Metric}
+ * whose distance grows with the coordinate differences and is at
+ * least the distance measured along one axis.
+ */
+public class NearestPointIndex {
+    // the average number of points in a cell
+    private static final double POINTS_PER_CELL = 2.0;
+
+    private final int[] xCoords;
+    private final int[] yCoords;
+    private final Metric metric;
+
+    private final double cellSize;
+    private final int numCellsX;
+    private final int numCellsY;
+
+    // the point indices grouped by cell, and the start of every
+    // cell's group (the groups keep the original order of the points)
+    private final int[] cellStarts;
+    private final int[] cellPoints;
+
+    /**
+     * The points must be within a width x height area starting at 0, 0.
+     * The coordinate arrays are not copied.
+     */
+    public NearestPointIndex(int[] xCoords, int[] yCoords, int numPoints,
+                             int width, int height, Metric metric) {
+        assert numPoints > 0;
+        this.xCoords = xCoords;
+        this.yCoords = yCoords;
+        this.metric = metric;
+
+        cellSize = Math.max(1.0, Math.sqrt(POINTS_PER_CELL * width * height / numPoints));
+        numCellsX = (int) (width / cellSize) + 1;
+        numCellsY = (int) (height / cellSize) + 1;
+
+        int numCells = numCellsX * numCellsY;
+        int[] pointCells = new int[numPoints];
+        cellStarts = new int[numCells + 1];
+        for (int i = 0; i < numPoints; i++) {
+            int cell = toCellY(yCoords[i]) * numCellsX + toCellX(xCoords[i]);
+            pointCells[i] = cell;
+            cellStarts[cell + 1]++;
+        }
+        for (int c = 0; c < numCells; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        cellPoints = new int[numPoints];
+        int[] fill = new int[numCells];
+        for (int i = 0; i < numPoints; i++) {
+            int cell = pointCells[i];
+            cellPoints[cellStarts[cell] + fill[cell]++] = i;
+        }
+    }
+
+    /**
+     * Returns the index of the point nearest to the given location.
+     * If several points are equally near, the lowest index is returned,
+     * just like with a linear search.
+     */
+    public int findNearest(double x, double y) {
+        int cx = toCellX(x);
+        int cy = toCellY(y);
+
+        int nearest = -1;
+        for (int r = 0; ; r++) {
+            int minCX = cx - r;
+            int maxCX = cx + r;
+            int minCY = cy - r;
+            int maxCY = cy + r;
+
+            int fromCX = Math.max(minCX, 0);
+            int toCX = Math.min(maxCX, numCellsX - 1);
+            for (int cellY = Math.max(minCY, 0); cellY <= Math.min(maxCY, numCellsY - 1); cellY++) {
+                if (cellY == minCY || cellY == maxCY) {
+                    // the top or bottom side of the ring
+                    for (int cellX = fromCX; cellX <= toCX; cellX++) {
+                        nearest = checkCell(cellY * numCellsX + cellX, x, y, nearest);
+                    }
+                } else {
+                    // only the left and right sides
+                    if (minCX >= 0) {
+                        nearest = checkCell(cellY * numCellsX + minCX, x, y, nearest);
+                    }
+                    if (maxCX < numCellsX) {
+                        nearest = checkCell(cellY * numCellsX + maxCX, x, y, nearest);
+                    }
+                }
+            }
+            double nearestDist = nearest < 0 ? Double.POSITIVE_INFINITY
+                    : metric.distanceDouble(xCoords[nearest], x, yCoords[nearest], y);
+
+            // the points that are not yet visited are outside the block
+            // of the visited cells, so they are at least this far along one axis
+            double gap = Double.POSITIVE_INFINITY;
+            if (minCX > 0) {
+                gap = Math.min(gap, x - minCX * cellSize);
+            }
+            if (maxCX < numCellsX - 1) {
+                gap = Math.min(gap, (maxCX + 1) * cellSize - x);
+            }
+            if (minCY > 0) {
+                gap = Math.min(gap, y - minCY * cellSize);
+            }
+            if (maxCY < numCellsY - 1) {
+                gap = Math.min(gap, (maxCY + 1) * cellSize - y);
+            }
+            if (gap == Double.POSITIVE_INFINITY) {
+                return nearest; // all the cells were visited
+            }
+            if (nearest >= 0 && metric.distanceDouble(0, gap, 0, 0) > nearestDist) {
+                return nearest;
+            }
+        }
+    }
+
+    // returns the index of the nearer one from the points of the given cell
+    // and the given point (which can be -1, if there is no point yet)
+    private int checkCell(int cell, double x, double y, int nearest) {
+        double nearestDist = nearest < 0 ? Double.POSITIVE_INFINITY
+                : metric.distanceDouble(xCoords[nearest], x, yCoords[nearest], y);
+        for (int j = cellStarts[cell]; j < cellStarts[cell + 1]; j++) {
+            int i = cellPoints[j];
+            double dist = metric.distanceDouble(xCoords[i], x, yCoords[i], y);
+            if (dist < nearestDist || (dist == nearestDist && i < nearest)) {
+                nearest = i;
+                nearestDist = dist;
+            }
+        }
+        return nearest;
+    }
+
+    private int toCellX(double x) {
+        return toCell(x, numCellsX);
+    }
+
+    private int toCellY(double y) {
+        return toCell(y, numCellsY);
+    }
+
+    private int toCell(double coord, int numCells) {
+        int cell = (int) Math.floor(coord / cellSize);
+        return Math.max(0, Math.min(cell, numCells - 1));
+    }
+}
@@ -28,8 +28,7 @@ import java.util.Random;
  * here, and the actions reseed it.
  */
 public class ReseedSupport {
-    private static long seed = System.nanoTime();
-    private static final Random rand = new Random();
+    private static volatile long seed = System.nanoTime();
 
     private ReseedSupport() {
     }
@@ -39,12 +38,13 @@ public class ReseedSupport {
      * make sure that the filter runs with the same random numbers
      * as before when the re-run is NOT caused by pressing
      * the "reseed" button.
-     * Returns the random number generator which is reseeded.
+     * Returns a new random number generator with the current seed,
+     * so that filters running at the same time on different threads
+     * (tween frames, batch filters) don't share the random numbers.
      * This must be called at the beginning of the filter.
      */
     public static Random reInitialize() {
-        rand.setSeed(seed);
-        return rand;
+        return new Random(seed);
     }
 
     /**
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.Test;
+
+import java.awt.image.Kernel;
+import java.util.Random;
+
+import static com.jhlabs.image.ConvolveFilter.CLAMP_EDGES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+public class GaussianFilterTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void boxRadiiMatchTheVariance() {
+        for (float radius : new float[]{32, 50, 100, 200, 500}) {
+            double variance = GaussianFilter.calcVariance(GaussianFilter.makeKernel(radius));
+            int numPasses = GaussianFilter.NUM_BOX_PASSES;
+            int[] radii = GaussianFilter.calcBoxRadii(variance, numPasses);
+
+            assertThat(radii).hasSize(numPasses);
+            double boxVariance = 0;
+            for (int r : radii) {
+                int w = 2 * r + 1;
+                boxVariance += (w * w - 1) / 12.0;
+            }
+            assertThat(Math.abs(boxVariance - variance) / variance)
+                    .as("radius = " + radius)
+                    .isLessThan(0.05);
+        }
+    }
+
+    @Test
+    public void boxBlurIsCloseToTheConvolution() {
+        int[] pixels = createTestPixels();
+        for (float radius : new float[]{GaussianFilter.MIN_BOX_BLUR_RADIUS, 60, 120, 250}) {
+            for (boolean premultiply : new boolean[]{false, true}) {
+                int[] expected = blur(pixels, radius, premultiply, false);
+                int[] actual = blur(pixels, radius, premultiply, true);
+
+                assertClose(expected, actual, "radius = " + radius
+                        + ", premultiply = " + premultiply);
+            }
+        }
+    }
+
+    private static int[] blur(int[] pixels, float radius, boolean premultiply, boolean box) {
+        Kernel kernel = GaussianFilter.makeKernel(radius);
+        int[] in = pixels.clone();
+        int[] out = new int[in.length];
+        if (box) {
+            GaussianFilter.boxBlurAndTranspose(kernel, in, out, WIDTH, HEIGHT, true, premultiply, false, NULL_TRACKER);
+            GaussianFilter.boxBlurAndTranspose(kernel, out, in, HEIGHT, WIDTH, true, false, premultiply, NULL_TRACKER);
+        } else {
+            GaussianFilter.convolveAndTranspose(kernel, in, out, WIDTH, HEIGHT, true, premultiply, false, CLAMP_EDGES, NULL_TRACKER);
+            GaussianFilter.convolveAndTranspose(kernel, out, in, HEIGHT, WIDTH, true, false, premultiply, CLAMP_EDGES, NULL_TRACKER);
+        }
+        return in;
+    }
+
+    private static void assertClose(int[] expected, int[] actual, String description) {
+        int maxDiff = 0;
+        long sumDiff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            // the colors are compared premultiplied, because the colors
+            // of the (almost) transparent pixels don't matter
+            int expectedAlpha = expected[i] >>> 24;
+            int actualAlpha = actual[i] >>> 24;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int e = (expected[i] >>> shift) & 0xFF;
+                int a = (actual[i] >>> shift) & 0xFF;
+                if (shift < 24) {
+                    e = e * expectedAlpha / 255;
+                    a = a * actualAlpha / 255;
+                }
+                int diff = Math.abs(e - a);
+                maxDiff = Math.max(maxDiff, diff);
+                sumDiff += diff;
+            }
+        }
+        double meanDiff = sumDiff / (4.0 * expected.length);
+        assertThat(maxDiff).as(description).isLessThanOrEqualTo(4);
+        assertThat(meanDiff).as(description).isLessThan(0.5);
+    }
+
+    // hard edges, gradients, noise and transparency
+    private static int[] createTestPixels() {
+        Random random = new Random(42);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = x < WIDTH / 4 ? 255 : 255 * y / HEIGHT;
+                int r = (x / 50) % 2 == 0 ? 255 : 0;
+                int g = 255 * x / WIDTH;
+                int b = random.nextInt(256);
+                if (x > WIDTH / 2 && y > HEIGHT / 2) {
+                    r = 40;
+                    g = 200;
+                    a = 0;
+                }
+                pixels[y * WIDTH + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return pixels;
+    }
+}
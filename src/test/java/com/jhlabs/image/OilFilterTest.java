@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+public class OilFilterTest {
+    @Test
+    public void slidingHistogramGivesTheSameResult() {
+        Random random = new Random(7);
+        int width = 37;
+        int height = 23;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            // few different colors, so that the bins have many pixels
+            int v = random.nextInt(6) * 40;
+            pixels[i] = random.nextInt() & 0xFF000000
+                    | v << 16 | (v + random.nextInt(10)) << 8 | random.nextInt(256);
+        }
+
+        int[][] ranges = {{0, 0}, {1, 1}, {3, 2}, {2, 5}, {10, 10}, {40, 30}};
+        for (int[] range : ranges) {
+            for (int levels : new int[]{4, 30, 256}) {
+                OilFilter filter = new OilFilter("Oil");
+                filter.setProgressTracker(NULL_TRACKER);
+                filter.setRangeX(range[0]);
+                filter.setRangeY(range[1]);
+                filter.setLevels(levels);
+
+                int[] actual = filter.filterPixels(width, height, pixels, null);
+                int[] expected = bruteForce(pixels, width, height, range[0], range[1], levels);
+
+                assertThat(actual)
+                        .as("range = %d x %d, levels = %d", range[0], range[1], levels)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    // the original algorithm, which builds the histogram for every pixel
+    private static int[] bruteForce(int[] inPixels, int width, int height,
+                                    int rangeX, int rangeY, int levels) {
+        int[] outPixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int[] histogram = new int[levels];
+                int[] rTotal = new int[levels];
+                int[] gTotal = new int[levels];
+                int[] bTotal = new int[levels];
+                for (int iy = y - rangeY; iy <= y + rangeY; iy++) {
+                    for (int ix = x - rangeX; ix <= x + rangeX; ix++) {
+                        if (iy < 0 || iy >= height || ix < 0 || ix >= width) {
+                            continue;
+                        }
+                        int rgb = inPixels[iy * width + ix];
+                        int r = (rgb >> 16) & 0xff;
+                        int g = (rgb >> 8) & 0xff;
+                        int b = rgb & 0xff;
+                        int bin = (r + g + b) / 3 * levels / 256;
+                        histogram[bin]++;
+                        rTotal[bin] += r;
+                        gTotal[bin] += g;
+                        bTotal[bin] += b;
+                    }
+                }
+                int maxIndex = 0;
+                int curMax = 0;
+                for (int i = 0; i < levels; i++) {
+                    if (histogram[i] > curMax) {
+                        curMax = histogram[i];
+                        maxIndex = i;
+                    }
+                }
+                int r = rTotal[maxIndex] / curMax;
+                int g = gTotal[maxIndex] / curMax;
+                int b = bTotal[maxIndex] / curMax;
+                int index = y * width + x;
+                outPixels[index] = (inPixels[index] & 0xff000000) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return outPixels;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pd;
+
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnimatedGifEncoderTest {
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 40;
+
+    @Test
+    public void testCroppedFrames() throws IOException {
+        byte[] gif = encode(false, true);
+
+        ImageReader reader = createReader(gif);
+        assertThat(reader.getNumImages(true)).isEqualTo(3);
+
+        // the first frame is complete
+        assertThat(getFrameBounds(reader, 0))
+                .isEqualTo(new Rectangle(0, 0, WIDTH, HEIGHT));
+        // only the changed square is encoded
+        assertThat(getFrameBounds(reader, 1))
+                .isEqualTo(new Rectangle(10, 5, 8, 6));
+        // nothing changed
+        assertThat(getFrameBounds(reader, 2).getSize())
+                .isEqualTo(new Rectangle(1, 1).getSize());
+
+        BufferedImage secondFrame = reader.read(1);
+        assertThat(isClose(secondFrame.getRGB(3, 3), Color.RED)).isTrue();
+    }
+
+    @Test
+    public void testGlobalPalette() throws IOException {
+        byte[] gif = encode(true, false);
+
+        ImageReader reader = createReader(gif);
+        assertThat(reader.getNumImages(true)).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(getFrameBounds(reader, i))
+                    .isEqualTo(new Rectangle(0, 0, WIDTH, HEIGHT));
+        }
+
+        BufferedImage firstFrame = reader.read(0);
+        assertThat(isClose(firstFrame.getRGB(1, 1), Color.BLUE)).isTrue();
+        BufferedImage secondFrame = reader.read(1);
+        assertThat(isClose(secondFrame.getRGB(12, 7), Color.RED)).isTrue();
+    }
+
+    private static byte[] encode(boolean globalPalette, boolean crop) {
+        BufferedImage first = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_RGB);
+        Graphics2D g = first.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(Color.RED);
+        g.fillRect(40, 20, 10, 10);
+        g.dispose();
+
+        BufferedImage second = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_RGB);
+        g = second.createGraphics();
+        g.drawImage(first, 0, 0, null);
+        g.setColor(Color.RED);
+        g.fillRect(10, 5, 8, 6);
+        g.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+        encoder.setGlobalPalette(globalPalette);
+        encoder.setCropToChanges(crop);
+        encoder.start(out);
+        encoder.setDelay(100);
+        encoder.setRepeat(0);
+        assertThat(encoder.addFrame(first)).isTrue();
+        assertThat(encoder.addFrame(second)).isTrue();
+        assertThat(encoder.addFrame(second)).isTrue();
+        assertThat(encoder.finish()).isTrue();
+
+        return out.toByteArray();
+    }
+
+    private static ImageReader createReader(byte[] gif) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif));
+        reader.setInput(in);
+        return reader;
+    }
+
+    private static Rectangle getFrameBounds(ImageReader reader, int index) throws IOException {
+        IIOMetadata metadata = reader.getImageMetadata(index);
+        Node root = metadata.getAsTree("javax_imageio_gif_image_1.0");
+        for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if ("ImageDescriptor".equals(n.getNodeName())) {
+                return new Rectangle(
+                        getIntAttribute(n, "imageLeftPosition"),
+                        getIntAttribute(n, "imageTopPosition"),
+                        getIntAttribute(n, "imageWidth"),
+                        getIntAttribute(n, "imageHeight"));
+            }
+        }
+        throw new IllegalStateException("no image descriptor");
+    }
+
+    private static int getIntAttribute(Node node, String name) {
+        return Integer.parseInt(node.getAttributes().getNamedItem(name).getNodeValue());
+    }
+
+    private static boolean isClose(int rgb, Color expected) {
+        Color c = new Color(rgb);
+        return Math.abs(c.getRed() - expected.getRed()) < 20
+                && Math.abs(c.getGreen() - expected.getGreen()) < 20
+                && Math.abs(c.getBlue() - expected.getBlue()) < 20;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pd;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+public class CannyEdgeDetectorTest {
+    private static final int WHITE = 0xFF_FF_FF_FF;
+
+    @Test
+    public void testSquareEdges() {
+        BufferedImage src = new BufferedImage(100, 100, TYPE_INT_RGB);
+        fillRect(src, Color.WHITE, 30, 30, 40, 40);
+
+        int[] edges = detectEdges(src, new CannyEdgeDetector());
+
+        boolean[] sidesFound = new boolean[4];
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                if (edges[y * 100 + x] != WHITE) {
+                    continue;
+                }
+                int distX = Math.min(Math.abs(x - 30), Math.abs(x - 70));
+                int distY = Math.min(Math.abs(y - 30), Math.abs(y - 70));
+                assertThat(Math.min(distX, distY))
+                        .as("x = %d, y = %d", x, y)
+                        .isLessThanOrEqualTo(3);
+                if (distX <= 3 && y > 35 && y < 65) {
+                    sidesFound[x < 50 ? 0 : 1] = true;
+                }
+                if (distY <= 3 && x > 35 && x < 65) {
+                    sidesFound[y < 50 ? 2 : 3] = true;
+                }
+            }
+        }
+        assertThat(sidesFound).containsOnly(true);
+    }
+
+    @Test
+    public void testLongEdgeDoesNotOverflowStack() {
+        // a serpentine band, whose outline is a single
+        // connected edge that is more than half a million pixels long
+        int size = 1500;
+        BufferedImage src = new BufferedImage(size, size, TYPE_INT_RGB);
+        for (int y = 10, i = 0; y + 4 < size - 10; y += 8, i++) {
+            fillRect(src, Color.WHITE, 10, y, size - 20, 4);
+            int connectorX = i % 2 == 0 ? size - 14 : 10;
+            fillRect(src, Color.WHITE, connectorX, y, 4, 12);
+        }
+
+        int[] edges = detectEdges(src, new CannyEdgeDetector());
+
+        int numEdgePixels = 0;
+        for (int pixel : edges) {
+            if (pixel == WHITE) {
+                numEdgePixels++;
+            }
+        }
+        assertThat(numEdgePixels).isGreaterThan(500_000);
+    }
+
+    @Test
+    public void testReusedDetectorGivesTheSameResults() {
+        BufferedImage first = new BufferedImage(80, 60, TYPE_INT_RGB);
+        fillRect(first, Color.WHITE, 10, 10, 50, 30);
+        BufferedImage second = new BufferedImage(80, 60, TYPE_INT_RGB);
+        fillRect(second, Color.GRAY, 0, 20, 80, 40);
+        fillRect(second, Color.WHITE, 25, 0, 10, 60);
+
+        CannyEdgeDetector reused = new CannyEdgeDetector();
+        reused.setGaussianKernelWidth(16);
+        detectEdges(first, reused);
+        reused.setGaussianKernelWidth(3);
+        reused.setGaussianKernelRadius(1.0f);
+        int[] reusedEdges = detectEdges(second, reused);
+
+        CannyEdgeDetector fresh = new CannyEdgeDetector();
+        fresh.setGaussianKernelWidth(3);
+        fresh.setGaussianKernelRadius(1.0f);
+        int[] freshEdges = detectEdges(second, fresh);
+
+        assertThat(reusedEdges).isEqualTo(freshEdges);
+    }
+
+    private static int[] detectEdges(BufferedImage src, CannyEdgeDetector detector) {
+        detector.setProgressTracker(NULL_TRACKER);
+        detector.setSourceImage(src);
+        detector.process();
+        BufferedImage edges = detector.getEdgesImage();
+        return edges.getRGB(0, 0, edges.getWidth(), edges.getHeight(),
+                null, 0, edges.getWidth());
+    }
+
+    private static void fillRect(BufferedImage img, Color color,
+                                 int x, int y, int width, int height) {
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(x, y, width, height);
+        g.dispose();
+    }
+}
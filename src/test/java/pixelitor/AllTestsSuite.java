@@ -17,19 +17,37 @@
 
 package pixelitor;
 
+import com.jhlabs.image.GaussianFilterTest;
+import com.jhlabs.image.OilFilterTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import pd.AnimatedGifEncoderTest;
+import pd.CannyEdgeDetectorTest;
+import pixelitor.automate.BatchFilterWizardTest;
 import pixelitor.filters.RandomFilterSourceTest;
 import pixelitor.filters.comp.MultiLayerEditTest;
+import pixelitor.filters.comp.ResizeTest;
 import pixelitor.filters.gui.BooleanParamTest;
 import pixelitor.filters.gui.FilterParamTest;
 import pixelitor.filters.gui.IntChoiceParamTest;
 import pixelitor.filters.gui.ParamSetTest;
 import pixelitor.filters.gui.ParamStateTest;
 import pixelitor.filters.gui.RangeParamTest;
+import pixelitor.filters.impl.RankFilterTest;
 import pixelitor.filters.levels.LevelsTest;
+import pixelitor.filters.lookup.FastLookupOpTest;
+import pixelitor.filters.lookup.PointOpChainTest;
+import pixelitor.gui.ViewTileCacheTest;
 import pixelitor.guides.GuidesTest;
+import pixelitor.history.BackupStoreTest;
 import pixelitor.history.PixelitorUndoManagerTest;
+import pixelitor.history.TileDiffEditTest;
+import pixelitor.io.IOThreadTest;
+import pixelitor.io.PXCChunkTest;
+import pixelitor.io.PXCFormatTest;
+import pixelitor.layers.AdjustmentCacheTest;
+import pixelitor.layers.AdjustmentLayerTest;
+import pixelitor.layers.BlendingModeCompositeTest;
 import pixelitor.layers.ContentLayerTest;
 import pixelitor.layers.ImageLayerTest;
 import pixelitor.layers.LayerBlendingModesTest;
@@ -40,6 +58,8 @@ import pixelitor.tools.gradient.GradientHandlesTest;
 import pixelitor.tools.guidelines.RectGuidelineTest;
 import pixelitor.tools.transform.TransformBoxTest;
 import pixelitor.transform.TransformHelperTest;
+import pixelitor.utils.MipmapPyramidTest;
+import pixelitor.utils.NearestPointIndexTest;
 import pixelitor.utils.ShapesTest;
 import pixelitor.utils.TrackedIOTest;
 import pixelitor.utils.UtilsTest;
@@ -63,31 +83,52 @@ import pixelitor.utils.UtilsTest;
 //        AllTestsSuite.class,
 
         AbstractBrushToolTest.class,
+        AdjustmentCacheTest.class,
+        AdjustmentLayerTest.class,
+        AnimatedGifEncoderTest.class,
+        BackupStoreTest.class,
+        BatchFilterWizardTest.class,
+        BlendingModeCompositeTest.class,
         BooleanParamTest.class,
+        CannyEdgeDetectorTest.class,
         CompositionCreationTest.class,
         CompositionTest.class,
         ContentLayerTest.class,
+        FastLookupOpTest.class,
         FilterParamTest.class,
+        GaussianFilterTest.class,
         GradientHandlesTest.class,
         GuidesTest.class,
+        IOThreadTest.class,
         ImageLayerTest.class,
         IntChoiceParamTest.class,
         LayerBlendingModesTest.class,
         LayerTest.class,
         LevelsTest.class,
+        MipmapPyramidTest.class,
         MultiLayerEditTest.class,
+        NearestPointIndexTest.class,
+        OilFilterTest.class,
         ParamSetTest.class,
         ParamStateTest.class,
+        PXCChunkTest.class,
+        PXCFormatTest.class,
         PixelitorUndoManagerTest.class,
+        PointOpChainTest.class,
         RandomFilterSourceTest.class,
         RangeParamTest.class,
+        RankFilterTest.class,
         RectGuidelineTest.class,
+        ResizeTest.class,
         ShapesTest.class,
         TextLayerTest.class,
+        ThreadPoolTest.class,
+        TileDiffEditTest.class,
         TrackedIOTest.class,
         TransformBoxTest.class,
         TransformHelperTest.class,
-        UtilsTest.class,})
+        UtilsTest.class,
+        ViewTileCacheTest.class,})
 public class AllTestsSuite {
     // empty
 }
@@ -1441,8 +1441,8 @@ public class AssertJSwingTest {
         testFilterWithDialog("Rays...", Randomize.YES, Reseed.NO, ShowOriginal.YES);
         testFilterWithDialog("Sparkle...", Randomize.YES, Reseed.YES, ShowOriginal.YES);
 
-        testNoDialogFilter("Reduce Single Pixel Noise");
-        testNoDialogFilter("3x3 Median Filter");
+        testFilterWithDialog("Reduce Noise...", Randomize.YES, Reseed.NO, ShowOriginal.YES);
+        testFilterWithDialog("Median...", Randomize.YES, Reseed.NO, ShowOriginal.YES);
         testFilterWithDialog("Add Noise...", Randomize.YES, Reseed.NO, ShowOriginal.YES);
         testFilterWithDialog("Pixelate...", Randomize.YES, Reseed.NO, ShowOriginal.YES);
 
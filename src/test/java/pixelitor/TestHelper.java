@@ -157,6 +157,52 @@ public class TestHelper {
         return new BufferedImage(TEST_WIDTH, TEST_HEIGHT, BufferedImage.TYPE_INT_ARGB);
     }
 
+    /**
+     * Creates an image with random pixels. A quarter of the pixels
+     * are fully transparent and another quarter are fully opaque.
+     */
+    public static BufferedImage createRandomImage(int width, int height, int type) {
+        return createRandomImage(width, height, type, new Random(42));
+    }
+
+    public static BufferedImage createRandomImage(int width, int height,
+                                                  int type, Random rand) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = rand.nextInt();
+                switch (rand.nextInt(4)) {
+                    case 0:
+                        rgb &= 0x00_FF_FF_FF; // transparent
+                        break;
+                    case 1:
+                        rgb |= 0xFF_00_00_00; // opaque
+                        break;
+                    default:
+                        break;
+                }
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Creates an image with white pixels and some random pixels,
+     * which is not completely random, so that it can be compressed
+     */
+    public static BufferedImage createCompressibleImage(int width, int height,
+                                                        int type, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random rand = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, rand.nextInt(4) == 0 ? rand.nextInt() : 0xFF_FF_FF_FF);
+            }
+        }
+        return img;
+    }
+
     public static Graphics2D createGraphics() {
         return createImage().createGraphics();
     }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.Test;
+import pixelitor.utils.CancellationToken;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ThreadPoolTest {
+    @Test
+    public void testParallelForVisitsEveryLineOnce() {
+        for (int numLines : new int[]{0, 1, 7, 100, 1001}) {
+            AtomicIntegerArray visits = new AtomicIntegerArray(numLines);
+            CountingTracker pt = new CountingTracker();
+
+            ThreadPool.parallelFor(numLines, pt, visits::incrementAndGet);
+
+            for (int i = 0; i < numLines; i++) {
+                assertThat(visits.get(i)).isEqualTo(1);
+            }
+            assertThat(pt.units).isEqualTo(numLines);
+        }
+    }
+
+    @Test
+    public void testParallelForStripsWithExplicitGrain() {
+        int numLines = 95;
+        AtomicIntegerArray visits = new AtomicIntegerArray(numLines);
+        CountingTracker pt = new CountingTracker();
+
+        ThreadPool.parallelForStrips(numLines, 10, pt, (start, end) -> {
+            assertThat(end - start).isBetween(1, 10);
+            for (int i = start; i < end; i++) {
+                visits.incrementAndGet(i);
+            }
+        });
+
+        for (int i = 0; i < numLines; i++) {
+            assertThat(visits.get(i)).isEqualTo(1);
+        }
+        assertThat(pt.units).isEqualTo(numLines);
+    }
+
+    @Test
+    public void testNestedParallelFor() {
+        int outer = 50;
+        int inner = 200;
+        AtomicIntegerArray visits = new AtomicIntegerArray(outer * inner);
+
+        ThreadPool.parallelFor(outer, ProgressTracker.NULL_TRACKER, y ->
+                ThreadPool.parallelFor(inner, ProgressTracker.NULL_TRACKER, x ->
+                        visits.incrementAndGet(y * inner + x)));
+
+        for (int i = 0; i < visits.length(); i++) {
+            assertThat(visits.get(i)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testCancellation() {
+        int numLines = 10_000;
+        AtomicInteger processed = new AtomicInteger();
+        CancellationToken token = new CancellationToken();
+
+        assertThatThrownBy(() -> ThreadPool.callCancellable(token, () -> {
+            ThreadPool.parallelFor(numLines, ProgressTracker.NULL_TRACKER, y -> {
+                if (processed.incrementAndGet() == 100) {
+                    token.cancel();
+                }
+            });
+            return null;
+        })).isInstanceOf(CancellationException.class);
+
+        assertThat(processed.get()).isLessThan(numLines);
+
+        // the token is not used anymore after the cancellable computation
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPool.parallelFor(numLines, ProgressTracker.NULL_TRACKER, y -> counter.incrementAndGet());
+        assertThat(counter.get()).isEqualTo(numLines);
+    }
+
+    @Test
+    public void testStripExceptionIsPassedToTheCaller() {
+        int numLines = 1000;
+        AtomicInteger processed = new AtomicInteger();
+
+        assertThatThrownBy(() -> ThreadPool.parallelForStrips(numLines, 10,
+                ProgressTracker.NULL_TRACKER, (start, end) -> {
+                    if (start == 500) {
+                        throw new IllegalArgumentException("strip " + start);
+                    }
+                    processed.addAndGet(end - start);
+                }))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("strip 500");
+
+        // the other strips were completed before the exception was rethrown
+        assertThat(processed.get()).isEqualTo(numLines - 10);
+    }
+
+    private static class CountingTracker implements ProgressTracker {
+        // only updated from the calling thread
+        private int units = 0;
+
+        @Override
+        public void unitDone() {
+            units++;
+        }
+
+        @Override
+        public void unitsDone(int units) {
+            this.units += units;
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package pixelitor.automate;
+
+import org.junit.Test;
+import pixelitor.filters.Filter;
+import pixelitor.filters.FilterAction;
+import pixelitor.filters.jhlabsproxies.JHBrushedMetal;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+
+public class BatchFilterWizardTest {
+    private static final int NUM_IMAGES = 16;
+
+    @Test
+    public void testConcurrentResultsAreTheSameAsSerialResults() throws Exception {
+        // a reseeding filter, which is copied for the concurrent
+        // processing, because it was created by its filter action
+        Filter filter = new FilterAction(JHBrushedMetal.NAME, JHBrushedMetal::new)
+                .createNewFilter();
+        BufferedImage src = createRandomImage(600, 400, TYPE_INT_ARGB);
+        BufferedImage expected = filter.transformImage(src);
+
+        UnaryOperator<BufferedImage> action = BatchFilterWizard.createConcurrentAction(filter);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<BufferedImage>> results = new ArrayList<>();
+            for (int i = 0; i < NUM_IMAGES; i++) {
+                results.add(executor.submit(() -> action.apply(src)));
+            }
+            for (Future<BufferedImage> result : results) {
+                checkSamePixels(result.get(), expected);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void checkSamePixels(BufferedImage actual, BufferedImage expected) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+}
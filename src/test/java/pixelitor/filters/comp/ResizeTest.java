@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.comp;
+
+import org.junit.Test;
+
+import java.awt.Dimension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResizeTest {
+    @Test
+    public void calcSizeInBox() {
+        // landscape images are limited by the width
+        assertThat(Resize.calcSizeInBox(400, 200, 300, 300))
+                .isEqualTo(new Dimension(300, 150));
+
+        // portrait images are limited by the height
+        assertThat(Resize.calcSizeInBox(200, 400, 300, 300))
+                .isEqualTo(new Dimension(150, 300));
+
+        // small images are enlarged
+        assertThat(Resize.calcSizeInBox(100, 50, 300, 300))
+                .isEqualTo(new Dimension(300, 150));
+
+        // very thin images keep at least one pixel
+        assertThat(Resize.calcSizeInBox(10000, 10, 100, 100))
+                .isEqualTo(new Dimension(100, 1));
+    }
+}
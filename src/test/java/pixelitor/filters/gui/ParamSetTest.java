@@ -85,6 +85,13 @@ public class ParamSetTest {
         assertThat(params.canBeAnimated()).isTrue();
     }
 
+    @Test
+    public void test_stateCanBeCopied() {
+        // some of the test params can't be animated
+        assertThat(params.stateCanBeCopied()).isFalse();
+        assertThat(new ParamSet(extraParam).stateCanBeCopied()).isTrue();
+    }
+
     @Test
     public void test_setFinalAnimationSettingMode() {
         params.setFinalAnimationSettingMode(false);
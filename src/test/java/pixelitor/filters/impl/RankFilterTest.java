@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.filters.impl.RankFilter.OP_CLAMP_OUTLIERS;
+import static pixelitor.filters.impl.RankFilter.OP_PERCENTILE;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+public class RankFilterTest {
+    private static final int[][] SIZES = {{1, 1}, {5, 3}, {41, 29}, {90, 70}};
+
+    @Test
+    public void percentilesAreTheSameAsWithSorting() {
+        Random random = new Random(13);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int[] pixels = createRandomPixels(random, width * height);
+            for (int radius : new int[]{1, 2, 5, 17, 60}) {
+                for (double percentile : new double[]{0, 10, 50, 73, 100}) {
+                    RankFilter filter = createFilter(OP_PERCENTILE, radius);
+                    filter.setPercentile(percentile);
+
+                    int[] actual = filter.filterPixels(width, height, pixels.clone(), null);
+                    int[] expected = sortingRankFilter(pixels, width, height, radius, percentile, false);
+
+                    assertThat(actual)
+                            .as("size = %dx%d, radius = %d, percentile = %.0f",
+                                    width, height, radius, percentile)
+                            .isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void outliersAreClampedToTheNeighbors() {
+        Random random = new Random(21);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int[] pixels = createRandomPixels(random, width * height);
+            for (int radius : new int[]{1, 3, 20}) {
+                RankFilter filter = createFilter(OP_CLAMP_OUTLIERS, radius);
+
+                int[] actual = filter.filterPixels(width, height, pixels.clone(), null);
+                int[] expected = sortingRankFilter(pixels, width, height, radius, 0, true);
+
+                assertThat(actual)
+                        .as("size = %dx%d, radius = %d", width, height, radius)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void isolatedPixelIsRemoved() {
+        int width = 5;
+        int height = 5;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xFF_40_40_40);
+        pixels[12] = 0xFF_FF_FF_FF;
+
+        for (int op : new int[]{OP_PERCENTILE, OP_CLAMP_OUTLIERS}) {
+            int[] result = createFilter(op, 1).filterPixels(width, height, pixels.clone(), null);
+
+            assertThat(result).containsOnly(0xFF_40_40_40);
+        }
+    }
+
+    private static RankFilter createFilter(int op, int radius) {
+        RankFilter filter = new RankFilter("Rank");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setOp(op);
+        filter.setRadius(radius);
+        return filter;
+    }
+
+    private static int[] createRandomPixels(Random random, int numPixels) {
+        int[] pixels = new int[numPixels];
+        for (int i = 0; i < numPixels; i++) {
+            // a limited range in some channels, so that there are many equal values
+            pixels[i] = random.nextInt(4) << 30
+                    | random.nextInt(256) << 16
+                    | (100 + random.nextInt(20)) << 8
+                    | random.nextInt(256);
+        }
+        return pixels;
+    }
+
+    // the straightforward implementation: sorting the window for every pixel
+    private static int[] sortingRankFilter(int[] pixels, int width, int height, int radius,
+                                           double percentile, boolean clampOutliers) {
+        int[] out = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                int result = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int[] window = collectWindow(pixels, width, height, x, y, radius, shift);
+                    Arrays.sort(window);
+                    int n = window.length;
+                    int center = (pixels[index] >>> shift) & 0xFF;
+                    int value;
+                    if (clampOutliers) {
+                        if (shift == 24 || n < 3) {
+                            value = center;
+                        } else {
+                            value = Math.max(window[1], Math.min(window[n - 2], center));
+                        }
+                    } else {
+                        value = window[(int) Math.round(percentile / 100.0 * (n - 1))];
+                    }
+                    result |= value << shift;
+                }
+                out[index] = result;
+            }
+        }
+        return out;
+    }
+
+    private static int[] collectWindow(int[] pixels, int width, int height,
+                                       int x, int y, int radius, int shift) {
+        int minX = Math.max(0, x - radius);
+        int maxX = Math.min(width - 1, x + radius);
+        int minY = Math.max(0, y - radius);
+        int maxY = Math.min(height - 1, y + radius);
+        int[] window = new int[(maxX - minX + 1) * (maxY - minY + 1)];
+        int i = 0;
+        for (int iy = minY; iy <= maxY; iy++) {
+            for (int ix = minX; ix <= maxX; ix++) {
+                window[i++] = (pixels[iy * width + ix] >>> shift) & 0xFF;
+            }
+        }
+        return window;
+    }
+}
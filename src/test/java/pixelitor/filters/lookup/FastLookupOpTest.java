@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ShortLookupTable;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+
+public class FastLookupOpTest {
+    private static final short[] RED = new short[256];
+    private static final short[] GREEN = new short[256];
+    private static final short[] BLUE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            RED[i] = (short) (255 - i);
+            GREEN[i] = (short) (i / 2);
+            BLUE[i] = (short) Math.min(255, i + 30);
+        }
+    }
+
+    private final FastLookupOp op = new FastLookupOp(
+            new ShortLookupTable(0, new short[][]{RED, GREEN, BLUE}));
+
+    @Test
+    public void testSmallImage() {
+        checkNonPremultiplied(20, 10);
+    }
+
+    @Test
+    public void testBigImageInParallel() {
+        checkNonPremultiplied(400, 300);
+    }
+
+    private void checkNonPremultiplied(int width, int height) {
+        BufferedImage src = createRandomImage(width, height, TYPE_INT_ARGB);
+        BufferedImage dest = new BufferedImage(width, height, TYPE_INT_ARGB);
+        op.filter(src, dest);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int in = src.getRGB(x, y);
+                int expected = (in & 0xFF000000)
+                        | RED[(in >>> 16) & 0xFF] << 16
+                        | GREEN[(in >>> 8) & 0xFF] << 8
+                        | BLUE[in & 0xFF];
+                assertThat(dest.getRGB(x, y)).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testPremultiplied() {
+        int width = 300;
+        int height = 300;
+        BufferedImage src = createRandomImage(width, height, TYPE_INT_ARGB_PRE);
+        BufferedImage dest = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        op.filter(src, dest);
+
+        int[] srcData = src.getRaster().getPixels(0, 0, width, height, (int[]) null);
+        int[] destData = dest.getRaster().getPixels(0, 0, width, height, (int[]) null);
+        for (int i = 0; i < srcData.length; i += 4) {
+            int a = srcData[i + 3];
+            assertThat(destData[i + 3]).isEqualTo(a);
+            if (a == 0) {
+                assertThat(destData[i]).isZero();
+                continue;
+            }
+            // the expected values calculated as in the earlier, float-based version
+            float f = 255.0f / a;
+            int ur = Math.min(255, (int) (srcData[i] * f));
+            int expectedRed = (int) (RED[ur] * (a / 255.0f));
+            assertThat(destData[i]).isBetween(expectedRed - 1, expectedRed + 1);
+        }
+    }
+
+    @Test
+    public void testGray() {
+        BufferedImage src = new BufferedImage(400, 300, TYPE_BYTE_GRAY);
+        byte[] pixels = new byte[400 * 300];
+        new Random(7).nextBytes(pixels);
+        src.getRaster().setDataElements(0, 0, 400, 300, pixels);
+        BufferedImage dest = new BufferedImage(400, 300, TYPE_BYTE_GRAY);
+
+        short[] table = new short[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = (short) (255 - i);
+        }
+        new FastLookupOp(new ShortLookupTable(0, new short[][]{table, table, table}))
+                .filter(src, dest);
+
+        byte[] result = (byte[]) dest.getRaster().getDataElements(0, 0, 400, 300, null);
+        for (int i = 0; i < pixels.length; i++) {
+            assertThat(result[i] & 0xFF).isEqualTo(255 - (pixels[i] & 0xFF));
+        }
+    }
+}
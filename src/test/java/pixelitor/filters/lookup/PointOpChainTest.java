@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+import org.junit.Before;
+import org.junit.Test;
+import pixelitor.filters.Filter;
+import pixelitor.filters.Invert;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.FilterParam;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.levels.RGBLookup;
+
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+
+public class PointOpChainTest {
+    private static final int TOLERANCE = 1;
+
+    private int[] red;
+    private int[] green;
+    private int[] blue;
+    private int[] inverted;
+
+    @Before
+    public void setUp() {
+        red = new int[256];
+        green = new int[256];
+        blue = new int[256];
+        inverted = new int[256];
+        for (int i = 0; i < 256; i++) {
+            red[i] = i / 2;
+            green[i] = Math.min(255, i + 40);
+            blue[i] = (i * i) / 255;
+            inverted[i] = 255 - i;
+        }
+    }
+
+    @Test
+    public void testLookupsAreCombined() {
+        PointOpChain chain = new PointOpChain();
+        chain.addLookup(red, green, blue);
+        chain.addLookup(inverted, inverted, inverted);
+
+        BufferedImage src = createRandomImage(20, 10, TYPE_INT_ARGB);
+        BufferedImage result = chain.transform(src);
+
+        assertThat(result).isNotSameAs(src);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                int in = src.getRGB(x, y);
+                int expected = (in & 0xFF000000)
+                        | (255 - red[(in >>> 16) & 0xFF]) << 16
+                        | (255 - green[(in >>> 8) & 0xFF]) << 8
+                        | (255 - blue[in & 0xFF]);
+                assertThat(result.getRGB(x, y)).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testMixedOperationsRunInOrder() {
+        short[] posterized = new short[256];
+        for (int i = 0; i < 256; i++) {
+            posterized[i] = (short) (i < 128 ? 0 : 255);
+        }
+        PointOpChain chain = new PointOpChain();
+        chain.addLookup(inverted, inverted, inverted);
+        // swaps the red and blue channels
+        chain.addPixelOp((a, r, g, b) -> (a << 24) | (b << 16) | (g << 8) | r);
+        chain.addLookup(new RGBLookup(posterized, posterized, posterized));
+
+        BufferedImage src = createRandomImage(20, 10, TYPE_INT_ARGB);
+        BufferedImage result = chain.transform(src);
+
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                int in = src.getRGB(x, y);
+                int r = posterized[255 - (in & 0xFF)];
+                int g = posterized[255 - ((in >>> 8) & 0xFF)];
+                int b = posterized[255 - ((in >>> 16) & 0xFF)];
+                int expected = (in & 0xFF000000) | (r << 16) | (g << 8) | b;
+                assertThat(result.getRGB(x, y)).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testPremultipliedImage() {
+        PointOpChain chain = new PointOpChain();
+        chain.addLookup(inverted, inverted, inverted);
+
+        BufferedImage src = createRandomImage(20, 10, TYPE_INT_ARGB_PRE);
+        BufferedImage result = chain.transform(src);
+
+        assertThat(result.getType()).isEqualTo(TYPE_INT_ARGB_PRE);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                int in = src.getRGB(x, y);
+                int out = result.getRGB(x, y);
+                int alpha = in >>> 24;
+                assertThat(out >>> 24).isEqualTo(alpha);
+                if (alpha > 64) {
+                    // the premultiplication loses some precision
+                    int expectedRed = 255 - ((in >>> 16) & 0xFF);
+                    assertThat((out >>> 16) & 0xFF)
+                            .isBetween(expectedRed - 6, expectedRed + 6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFusedResultEqualsSequentialFilters() {
+        // big enough to be processed in parallel
+        BufferedImage src = createRandomImage(400, 300, TYPE_INT_ARGB_PRE);
+
+        ColorBalance first = new ColorBalance();
+        setValue(first, "Cyan-Red", 40);
+        setValue(first, "Yellow-Blue", -60);
+        ColorBalance last = new ColorBalance();
+        setValue(last, "Magenta-Green", 70);
+        Filter[] filters = {first, new Invert(), last};
+
+        PointOpChain chain = new PointOpChain();
+        BufferedImage sequential = src;
+        for (Filter filter : filters) {
+            ((FusablePointFilter) filter).addTo(chain);
+            sequential = filter.transformImage(sequential);
+        }
+        BufferedImage fused = chain.transform(src);
+
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int[] expected = sequential.getRaster().getPixels(0, 0, width, height, (int[]) null);
+        int[] actual = fused.getRaster().getPixels(0, 0, width, height, (int[]) null);
+        for (int i = 0; i < expected.length; i += 4) {
+            int a = expected[i + 3];
+            assertThat(actual[i + 3]).isEqualTo(a);
+
+            // the sequential filters premultiply and unpremultiply
+            // between the steps, which rounds the partially
+            // transparent pixels, but the opaque ones must be the same
+            int tolerance = a == 255 ? 0 : TOLERANCE;
+            for (int c = 0; c < 3; c++) {
+                assertThat(actual[i + c])
+                        .as("pixel = %d, alpha = %d", i / 4, a)
+                        .isBetween(expected[i + c] - tolerance, expected[i + c] + tolerance);
+            }
+        }
+    }
+
+    private static void setValue(ParametrizedFilter filter, String paramName, int value) {
+        for (FilterParam param : filter.getParamSet().getParams()) {
+            if (param.getName().equals(paramName)) {
+                ((RangeParam) param).setValueNoTrigger(value);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("no param called " + paramName);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.gui;
+
+import org.junit.Before;
+import org.junit.Test;
+import pixelitor.utils.MipmapPyramid;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.function.IntFunction;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+import static pixelitor.gui.ViewTileCache.TILE_SIZE;
+
+public class ViewTileCacheTest {
+    private static final int IMG_WIDTH = 300;
+    private static final int IMG_HEIGHT = 200;
+
+    private BufferedImage image;
+    private MipmapPyramid pyramid;
+    private ViewTileCache cache;
+    private int numImageRequests;
+    private final IntFunction<BufferedImage> levelSupplier = level -> {
+        numImageRequests++;
+        return pyramid.getLevel(level);
+    };
+
+    @Before
+    public void setUp() {
+        image = createRandomImage(IMG_WIDTH, IMG_HEIGHT, TYPE_INT_ARGB);
+        pyramid = new MipmapPyramid();
+        pyramid.setSource(image, null);
+        cache = new ViewTileCache();
+        numImageRequests = 0;
+    }
+
+    @Test
+    public void testSameResultAsDirectScaling() {
+        for (double scale : new double[]{2.0, 3.0}) {
+            int coWidth = (int) (IMG_WIDTH * scale);
+            int coHeight = (int) (IMG_HEIGHT * scale);
+
+            BufferedImage expected = new BufferedImage(coWidth, coHeight, TYPE_INT_ARGB);
+            Graphics2D g = expected.createGraphics();
+            g.scale(scale, scale);
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+
+            BufferedImage tiled = paintTiled(scale, coWidth, coHeight, null);
+
+            for (int y = 0; y < coHeight; y++) {
+                for (int x = 0; x < coWidth; x++) {
+                    assertThat(tiled.getRGB(x, y))
+                            .as("scale = %s, x = %d, y = %d", scale, x, y)
+                            .isEqualTo(expected.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testZoomedOutUsesMipmapLevel() {
+        double scale = 0.5;
+        int coWidth = IMG_WIDTH / 2;
+        int coHeight = IMG_HEIGHT / 2;
+
+        BufferedImage tiled = paintTiled(scale, coWidth, coHeight, null);
+
+        // the level is painted without scaling
+        BufferedImage expected = new BufferedImage(coWidth, coHeight, TYPE_INT_ARGB);
+        Graphics2D g = expected.createGraphics();
+        g.drawImage(pyramid.getLevel(1), 0, 0, null);
+        g.dispose();
+
+        for (int y = 0; y < coHeight; y++) {
+            for (int x = 0; x < coWidth; x++) {
+                assertThat(tiled.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyVisibleTilesAreRendered() {
+        double scale = 4.0;
+        int coWidth = IMG_WIDTH * 4;
+        int coHeight = IMG_HEIGHT * 4;
+
+        paintTiled(scale, coWidth, coHeight, new Rectangle(10, 10, 300, 100));
+        // two columns and one row
+        assertThat(cache.getNumCachedTiles()).isEqualTo(2);
+        assertThat(numImageRequests).isEqualTo(1);
+
+        // the same area again: everything comes from the cache
+        paintTiled(scale, coWidth, coHeight, new Rectangle(10, 10, 300, 100));
+        assertThat(numImageRequests).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidate() {
+        double scale = 2.0;
+        int coWidth = IMG_WIDTH * 2;
+        int coHeight = IMG_HEIGHT * 2;
+        int numTiles = ((coWidth + TILE_SIZE - 1) / TILE_SIZE)
+                * ((coHeight + TILE_SIZE - 1) / TILE_SIZE);
+
+        paintTiled(scale, coWidth, coHeight, null);
+        assertThat(cache.getNumCachedTiles()).isEqualTo(numTiles);
+
+        // a small region in the middle of the top-left tile
+        cache.invalidate(new Rectangle(20, 20, 10, 10));
+        assertThat(cache.getNumCachedTiles()).isEqualTo(numTiles - 1);
+
+        // the changed pixel must be visible after the next paint
+        image.setRGB(25, 25, 0xFF_12_34_56);
+        cache.invalidate(new Rectangle(25, 25, 1, 1));
+        pyramid.invalidate(new Rectangle(25, 25, 1, 1));
+        BufferedImage tiled = paintTiled(scale, coWidth, coHeight, null);
+        assertThat(tiled.getRGB(50, 50)).isEqualTo(0xFF_12_34_56);
+        assertThat(numImageRequests).isEqualTo(2);
+
+        cache.invalidateAll();
+        assertThat(cache.getNumCachedTiles()).isEqualTo(0);
+    }
+
+    @Test
+    public void testViewsShareTheTileBudget() {
+        ViewTileCache.TileStore store = new ViewTileCache.TileStore(4);
+        ViewTileCache first = new ViewTileCache(store);
+        ViewTileCache second = new ViewTileCache(store);
+        double scale = 4.0;
+        int coWidth = IMG_WIDTH * 4;
+        int coHeight = IMG_HEIGHT * 4;
+        // three tiles in a row
+        Rectangle clip = new Rectangle(10, 10, 2 * TILE_SIZE, 100);
+
+        paintTiled(first, scale, coWidth, coHeight, clip);
+        assertThat(first.getNumCachedTiles()).isEqualTo(3);
+
+        paintTiled(second, scale, coWidth, coHeight, clip);
+        assertThat(store.getNumTiles()).isEqualTo(4);
+        assertThat(second.getNumCachedTiles()).isEqualTo(3);
+        // the least recently used tiles were evicted
+        assertThat(first.getNumCachedTiles()).isEqualTo(1);
+
+        second.invalidateAll();
+        assertThat(store.getNumTiles()).isEqualTo(1);
+        assertThat(first.getNumCachedTiles()).isEqualTo(1);
+    }
+
+    private BufferedImage paintTiled(double scale, int coWidth, int coHeight, Rectangle clip) {
+        return paintTiled(cache, scale, coWidth, coHeight, clip);
+    }
+
+    private BufferedImage paintTiled(ViewTileCache cache, double scale,
+                                     int coWidth, int coHeight, Rectangle clip) {
+        BufferedImage result = new BufferedImage(coWidth, coHeight, TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        if (clip != null) {
+            g.setClip(clip);
+        }
+        cache.paint(g, levelSupplier, scale, coWidth, coHeight);
+        g.dispose();
+        return result;
+    }
+}
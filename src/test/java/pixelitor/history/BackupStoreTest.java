@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createCompressibleImage;
+
+public class BackupStoreTest {
+    private static final int SIZE = 100;
+    private static final long IMAGE_BYTES = 4 * SIZE * SIZE;
+
+    @Test
+    public void testWithinBudget() {
+        BackupStore store = new BackupStore(10 * IMAGE_BYTES, Runnable::run);
+        BufferedImage image = createCompressibleImage(SIZE, SIZE, TYPE_INT_ARGB, 1);
+
+        ImageBackup backup = store.add(image);
+        assertThat(backup.describeState()).isEqualTo("image");
+        assertThat(store.getMemoryUsage()).isEqualTo(IMAGE_BYTES);
+        assertThat(backup.get()).isSameAs(image);
+
+        assertThat(backup.take()).isSameAs(image);
+        assertThat(store.getMemoryUsage()).isEqualTo(0);
+        assertThat(backup.get()).isNull();
+    }
+
+    @Test
+    public void testOldestIsCompressed() {
+        BackupStore store = new BackupStore(IMAGE_BYTES + IMAGE_BYTES / 2, Runnable::run);
+        BufferedImage first = createCompressibleImage(SIZE, SIZE, TYPE_INT_ARGB, 1);
+        BufferedImage second = createCompressibleImage(SIZE, SIZE, TYPE_INT_ARGB, 2);
+
+        ImageBackup firstBackup = store.add(first);
+        ImageBackup secondBackup = store.add(second);
+
+        assertThat(firstBackup.describeState()).startsWith("compressed");
+        assertThat(secondBackup.describeState()).isEqualTo("image");
+        assertThat(store.getMemoryUsage()).isLessThanOrEqualTo(store.getMemoryBudget());
+
+        assertSamePixels(firstBackup.get(), first);
+        assertSamePixels(firstBackup.take(), first);
+        assertThat(store.getMemoryUsage()).isEqualTo(IMAGE_BYTES);
+    }
+
+    @Test
+    public void testSpillToDisk() {
+        BackupStore store = new BackupStore(1, Runnable::run);
+        BufferedImage intImage = createCompressibleImage(SIZE, SIZE, TYPE_INT_ARGB, 3);
+        BufferedImage grayImage = createCompressibleImage(SIZE, SIZE, TYPE_BYTE_GRAY, 4);
+
+        ImageBackup intBackup = store.add(intImage);
+        ImageBackup grayBackup = store.add(grayImage);
+
+        assertThat(intBackup.describeState()).startsWith("on disk");
+        assertThat(grayBackup.describeState()).startsWith("on disk");
+        assertThat(store.getMemoryUsage()).isEqualTo(0);
+        assertThat(store.getDiskUsage()).isGreaterThan(0);
+
+        assertSamePixels(grayBackup.take(), grayImage);
+        assertSamePixels(intBackup.take(), intImage);
+        assertThat(store.getDiskUsage()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReleasedBackupIsForgotten() {
+        BackupStore store = new BackupStore(1, Runnable::run);
+        ImageBackup backup = store.add(createCompressibleImage(SIZE, SIZE, TYPE_INT_ARGB, 5));
+
+        backup.release();
+
+        assertThat(backup.describeState()).isEqualTo("released");
+        assertThat(store.getMemoryUsage()).isEqualTo(0);
+        assertThat(store.getDiskUsage()).isEqualTo(0);
+        assertThat(backup.take()).isNull();
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual).isNotNull();
+        assertThat(actual.getType()).isEqualTo(expected.getType());
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                assertThat(actual.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.history.TileDiffEdit.TILE_SIZE;
+
+public class TileDiffEditTest {
+    // 3 x 2 tiles, the last column and row are partial
+    private static final int WIDTH = 2 * TILE_SIZE + 10;
+    private static final int HEIGHT = TILE_SIZE + 20;
+
+    @Test
+    public void testNoChange() {
+        BufferedImage before = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        BufferedImage after = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+
+        assertThat(TileDiffEdit.findChangedTiles(before, after)).isEmpty();
+    }
+
+    @Test
+    public void testChangedTilesAreFound() {
+        BufferedImage before = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        BufferedImage after = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+
+        // the last pixel of the first tile
+        after.setRGB(TILE_SIZE - 1, TILE_SIZE - 1, 0xFF_00_00_00);
+        // the last pixel of the (partial) last tile
+        after.setRGB(WIDTH - 1, HEIGHT - 1, 0xFF_00_00_00);
+
+        assertThat(TileDiffEdit.findChangedTiles(before, after))
+                .containsExactly(0, 5);
+    }
+
+    @Test
+    public void testByteImages() {
+        BufferedImage before = new BufferedImage(WIDTH, HEIGHT, TYPE_BYTE_GRAY);
+        BufferedImage after = new BufferedImage(WIDTH, HEIGHT, TYPE_BYTE_GRAY);
+        after.getRaster().setSample(TILE_SIZE + 3, 5, 0, 200);
+
+        assertThat(TileDiffEdit.findChangedTiles(before, after))
+                .containsExactly(1);
+    }
+
+    @Test
+    public void testIncompatibleImages() {
+        BufferedImage before = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+
+        assertThat(TileDiffEdit.findChangedTiles(before,
+                new BufferedImage(WIDTH, HEIGHT + 1, TYPE_INT_ARGB))).isNull();
+        assertThat(TileDiffEdit.findChangedTiles(before,
+                new BufferedImage(WIDTH, HEIGHT, TYPE_INT_RGB))).isNull();
+    }
+}
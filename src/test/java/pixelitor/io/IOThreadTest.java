@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.io.IOThread.Priority.BACKGROUND;
+import static pixelitor.io.IOThread.Priority.INTERACTIVE;
+
+public class IOThreadTest {
+    @Test
+    public void tasksForTheSameFileDontOverlap() {
+        File file = new File("io_thread_test_same.png");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int numTasks = 20;
+        for (int i = 0; i < numTasks; i++) {
+            int taskIndex = i;
+            Executor executor = IOThread.getExecutor(file,
+                    i % 2 == 0 ? INTERACTIVE : BACKGROUND);
+            futures.add(CompletableFuture.runAsync(() -> {
+                int numRunning = running.incrementAndGet();
+                maxRunning.accumulateAndGet(numRunning, Math::max);
+                order.add(taskIndex);
+                sleep(2);
+                running.decrementAndGet();
+            }, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        assertThat(maxRunning.get()).isEqualTo(1);
+        // the tasks for the same file run in the order of submission
+        assertThat(order).isSorted().hasSize(numTasks);
+    }
+
+    @Test
+    public void tasksForDifferentFilesAllRun() {
+        AtomicInteger numRun = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int numFiles = 10;
+        for (int i = 0; i < numFiles; i++) {
+            File file = new File("io_thread_test_" + i + ".png");
+            futures.add(CompletableFuture.runAsync(numRun::incrementAndGet,
+                    IOThread.getExecutor(file, BACKGROUND)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        assertThat(numRun.get()).isEqualTo(numFiles);
+    }
+
+    @Test
+    public void failingTaskDoesNotBlockTheFile() {
+        File file = new File("io_thread_test_failing.png");
+        CompletableFuture<Void> failing = CompletableFuture.runAsync(() -> {
+            throw new IllegalStateException("test");
+        }, IOThread.getExecutor(file, INTERACTIVE));
+        CompletableFuture<Integer> next = CompletableFuture.supplyAsync(() -> 42,
+                IOThread.getExecutor(file, INTERACTIVE));
+
+        assertThat(next.join()).isEqualTo(42);
+        assertThat(failing).isCompletedExceptionally();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
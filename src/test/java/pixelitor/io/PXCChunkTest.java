@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_BINARY;
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_BYTE_INDEXED;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.awt.image.BufferedImage.TYPE_USHORT_GRAY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static pixelitor.TestHelper.createCompressibleImage;
+
+public class PXCChunkTest {
+    private static final int HEADER_LENGTH = 3;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        BufferedImage argb = createCompressibleImage(300, 200, TYPE_INT_ARGB, 1);
+        BufferedImage rgb = createCompressibleImage(1, 1, TYPE_INT_RGB, 2);
+        // taller than one block
+        BufferedImage gray = createCompressibleImage(4000, 700, TYPE_BYTE_GRAY, 3);
+
+        PXCChunkWriter writer = new PXCChunkWriter();
+        assertThat(writer.add(argb)).isEqualTo(0);
+        assertThat(writer.add(rgb)).isEqualTo(1);
+        assertThat(writer.add(gray)).isEqualTo(2);
+        assertThat(writer.getNumBlocks()).isEqualTo(5);
+
+        byte[] structure = {1, 2, 3, 4, 5};
+        File file = File.createTempFile("pxc_chunk_test", ".pxc");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(new byte[HEADER_LENGTH]);
+            out.write(structure);
+            writer.writeTo(out, HEADER_LENGTH + structure.length,
+                    structure.length, ProgressTracker.NULL_TRACKER);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            PXCChunkReader reader = new PXCChunkReader(raf.getChannel());
+            assertThat(reader.getStructureLength()).isEqualTo(structure.length);
+            assertThat(reader.readBytes(HEADER_LENGTH, structure.length).array())
+                    .isEqualTo(structure);
+
+            // the chunks can be requested in any order
+            assertSameImage(reader.getImage(2, ProgressTracker.NULL_TRACKER), gray);
+            assertSameImage(reader.getImage(0, ProgressTracker.NULL_TRACKER), argb);
+            assertSameImage(reader.getImage(1, ProgressTracker.NULL_TRACKER), rgb);
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTripWithoutLoss() throws IOException {
+        Random rand = new Random(5);
+
+        // a palette that differs from the default one
+        byte[] reds = new byte[256];
+        byte[] greens = new byte[256];
+        byte[] blues = new byte[256];
+        rand.nextBytes(reds);
+        rand.nextBytes(greens);
+        rand.nextBytes(blues);
+        IndexColorModel palette = new IndexColorModel(8, 256, reds, greens, blues);
+        BufferedImage indexed = new BufferedImage(50, 40, TYPE_BYTE_INDEXED, palette);
+        fillWithRandomSamples(indexed, rand);
+
+        IndexColorModel twoColors = new IndexColorModel(1, 2,
+                new byte[]{10, (byte) 200}, new byte[]{20, 0}, new byte[]{30, 100});
+        BufferedImage binary = new BufferedImage(33, 7, TYPE_BYTE_BINARY, twoColors);
+        fillWithRandomSamples(binary, rand);
+
+        BufferedImage gray16 = new BufferedImage(60, 30, TYPE_USHORT_GRAY);
+        fillWithRandomSamples(gray16, rand);
+
+        PXCChunkWriter writer = new PXCChunkWriter();
+        writer.add(indexed);
+        writer.add(binary);
+        writer.add(gray16);
+        File file = writeFile(writer);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            PXCChunkReader reader = new PXCChunkReader(raf.getChannel());
+
+            // the images with a palette are read back as ARGB images
+            BufferedImage readIndexed = reader.getImage(0, ProgressTracker.NULL_TRACKER);
+            assertThat(readIndexed.getType()).isEqualTo(TYPE_INT_ARGB);
+            assertSamePixels(readIndexed, indexed);
+
+            BufferedImage readBinary = reader.getImage(1, ProgressTracker.NULL_TRACKER);
+            assertThat(readBinary.getType()).isEqualTo(TYPE_INT_ARGB);
+            assertSamePixels(readBinary, binary);
+
+            // the 16-bit samples are kept
+            BufferedImage readGray16 = reader.getImage(2, ProgressTracker.NULL_TRACKER);
+            assertThat(readGray16.getType()).isEqualTo(TYPE_USHORT_GRAY);
+            assertThat(((DataBufferUShort) readGray16.getRaster().getDataBuffer()).getData())
+                    .isEqualTo(((DataBufferUShort) gray16.getRaster().getDataBuffer()).getData());
+        }
+        file.delete();
+    }
+
+    private static void fillWithRandomSamples(BufferedImage img, Random rand) {
+        int maxSample = (1 << img.getColorModel().getPixelSize()) - 1;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.getRaster().setSample(x, y, 0, rand.nextInt(maxSample + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidIndexValues() throws IOException {
+        // the offsets of the width and the type of the first
+        // image, relative to the start of the index
+        int widthOffset = 8;
+        int typeOffset = 16;
+        int[][] corruptions = {
+                {widthOffset, -5},
+                {widthOffset, 0},
+                {widthOffset + 4, Integer.MAX_VALUE},
+                {typeOffset, 99},
+                {typeOffset, 0},
+                {typeOffset + 4, 0}, // the number of rows in a block
+                {0, -1}, // the structure length
+        };
+        for (int[] corruption : corruptions) {
+            File file = writeSingleImageFile();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length() - 8);
+                long indexPosition = raf.readLong();
+                raf.seek(indexPosition + corruption[0]);
+                raf.writeInt(corruption[1]);
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                assertThatThrownBy(() -> new PXCChunkReader(raf.getChannel()))
+                        .isInstanceOf(IOException.class);
+            }
+            file.delete();
+        }
+    }
+
+    private static File writeSingleImageFile() throws IOException {
+        PXCChunkWriter writer = new PXCChunkWriter();
+        writer.add(createCompressibleImage(20, 10, TYPE_INT_ARGB, 4));
+        return writeFile(writer);
+    }
+
+    private static File writeFile(PXCChunkWriter writer) throws IOException {
+        File file = File.createTempFile("pxc_chunk_test", ".pxc");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(new byte[HEADER_LENGTH]);
+            writer.writeTo(out, HEADER_LENGTH, 0, ProgressTracker.NULL_TRACKER);
+        }
+        return file;
+    }
+
+    @Test
+    public void testPredictorRoundTrip() {
+        Random rand = new Random(42);
+        int[] bpps = {1, 2, 4};
+        for (int bpp : bpps) {
+            int rowBytes = 37 * bpp;
+            int numRows = 11;
+            byte[] raw = new byte[rowBytes * numRows];
+            rand.nextBytes(raw);
+
+            byte[] filtered = PXCPredictor.filter(raw, rowBytes, numRows, bpp);
+            assertThat(filtered.length).isEqualTo(raw.length + numRows);
+
+            byte[] restored = new byte[raw.length];
+            PXCPredictor.unfilter(filtered, restored, rowBytes, numRows, bpp);
+            assertThat(restored).isEqualTo(raw);
+        }
+    }
+
+    @Test
+    public void testPredictorOnGradient() {
+        // a horizontal gradient becomes a constant after the "Sub" filter
+        int rowBytes = 100;
+        int numRows = 3;
+        byte[] raw = new byte[rowBytes * numRows];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (i % rowBytes);
+        }
+        byte[] filtered = PXCPredictor.filter(raw, rowBytes, numRows, 1);
+        for (int y = 0; y < numRows; y++) {
+            int rowStart = y * (rowBytes + 1);
+            for (int i = 2; i <= rowBytes; i++) {
+                assertThat(Math.abs(filtered[rowStart + i])).isLessThanOrEqualTo(1);
+            }
+        }
+    }
+
+    private static void assertSameImage(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual.getType()).isEqualTo(expected.getType());
+        assertSamePixels(actual, expected);
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        int[] expectedPixels = expected.getRGB(0, 0, width, height, null, 0, width);
+        int[] actualPixels = actual.getRGB(0, 0, width, height, null, 0, width);
+        assertThat(actualPixels).isEqualTo(expectedPixels);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+public class PXCFormatTest {
+    @Test
+    public void testConcurrentWritesAndReads() throws Exception {
+        int numFiles = 4;
+        int numRounds = 5;
+        ImageHolder[] contents = new ImageHolder[numFiles];
+        File[] files = new File[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            contents[i] = new ImageHolder(i);
+            files[i] = File.createTempFile("pxc_format_test_" + i, ".pxc");
+            files[i].deleteOnExit();
+        }
+
+        // in every round, half of the files are written while
+        // the other half are read, all of them at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(numFiles);
+        try {
+            for (int i = 0; i < numFiles; i++) {
+                PXCFormat.writeObject(contents[i], files[i], NULL_TRACKER);
+            }
+            CyclicBarrier barrier = new CyclicBarrier(numFiles);
+            for (int round = 0; round < numRounds; round++) {
+                List<Future<ImageHolder>> results = new ArrayList<>();
+                for (int i = 0; i < numFiles; i++) {
+                    boolean write = (i + round) % 2 == 0;
+                    File file = files[i];
+                    ImageHolder content = contents[i];
+                    results.add(executor.submit((Callable<ImageHolder>) () -> {
+                        barrier.await();
+                        if (write) {
+                            PXCFormat.writeObject(content, file, NULL_TRACKER);
+                            return null;
+                        }
+                        return (ImageHolder) PXCFormat.readObject(file, NULL_TRACKER);
+                    }));
+                }
+                for (int i = 0; i < numFiles; i++) {
+                    ImageHolder read = results.get(i).get();
+                    if (read != null) {
+                        read.assertSameAs(contents[i]);
+                    }
+                }
+            }
+
+            // the files written during the concurrent rounds are also valid
+            for (int i = 0; i < numFiles; i++) {
+                ImageHolder read = (ImageHolder) PXCFormat.readObject(files[i], NULL_TRACKER);
+                read.assertSameAs(contents[i]);
+            }
+        } finally {
+            executor.shutdown();
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testVersion3ReadProgress() throws Exception {
+        // a version 3 file is a single gzip stream after the header
+        ImageHolder content = new ImageHolder(7);
+        File file = File.createTempFile("pxc_format_test_v3", ".pxc");
+        file.deleteOnExit();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(new byte[]{(byte) 0xAB, (byte) 0xC4, 0x03});
+            try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(out))) {
+                oos.writeObject(content);
+            }
+        }
+
+        int[] unitsDone = {0};
+        ProgressTracker pt = new ProgressTracker() {
+            @Override
+            public void unitDone() {
+                unitsDone[0]++;
+            }
+
+            @Override
+            public void unitsDone(int units) {
+                unitsDone[0] += units;
+            }
+
+            @Override
+            public void finish() {
+            }
+        };
+        ImageHolder read = (ImageHolder) PXCFormat.readObject(file, pt);
+        read.assertSameAs(content);
+
+        // the pixels are counted once, together with the rest of the file
+        assertThat(unitsDone[0]).isEqualTo((int) file.length());
+        file.delete();
+    }
+
+    /**
+     * Serializes its images like the image layers do
+     */
+    private static class ImageHolder implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int id;
+        private transient BufferedImage[] images;
+
+        ImageHolder(int id) {
+            this.id = id;
+            Random rand = new Random(id);
+            // in version 3 the gray images are read by ImageIO, which
+            // doesn't read the end of the png, so they must be the last ones
+            images = new BufferedImage[]{
+                    createRandomImage(200 + id, 150, TYPE_INT_ARGB, rand),
+                    createRandomImage(1500, 800, TYPE_INT_ARGB, rand),
+                    createRandomImage(90, 60 + id, TYPE_BYTE_GRAY, rand),
+            };
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(images.length);
+            for (BufferedImage image : images) {
+                PXCFormat.serializeImage(out, image);
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            images = new BufferedImage[in.readInt()];
+            for (int i = 0; i < images.length; i++) {
+                images[i] = PXCFormat.deserializeImage(in);
+            }
+        }
+
+        void assertSameAs(ImageHolder expected) {
+            assertThat(id).isEqualTo(expected.id);
+            assertThat(images).hasSameSizeAs(expected.images);
+            for (int i = 0; i < images.length; i++) {
+                BufferedImage actualImg = images[i];
+                BufferedImage expectedImg = expected.images[i];
+                int width = expectedImg.getWidth();
+                int height = expectedImg.getHeight();
+                assertThat(actualImg.getWidth()).isEqualTo(width);
+                assertThat(actualImg.getHeight()).isEqualTo(height);
+                assertThat(actualImg.getRGB(0, 0, width, height, null, 0, width))
+                        .isEqualTo(expectedImg.getRGB(0, 0, width, height, null, 0, width));
+            }
+        }
+    }
+}
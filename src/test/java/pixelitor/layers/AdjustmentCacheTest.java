@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+
+public class AdjustmentCacheTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private AdjustmentCache cache;
+    private BufferedImage input;
+    private List<Object> inputState;
+
+    // the sizes of the images that were transformed
+    private final List<Rectangle> transformed = new ArrayList<>();
+
+    // inverts the colors, a point operation
+    private final UnaryOperator<BufferedImage> invert = src -> {
+        transformed.add(new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+        BufferedImage dest = new BufferedImage(src.getWidth(), src.getHeight(), TYPE_INT_ARGB);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                dest.setRGB(x, y, src.getRGB(x, y) ^ 0x00_FF_FF_FF);
+            }
+        }
+        return dest;
+    };
+
+    @Before
+    public void setUp() {
+        cache = new AdjustmentCache();
+        input = createRandomImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        inputState = Arrays.asList("layer 1", 1L);
+        transformed.clear();
+    }
+
+    @Test
+    public void testReusedWhenTheInputDidNotChange() {
+        // the edits of the layers above don't change the input state
+        BufferedImage first = cache.get(input, inputState, invert, true);
+        BufferedImage second = cache.get(input, Arrays.asList("layer 1", 1L), invert, true);
+
+        assertThat(second).isSameAs(first);
+        assertThat(transformed).hasSize(1);
+        checkInverted(second);
+    }
+
+    @Test
+    public void testInvalidatedByInputStateChanges() {
+        cache.get(input, inputState, invert, true);
+
+        // a layer bellow was edited
+        fillRect(new Rectangle(0, 0, WIDTH, HEIGHT), 0xFF_00_00_FF);
+        BufferedImage result = cache.get(input, Arrays.asList("layer 1", 2L), invert, true);
+
+        assertThat(transformed).hasSize(2);
+        checkInverted(result);
+    }
+
+    @Test
+    public void testInvalidatedByFilterChanges() {
+        cache.get(input, inputState, invert, true);
+
+        cache.invalidate();
+        cache.get(input, inputState, invert, true);
+
+        assertThat(transformed).hasSize(2);
+    }
+
+    @Test
+    public void testPointOpRecalculatesOnlyTheDirtyRegion() {
+        cache.get(input, inputState, invert, true);
+
+        Rectangle dirty = new Rectangle(5, 7, 10, 4);
+        fillRect(dirty, 0xFF_12_34_56);
+        cache.inputRegionChanged(dirty);
+        BufferedImage result = cache.get(input, inputState, invert, true);
+
+        assertThat(transformed).containsExactly(
+                new Rectangle(0, 0, WIDTH, HEIGHT),
+                new Rectangle(0, 0, dirty.width, dirty.height));
+        checkInverted(result);
+
+        // the dirty region is cleared after the update
+        cache.get(input, inputState, invert, true);
+        assertThat(transformed).hasSize(2);
+    }
+
+    @Test
+    public void testOtherFiltersRecalculateEverythingForDirtyRegions() {
+        cache.get(input, inputState, invert, false);
+
+        Rectangle dirty = new Rectangle(5, 7, 10, 4);
+        fillRect(dirty, 0xFF_12_34_56);
+        cache.inputRegionChanged(dirty);
+        BufferedImage result = cache.get(input, inputState, invert, false);
+
+        assertThat(transformed).containsExactly(
+                new Rectangle(0, 0, WIDTH, HEIGHT),
+                new Rectangle(0, 0, WIDTH, HEIGHT));
+        checkInverted(result);
+    }
+
+    @Test
+    public void testTheInputIsNotCached() {
+        // a filter that returns its input
+        int origRGB = input.getRGB(0, 0);
+        BufferedImage result = cache.get(input, inputState, src -> src, true);
+        assertThat(result).isNotSameAs(input);
+
+        // the caller modifies its input
+        fillRect(new Rectangle(0, 0, WIDTH, HEIGHT), 0xFF_00_00_FF);
+        assertThat(result.getRGB(0, 0)).isEqualTo(origRGB);
+    }
+
+    private void fillRect(Rectangle r, int rgb) {
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                input.setRGB(x, y, rgb);
+            }
+        }
+    }
+
+    private void checkInverted(BufferedImage result) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertThat(result.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(input.getRGB(x, y) ^ 0x00_FF_FF_FF);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package pixelitor.layers;
+
+import org.junit.Before;
+import org.junit.Test;
+import pixelitor.Composition;
+import pixelitor.filters.Filter;
+import pixelitor.filters.gui.FilterParam;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.lookup.ColorBalance;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.Composition.ImageChangeActions.FULL;
+import static pixelitor.TestHelper.createRandomImage;
+
+public class AdjustmentLayerTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private Composition comp;
+    private ImageLayer bottomLayer;
+    private AdjustmentLayer adjustmentLayer;
+    private ImageLayer topLayer;
+    private ColorBalance filter;
+
+    @Before
+    public void setUp() {
+        comp = Composition.createEmpty(WIDTH, HEIGHT);
+        bottomLayer = new ImageLayer(comp,
+                createRandomImage(WIDTH, HEIGHT, TYPE_INT_ARGB), "bottom", null);
+        comp.addLayerInInitMode(bottomLayer);
+
+        filter = new ColorBalance();
+        adjustmentLayer = new AdjustmentLayer(comp, "adjustment", filter);
+        comp.addLayerInInitMode(adjustmentLayer);
+
+        // the top layer paints a red rectangle over the adjusted image
+        BufferedImage topImage = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = topImage.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 10, 10);
+        g.dispose();
+        topLayer = new ImageLayer(comp, topImage, "top", null);
+        comp.addLayerInInitMode(topLayer);
+
+        setFilterValue("Cyan-Red", 40);
+        comp.getCompositeImage();
+    }
+
+    @Test
+    public void testNotRecalculatedWhenALayerAboveChanges() {
+        long runs = Filter.runCount;
+
+        topLayer.contentChanged();
+        comp.layerContentsChanged(FULL);
+        comp.getCompositeImage();
+
+        assertThat(Filter.runCount).isEqualTo(runs);
+    }
+
+    @Test
+    public void testRecalculatedWhenALayerBellowChanges() {
+        long runs = Filter.runCount;
+
+        bottomLayer.contentChanged();
+        comp.layerContentsChanged(FULL);
+        comp.getCompositeImage();
+
+        assertThat(Filter.runCount).isEqualTo(runs + 1);
+    }
+
+    @Test
+    public void testRecalculatedWhenTheFilterSettingsChange() {
+        BufferedImage before = comp.getCompositeImage();
+        int beforeRGB = before.getRGB(WIDTH - 1, HEIGHT - 1);
+        long runs = Filter.runCount;
+
+        // notifies the layer through the param listener
+        setFilterValue("Cyan-Red", -70);
+        BufferedImage after = comp.getCompositeImage();
+
+        assertThat(Filter.runCount).isEqualTo(runs + 1);
+        checkAdjustedBottom(after);
+
+        // the previously returned composite image wasn't changed
+        assertThat(before.getRGB(WIDTH - 1, HEIGHT - 1)).isEqualTo(beforeRGB);
+    }
+
+    @Test
+    public void testTheCachedResultIsNotPaintedOn() {
+        comp.getCompositeImage();
+
+        // the red rectangle of the top layer is painted on a copy
+        assertThat(comp.getCompositeImage().getRGB(0, 0)).isEqualTo(Color.RED.getRGB());
+        checkAdjustedBottom(comp.calculateCompositeImage(2));
+    }
+
+    @Test
+    public void testTheAdjustmentCanBeTheTopLayer() {
+        topLayer.setVisible(false, false);
+        BufferedImage composite = comp.getCompositeImage();
+        checkAdjustedBottom(composite);
+
+        // the returned image is not changed by later edits
+        int rgb = composite.getRGB(0, 0);
+        setFilterValue("Cyan-Red", -70);
+        checkAdjustedBottom(comp.getCompositeImage());
+        assertThat(composite.getRGB(0, 0)).isEqualTo(rgb);
+    }
+
+    private void checkAdjustedBottom(BufferedImage composite) {
+        BufferedImage expected = filter.transformImage(comp.calculateCompositeImage(1));
+        boolean redPainted = composite.getRGB(0, 0) == Color.RED.getRGB();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (redPainted && x < 10 && y < 10) {
+                    continue;
+                }
+                assertThat(composite.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+
+    private void setFilterValue(String paramName, int value) {
+        for (FilterParam param : filter.getParamSet().getParams()) {
+            if (param.getName().equals(paramName)) {
+                ((RangeParam) param).setValue(value);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("no param called " + paramName);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.awt.Composite;
+import java.awt.CompositeContext;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+
+/**
+ * Checks that the packed int blending gives the
+ * same results as the generic per-sample blending
+ */
+@RunWith(Parameterized.class)
+public class BlendingModeCompositeTest {
+    @Parameter
+    public BlendingMode mode;
+
+    @Parameter(value = 1)
+    public float opacity;
+
+    @Parameters(name = "{index}: mode = {0}, opacity = {1}")
+    public static Collection<Object[]> instancesToTest() {
+        Collection<Object[]> instances = new ArrayList<>();
+        for (BlendingMode mode : BlendingMode.values()) {
+            if (mode == BlendingMode.NORMAL) {
+                continue; // it uses an AlphaComposite
+            }
+            instances.add(new Object[]{mode, 1.0f});
+            instances.add(new Object[]{mode, 0.6f});
+        }
+        return instances;
+    }
+
+    @Test
+    public void testSmallArea() {
+        // blended on the calling thread
+        testSameAsGenericPath(37, 11);
+    }
+
+    @Test
+    public void testLargeArea() {
+        // the rows are split between threads
+        testSameAsGenericPath(300, 200);
+    }
+
+    private void testSameAsGenericPath(int width, int height) {
+        Random rand = new Random(width + height);
+        BufferedImage src = createRandomImage(width, height, TYPE_INT_ARGB, rand);
+        BufferedImage dst = createRandomImage(width, height, TYPE_INT_ARGB, rand);
+
+        // these are blended with Raster.getPixels/setPixels
+        BufferedImage genericSrc = convert(src, TYPE_4BYTE_ABGR);
+        BufferedImage genericDst = convert(dst, TYPE_4BYTE_ABGR);
+
+        compose(src, dst);
+        compose(genericSrc, genericDst);
+
+        int[] expected = genericDst.getRGB(0, 0, width, height, null, 0, width);
+        int[] actual = dst.getRGB(0, 0, width, height, null, 0, width);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    private void compose(BufferedImage src, BufferedImage dst) {
+        Composite composite = mode.getComposite(opacity);
+        CompositeContext context = composite.createContext(
+                src.getColorModel(), dst.getColorModel(), null);
+        context.compose(src.getRaster(), dst.getRaster(), dst.getRaster());
+        context.dispose();
+    }
+
+    private static BufferedImage convert(BufferedImage src, int type) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        BufferedImage img = new BufferedImage(width, height, type);
+        img.setRGB(0, 0, width, height,
+                src.getRGB(0, 0, width, height, null, 0, width), 0, width);
+        return img;
+    }
+}
@@ -36,6 +36,8 @@ import pixelitor.testutils.WithTranslation;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
@@ -289,6 +291,50 @@ public class ImageLayerTest {
         iconUpdates.check(0, 0);
     }
 
+    @Test
+    public void test_strokePreviewOfNonNormalLayer() {
+        layer.setBlendingMode(BlendingMode.MULTIPLY, false, false, false);
+        TmpDrawingLayer tmpDrawingLayer
+                = layer.createTmpDrawingLayer(AlphaComposite.SrcOver);
+        Rectangle stroke = new Rectangle(3, 2, 6, 5);
+        Graphics2D g = tmpDrawingLayer.getGraphics();
+        g.setColor(Color.RED);
+        g.fill(stroke);
+
+        // without a known affected area the whole layer is merged
+        BufferedImage expected = paintLayerOnWhite(null);
+        BufferedImage expectedClipped = paintLayerOnWhite(new Rectangle(5, 0, 10, 4));
+
+        tmpDrawingLayer.setAffectedArea(stroke);
+        assertSamePixels(paintLayerOnWhite(null), expected);
+        assertSamePixels(paintLayerOnWhite(new Rectangle(5, 0, 10, 4)), expectedClipped);
+
+        layer.mergeTmpDrawingLayerDown();
+        iconUpdates.check(0, 0);
+    }
+
+    private BufferedImage paintLayerOnWhite(Rectangle clip) {
+        BufferedImage target = ImageUtils.createSysCompatibleImage(
+                layer.canvas.getImWidth(), layer.canvas.getImHeight());
+        Graphics2D g = target.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, target.getWidth(), target.getHeight());
+        if (clip != null) {
+            g.setClip(clip);
+        }
+        g.setComposite(layer.getBlendingMode().getComposite(layer.getOpacity()));
+        layer.paintLayerOnGraphics(g, false);
+        g.dispose();
+        return target;
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertThat(actual.getRGB(0, 0, width, height, null, 0, width))
+                .isEqualTo(expected.getRGB(0, 0, width, height, null, 0, width));
+    }
+
     @Test
     public void test_createCompositionSizedTmpImage() {
         BufferedImage image = layer.createCanvasSizedTmpImage();
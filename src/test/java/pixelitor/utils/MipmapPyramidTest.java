@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.createRandomImage;
+
+public class MipmapPyramidTest {
+    @Test
+    public void testLevelFor() {
+        assertThat(MipmapPyramid.levelFor(2.0)).isEqualTo(0);
+        assertThat(MipmapPyramid.levelFor(1.0)).isEqualTo(0);
+        assertThat(MipmapPyramid.levelFor(0.75)).isEqualTo(0);
+        assertThat(MipmapPyramid.levelFor(0.5)).isEqualTo(1);
+        assertThat(MipmapPyramid.levelFor(0.3)).isEqualTo(1);
+        assertThat(MipmapPyramid.levelFor(0.125)).isEqualTo(3);
+    }
+
+    @Test
+    public void testLevelSizes() {
+        MipmapPyramid pyramid = new MipmapPyramid();
+        pyramid.setSource(createRandomImage(101, 50, TYPE_INT_ARGB_PRE), null);
+
+        assertThat(pyramid.getLevel(1).getWidth()).isEqualTo(51);
+        assertThat(pyramid.getLevel(1).getHeight()).isEqualTo(25);
+        assertThat(pyramid.getLevel(3).getWidth()).isEqualTo(13);
+        assertThat(pyramid.getLevel(3).getHeight()).isEqualTo(7);
+    }
+
+    @Test
+    public void testBoxFilter() {
+        BufferedImage src = new BufferedImage(2, 2, TYPE_INT_ARGB_PRE);
+        src.getRaster().setDataElements(0, 0, 2, 2, new int[]{
+                0xFF_00_00_00, 0xFF_FF_FF_FF,
+                0xFF_10_20_30, 0xFF_30_40_50});
+        MipmapPyramid pyramid = new MipmapPyramid();
+        pyramid.setSource(src, null);
+
+        int[] result = (int[]) pyramid.getLevel(1).getRaster()
+                .getDataElements(0, 0, null);
+        assertThat(result[0]).isEqualTo(0xFF_50_58_60);
+    }
+
+    @Test
+    public void testTransparentPixelsDontBleed() {
+        BufferedImage src = new BufferedImage(2, 2, TYPE_INT_ARGB);
+        // two red pixels and two fully transparent blue pixels
+        src.setRGB(0, 0, 0xFF_FF_00_00);
+        src.setRGB(1, 0, 0xFF_FF_00_00);
+        src.setRGB(0, 1, 0x00_00_00_FF);
+        src.setRGB(1, 1, 0x00_00_00_FF);
+        MipmapPyramid pyramid = new MipmapPyramid();
+        pyramid.setSource(src, null);
+
+        assertThat(pyramid.getLevel(1).getRGB(0, 0)).isEqualTo(0x80_FF_00_00);
+    }
+
+    @Test
+    public void testIncrementalUpdateGivesSameResult() {
+        BufferedImage src = createRandomImage(200, 150, TYPE_INT_ARGB_PRE);
+        MipmapPyramid pyramid = new MipmapPyramid();
+        pyramid.setSource(src, null);
+        pyramid.getLevel(4); // builds all levels
+
+        Rectangle changed = new Rectangle(37, 91, 15, 7);
+        Random rand = new Random(7);
+        for (int y = changed.y; y < changed.y + changed.height; y++) {
+            for (int x = changed.x; x < changed.x + changed.width; x++) {
+                src.setRGB(x, y, rand.nextInt() | 0xFF_00_00_00);
+            }
+        }
+        pyramid.invalidate(changed);
+
+        MipmapPyramid fresh = new MipmapPyramid();
+        fresh.setSource(src, null);
+        for (int level = 1; level <= 4; level++) {
+            assertSameImages(pyramid.getLevel(level), fresh.getLevel(level));
+        }
+    }
+
+    @Test
+    public void testReduceFor() {
+        BufferedImage src = createRandomImage(400, 300, TYPE_INT_ARGB);
+
+        BufferedImage reduced = MipmapPyramid.reduceFor(src, 60, 45);
+        assertThat(reduced.getWidth()).isEqualTo(100);
+        assertThat(reduced.getHeight()).isEqualTo(75);
+
+        // already small enough
+        assertThat(MipmapPyramid.reduceFor(src, 300, 10)).isSameAs(src);
+    }
+
+    private static void assertSameImages(BufferedImage a, BufferedImage b) {
+        assertThat(a.getWidth()).isEqualTo(b.getWidth());
+        assertThat(a.getHeight()).isEqualTo(b.getHeight());
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                assertThat(a.getRGB(x, y)).isEqualTo(b.getRGB(x, y));
+            }
+        }
+    }
+}
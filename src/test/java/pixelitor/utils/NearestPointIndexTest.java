@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NearestPointIndexTest {
+    @Test
+    public void testSamePointsAsLinearSearch() {
+        Random random = new Random(7);
+        int[][] sizes = {{1, 1}, {30, 7}, {200, 150}};
+        int[] pointCounts = {1, 2, 13, 500, 5000};
+
+        for (Metric metric : Metric.values()) {
+            for (int[] size : sizes) {
+                int width = size[0];
+                int height = size[1];
+                for (int numPoints : pointCounts) {
+                    int[] xCoords = new int[numPoints];
+                    int[] yCoords = new int[numPoints];
+                    for (int i = 0; i < numPoints; i++) {
+                        xCoords[i] = random.nextInt(width);
+                        yCoords[i] = random.nextInt(height);
+                    }
+                    NearestPointIndex index = new NearestPointIndex(
+                            xCoords, yCoords, numPoints, width, height, metric);
+
+                    for (int q = 0; q < 300; q++) {
+                        // also outside the area, as the antialiasing
+                        // samples can be half a pixel outside
+                        double x = random.nextInt(4 * width + 4) / 2.0 - width / 2.0 - 1;
+                        double y = random.nextInt(4 * height + 4) / 2.0 - height / 2.0 - 1;
+
+                        int expected = linearSearch(xCoords, yCoords, metric, x, y);
+                        assertThat(index.findNearest(x, y))
+                                .as("metric = %s, size = %dx%d, points = %d, x = %.1f, y = %.1f",
+                                        metric, width, height, numPoints, x, y)
+                                .isEqualTo(expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEqualDistancesGiveTheLowestIndex() {
+        int[] xCoords = {10, 0, 10, 0, 5};
+        int[] yCoords = {0, 10, 10, 0, 5};
+        NearestPointIndex index = new NearestPointIndex(
+                xCoords, yCoords, 4, 11, 11, Metric.EUCLIDEAN_SQUARED);
+
+        assertThat(index.findNearest(5, 5)).isEqualTo(0);
+
+        index = new NearestPointIndex(
+                xCoords, yCoords, 5, 11, 11, Metric.TAXICAB);
+        assertThat(index.findNearest(5, 5)).isEqualTo(4);
+        assertThat(index.findNearest(2, 8)).isEqualTo(1);
+    }
+
+    private static int linearSearch(int[] xCoords, int[] yCoords,
+                                    Metric metric, double x, double y) {
+        int nearest = 0;
+        double nearestDist = metric.distanceDouble(xCoords[0], x, yCoords[0], y);
+        for (int i = 1; i < xCoords.length; i++) {
+            double dist = metric.distanceDouble(xCoords[i], x, yCoords[i], y);
+            if (dist < nearestDist) {
+                nearest = i;
+                nearestDist = dist;
+            }
+        }
+        return nearest;
+    }
+}